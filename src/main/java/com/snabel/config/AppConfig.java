@@ -7,6 +7,8 @@ import org.eclipse.microprofile.config.inject.ConfigProperty;
 
 import java.io.*;
 import java.nio.file.*;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Properties;
 
 @ApplicationScoped
@@ -28,6 +30,9 @@ public class AppConfig {
     @ConfigProperty(name = "uber-snabel.claude.unsafe-mode", defaultValue = "true")
     Boolean defaultClaudeUnsafeMode;
 
+    private static final String DEFAULT_EXTRACT_EXCLUDES =
+        "**/node_modules/**,**/.git/**,**/dist/**,**/build/**,**/.next/**,**/__MACOSX/**";
+
     private Properties configProperties;
     private Path configFile;
 
@@ -68,8 +73,33 @@ public class AppConfig {
         configProperties.setProperty("claude.executable", defaultClaudeExecutable);
         configProperties.setProperty("claude.unsafe.mode", defaultClaudeUnsafeMode.toString());
         configProperties.setProperty("branch.prefix", "claude-code");
+        configProperties.setProperty("git.worktrees", "true");
+        configProperties.setProperty("git.backend", "jgit");
         configProperties.setProperty("upload.max.size.mb", "100");
         configProperties.setProperty("session.timeout.hours", "24");
+        configProperties.setProperty("extract.parallelism", "0");
+        configProperties.setProperty("extract.include", "");
+        configProperties.setProperty("extract.exclude", DEFAULT_EXTRACT_EXCLUDES);
+        configProperties.setProperty("extract.mode", "lazy");
+        configProperties.setProperty("manifest.max.chars", "12000");
+        configProperties.setProperty("api.docs.max.tokens", "6000");
+        configProperties.setProperty("janitor.interval.minutes", "15");
+        configProperties.setProperty("storage.quota.mb", "10240");
+        configProperties.setProperty("storage.session.quota.mb", "2048");
+        configProperties.setProperty("storage.tree.min.idle.minutes", "30");
+        configProperties.setProperty("storage.delete.rate", "2000");
+        configProperties.setProperty("claude.command.concurrency", "8");
+        configProperties.setProperty("claude.command.queue.capacity", "32");
+        configProperties.setProperty("claude.command.virtual.threads", "true");
+        configProperties.setProperty("claude.command.coalesce", "false");
+        configProperties.setProperty("claude.persistent.process", "true");
+        configProperties.setProperty("claude.persistent.idle.minutes", "10");
+        configProperties.setProperty("claude.pool.size", "1");
+        configProperties.setProperty("claude.pool.mfes", "");
+        configProperties.setProperty("claude.command.timeout.minutes", "60");
+        configProperties.setProperty("claude.command.idle.timeout.minutes", "15");
+        configProperties.setProperty("claude.kill.grace.seconds", "5");
+        configProperties.setProperty("claude.runner", "stdbuf");
 
         saveConfig();
     }
@@ -107,6 +137,21 @@ public class AppConfig {
         return configProperties.getProperty("branch.prefix", "claude-code");
     }
 
+    /**
+     * Give each session its own git worktree under the temp directory (true), or switch the
+     * frontend checkout to the session's branch (false, one session at a time)
+     */
+    public boolean getGitWorktrees() {
+        return Boolean.parseBoolean(configProperties.getProperty("git.worktrees", "true"));
+    }
+
+    /**
+     * How read-only git queries are answered: "jgit" (in-process) or "cli" (a git process per query)
+     */
+    public String getGitBackend() {
+        return configProperties.getProperty("git.backend", "jgit");
+    }
+
     public int getUploadMaxSizeMb() {
         return Integer.parseInt(configProperties.getProperty("upload.max.size.mb", "100"));
     }
@@ -115,6 +160,177 @@ public class AppConfig {
         return Integer.parseInt(configProperties.getProperty("session.timeout.hours", "24"));
     }
 
+    /**
+     * Number of threads used to inflate zip entries; 0 means one per available processor
+     */
+    public int getExtractParallelism() {
+        int parallelism = Integer.parseInt(configProperties.getProperty("extract.parallelism", "0"));
+        return parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Glob patterns an archive entry must match to be extracted; empty means everything
+     */
+    public List<String> getExtractIncludes() {
+        return splitList(configProperties.getProperty("extract.include", ""));
+    }
+
+    /**
+     * Glob patterns for archive entries that are never extracted
+     */
+    public List<String> getExtractExcludes() {
+        return splitList(configProperties.getProperty("extract.exclude", DEFAULT_EXTRACT_EXCLUDES));
+    }
+
+    /**
+     * Whether uploads are only inspected in place ("lazy", the default) and extracted when a session
+     * starts, or extracted right away ("eager")
+     */
+    public boolean isLazyExtraction() {
+        return !"eager".equalsIgnoreCase(configProperties.getProperty("extract.mode", "lazy").trim());
+    }
+
+    /**
+     * Size budget (characters) for the code map embedded in Claude's instructions
+     */
+    public int getManifestMaxChars() {
+        return Integer.parseInt(configProperties.getProperty("manifest.max.chars", "12000"));
+    }
+
+    /**
+     * Token budget for the backend API docs in Claude's instructions; 0 always includes the full docs
+     */
+    public int getApiDocsMaxTokens() {
+        return Integer.parseInt(configProperties.getProperty("api.docs.max.tokens", "6000"));
+    }
+
+    /**
+     * Minutes between runs of the background storage janitor
+     */
+    public int getJanitorIntervalMinutes() {
+        return Integer.parseInt(configProperties.getProperty("janitor.interval.minutes", "15"));
+    }
+
+    /**
+     * Disk quota for everything under the temp directory in MB; 0 disables quota enforcement
+     */
+    public long getStorageQuotaMb() {
+        return Long.parseLong(configProperties.getProperty("storage.quota.mb", "10240"));
+    }
+
+    /**
+     * Maximum unpacked size of a single session's upload in MB; 0 means unlimited
+     */
+    public long getStorageSessionQuotaMb() {
+        return Long.parseLong(configProperties.getProperty("storage.session.quota.mb", "2048"));
+    }
+
+    /**
+     * Unpacked trees used within this many minutes are never evicted to meet the quota
+     */
+    public int getStorageTreeMinIdleMinutes() {
+        return Integer.parseInt(configProperties.getProperty("storage.tree.min.idle.minutes", "30"));
+    }
+
+    /**
+     * Maximum number of files per second the janitor deletes; 0 means unthrottled
+     */
+    public int getStorageDeleteRate() {
+        return Integer.parseInt(configProperties.getProperty("storage.delete.rate", "2000"));
+    }
+
+    /**
+     * Maximum number of Claude commands executing at once across all sessions
+     */
+    public int getClaudeCommandConcurrency() {
+        return Math.max(1, Integer.parseInt(configProperties.getProperty("claude.command.concurrency", "8")));
+    }
+
+    /**
+     * Number of sessions that may wait for a free slot before new commands are rejected
+     */
+    public int getClaudeCommandQueueCapacity() {
+        return Math.max(1, Integer.parseInt(configProperties.getProperty("claude.command.queue.capacity", "32")));
+    }
+
+    /**
+     * Run Claude commands on virtual threads (true) or on platform threads (false), one per command
+     */
+    public boolean getClaudeCommandVirtualThreads() {
+        return Boolean.parseBoolean(configProperties.getProperty("claude.command.virtual.threads", "true"));
+    }
+
+    /**
+     * Merge commands queued behind a running command into a single prompt (true), or run them one by one
+     */
+    public boolean getClaudeCommandCoalesce() {
+        return Boolean.parseBoolean(configProperties.getProperty("claude.command.coalesce", "false"));
+    }
+
+    /**
+     * Keep one Claude process per session fed through stream-json stdin (true), or spawn a
+     * `claude --print --continue` process for every command
+     */
+    public boolean getClaudePersistentProcess() {
+        return Boolean.parseBoolean(configProperties.getProperty("claude.persistent.process", "true"));
+    }
+
+    /**
+     * Minutes a persistent Claude process may sit idle before it is closed
+     */
+    public int getClaudePersistentIdleMinutes() {
+        return Integer.parseInt(configProperties.getProperty("claude.persistent.idle.minutes", "10"));
+    }
+
+    /**
+     * Idle Claude processes kept ready per pooled working directory for new sessions (0 disables the pool)
+     */
+    public int getClaudePoolSize() {
+        return Math.max(0, Integer.parseInt(configProperties.getProperty("claude.pool.size", "1")));
+    }
+
+    /**
+     * MFEs whose working directories get a warm pool, in addition to the frontend root
+     */
+    public List<String> getClaudePoolMfes() {
+        return splitList(configProperties.getProperty("claude.pool.mfes", ""));
+    }
+
+    /**
+     * Wall-clock limit for a single Claude command in minutes (0 disables)
+     */
+    public int getClaudeCommandTimeoutMinutes() {
+        return Integer.parseInt(configProperties.getProperty("claude.command.timeout.minutes", "60"));
+    }
+
+    /**
+     * Minutes a Claude command may go without output before it is stopped (0 disables)
+     */
+    public int getClaudeCommandIdleTimeoutMinutes() {
+        return Integer.parseInt(configProperties.getProperty("claude.command.idle.timeout.minutes", "15"));
+    }
+
+    /**
+     * Seconds a stopped Claude process and its children get to exit before they are killed
+     */
+    public int getClaudeKillGraceSeconds() {
+        return Math.max(0, Integer.parseInt(configProperties.getProperty("claude.kill.grace.seconds", "5")));
+    }
+
+    /**
+     * How one-off Claude processes are started: "stdbuf", "pty" or "pipe" (see ClaudeRunner)
+     */
+    public String getClaudeRunner() {
+        return configProperties.getProperty("claude.runner", "stdbuf");
+    }
+
+    private List<String> splitList(String value) {
+        return Arrays.stream(value.split(","))
+            .map(String::trim)
+            .filter(s -> !s.isEmpty())
+            .toList();
+    }
+
     // Setters
     public void setFrontendPath(String path) {
         configProperties.setProperty("frontend.path", path);
@@ -0,0 +1,65 @@
+package com.snabel.model;
+
+import io.quarkus.hibernate.orm.panache.PanacheEntity;
+import io.quarkus.panache.common.Sort;
+import jakarta.persistence.*;
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * A command sent to Claude for a session, with the latency, token usage and cost it took
+ */
+@Entity
+@Table(name = "claude_commands")
+public class ClaudeCommand extends PanacheEntity {
+
+    @Column(nullable = false)
+    public String sessionId;
+
+    public String targetMfe;
+
+    // The prompt, truncated
+    @Column(length = 2000)
+    public String command;
+
+    // "persistent" or "spawn"
+    @Column(length = 20)
+    public String mode;
+
+    @Column(nullable = false)
+    public LocalDateTime startedAt;
+
+    public LocalDateTime completedAt;
+
+    // Time from queueing the command to starting it
+    public Long queueWaitMillis;
+
+    // Time from sending the command to the first assistant output
+    public Long firstTokenMillis;
+    public Long durationMillis;
+    // Time spent in API calls, as reported by the CLI
+    public Long apiDurationMillis;
+    public Integer numTurns;
+    public Integer toolCalls = 0;
+
+    public Long inputTokens;
+    public Long outputTokens;
+    public Long cacheCreationTokens;
+    public Long cacheReadTokens;
+    public Double costUsd;
+
+    // Result subtype reported by the CLI ("success", "error_max_turns", ...), "stopped" or "failed"
+    @Column(length = 50)
+    public String outcome;
+
+    // Exit code of a spawned process, null for a persistent one
+    public Integer exitCode;
+
+    public static List<ClaudeCommand> findBySessionId(String sessionId) {
+        return list("sessionId", Sort.by("startedAt"), sessionId);
+    }
+
+    public static List<ClaudeCommand> findStartedSince(LocalDateTime since) {
+        return list("startedAt >= ?1", since);
+    }
+}
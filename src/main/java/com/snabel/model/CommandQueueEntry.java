@@ -0,0 +1,40 @@
+package com.snabel.model;
+
+import io.quarkus.hibernate.orm.panache.PanacheEntity;
+import io.quarkus.panache.common.Sort;
+import jakarta.persistence.*;
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * A command queued for a session and not started yet. Commands are restored from this table
+ * when the server restarts.
+ */
+@Entity
+@Table(name = "command_queue_entries")
+public class CommandQueueEntry extends PanacheEntity {
+
+    @Column(nullable = false)
+    public String sessionId;
+
+    @Column(columnDefinition = "TEXT", nullable = false)
+    public String command;
+
+    @Column(nullable = false)
+    public LocalDateTime queuedAt;
+
+    // The session's instructions: run on their own, never merged with follow-up commands
+    @Column(nullable = false)
+    public boolean instructions;
+
+    /**
+     * Every queued command, oldest first
+     */
+    public static List<CommandQueueEntry> findAllQueued() {
+        return listAll(Sort.by("id"));
+    }
+
+    public static long deleteBySessionId(String sessionId) {
+        return delete("sessionId", sessionId);
+    }
+}
@@ -3,6 +3,7 @@ package com.snabel.model;
 import io.quarkus.hibernate.orm.panache.PanacheEntity;
 import jakarta.persistence.*;
 import java.time.LocalDateTime;
+import java.util.List;
 
 @Entity
 @Table(name = "import_sessions")
@@ -23,6 +24,10 @@ public class ImportSession extends PanacheEntity {
     @Column(nullable = true)
     public String targetMfe;
 
+    // Who created the session; slots are shared out per owner and target MFE
+    @Column(nullable = true)
+    public String owner;
+
     @Column(nullable = true)
     public String workingDirectory;
 
@@ -34,8 +39,15 @@ public class ImportSession extends PanacheEntity {
 
     public String zipFileName;
 
+    @Column(length = 64)
+    public String uploadHash;
+
     public String unpackedPath;
 
+    // FileService.FileAnalysis as JSON, reused when the session is started
+    @Column(columnDefinition = "TEXT")
+    public String fileAnalysis;
+
     @Column(nullable = false)
     public LocalDateTime createdAt;
 
@@ -46,6 +58,14 @@ public class ImportSession extends PanacheEntity {
 
     public LocalDateTime completedAt;
 
+    // Hash of the static instruction prefix, to verify prompt cache reuse across sessions
+    @Column(length = 80)
+    public String promptPrefixHash;
+
+    // Hash of the instructions last sent to Claude, to send them again when they change
+    @Column(length = 80)
+    public String instructionsHash;
+
     @Column(length = 5000)
     public String errorMessage;
 
@@ -89,6 +109,14 @@ public class ImportSession extends PanacheEntity {
         return find("claudeSessionId", claudeSessionId).firstResult();
     }
 
+    /**
+     * Sessions whose Claude commands are running, updated since the given time
+     */
+    public static List<ImportSession> findRunning(LocalDateTime updatedSince) {
+        return list("status in ?1 and updatedAt > ?2",
+            List.of(SessionStatus.RUNNING, SessionStatus.TRANSFORMING), updatedSince);
+    }
+
     public enum SessionStatus {
         CREATED,        // Session created, ready to start
         UNPACKING,      // Unpacking zip file
@@ -1,6 +1,7 @@
 package com.snabel.resource;
 
 import com.snabel.config.AppConfig;
+import com.snabel.model.ClaudeCommand;
 import com.snabel.model.ImportSession;
 import com.snabel.service.*;
 import jakarta.inject.Inject;
@@ -16,6 +17,7 @@ import jakarta.ws.rs.QueryParam;
 import jakarta.ws.rs.Produces;
 import jakarta.ws.rs.core.MediaType;
 import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.core.StreamingOutput;
 import org.jboss.resteasy.reactive.multipart.FileUpload;
 import org.jboss.resteasy.reactive.RestForm;
 
@@ -24,12 +26,16 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.time.LocalDateTime;
 import java.util.*;
+import java.util.concurrent.RejectedExecutionException;
 
 @jakarta.ws.rs.Path("/api/import")
 @Produces(MediaType.APPLICATION_JSON)
 @Consumes(MediaType.APPLICATION_JSON)
 public class ImportResource {
 
+    // Most files or hunks returned by one request to the paginated diff
+    private static final int MAX_DIFF_PAGE = 500;
+
     @Inject
     AppConfig appConfig;
 
@@ -48,6 +54,15 @@ public class ImportResource {
     @Inject
     MfeDiscoveryService mfeDiscoveryService;
 
+    @Inject
+    UploadStore uploadStore;
+
+    @Inject
+    ManifestService manifestService;
+
+    @Inject
+    CommandStatsService commandStats;
+
     /**
      * Get available MFEs
      */
@@ -72,9 +87,23 @@ public class ImportResource {
         session.description = request.description;
         session.originalInstructions = request.instructions;
         session.targetMfe = request.targetMfe;
+        session.owner = request.owner != null && !request.owner.isBlank() ? request.owner.trim() : null;
         session.status = ImportSession.SessionStatus.CREATED;
         session.persist();
 
+        if (appConfig.getGitWorktrees() && appConfig.getClaudePersistentProcess()) {
+            // Set up the worktree now, so Claude can start in it while the upload is analyzed
+            try {
+                GitService.Worktree worktree = gitService.prepareWorktree(sessionId, session.description, null);
+                session.branchName = worktree.branchName;
+                session.persist();
+                claudeCodeService.prestartProcess(sessionId, getWorkingDirectory(worktree, session.targetMfe));
+            } catch (IOException e) {
+                // Tried again when the session starts
+                System.err.println("Failed to prepare worktree for session " + sessionId + ": " + e.getMessage());
+            }
+        }
+
         return Response.ok(Map.of(
             "sessionId", sessionId,
             "status", session.status,
@@ -84,7 +113,7 @@ public class ImportResource {
     }
 
     /**
-     * Upload zip file for a session
+     * Upload a zip file (or tar.gz / tar.zst tarball) for a session
      */
     @POST
     @jakarta.ws.rs.Path("/session/{sessionId}/upload")
@@ -102,23 +131,37 @@ public class ImportResource {
         }
 
         try {
-            // Save uploaded file
+            // Move the spooled upload into place (no extra copy)
             Path zipPath = fileService.saveUploadedFile(
                 sessionId,
-                Files.newInputStream(file.filePath()),
+                file.filePath(),
                 file.fileName()
             );
 
+            // Release the archive this session uploaded before, if any
+            String uploadHash = fileService.getUploadHash(zipPath);
+            if (session.uploadHash != null && !session.uploadHash.equals(uploadHash)) {
+                uploadStore.removeReference(session.uploadHash, sessionId);
+            }
+
             session.zipFileName = file.fileName();
+            session.uploadHash = uploadHash;
             session.status = ImportSession.SessionStatus.UNPACKING;
             session.persist();
 
-            // Unpack zip file
-            Path unpackedPath = fileService.unpackZipFile(sessionId, zipPath);
+            // Analyze the upload (and build its code map) straight from the archive, or unpack it right
+            // away, analyzing files as they are extracted
+            FileService.FileAnalysis analysis = new FileService.FileAnalysis();
+            Path unpackedPath;
+            if (appConfig.isLazyExtraction()) {
+                unpackedPath = fileService.inspectArchive(sessionId, zipPath, analysis);
+            } else {
+                unpackedPath = fileService.unpackArchive(sessionId, zipPath, analysis);
+                // Build the code map now so starting the session finds it cached
+                manifestService.getManifest(sessionId, unpackedPath);
+            }
             session.unpackedPath = unpackedPath.toString();
-
-            // Analyze files
-            FileService.FileAnalysis analysis = fileService.analyzeFiles(sessionId, unpackedPath);
+            session.fileAnalysis = fileService.writeAnalysis(analysis);
 
             session.status = ImportSession.SessionStatus.ANALYZING;
             session.persist();
@@ -127,11 +170,14 @@ public class ImportResource {
                 "sessionId", sessionId,
                 "status", session.status,
                 "unpackedPath", unpackedPath.toString(),
+                "extracted", Files.isDirectory(unpackedPath),
                 "analysis", Map.of(
                     "totalFiles", analysis.totalFiles,
                     "typescriptFiles", analysis.typescriptFiles,
                     "javascriptFiles", analysis.javascriptFiles,
-                    "totalSizeMB", analysis.totalSize / 1024.0 / 1024.0
+                    "totalSizeMB", analysis.totalSize / 1024.0 / 1024.0,
+                    "skippedFiles", analysis.skippedFiles,
+                    "skippedSizeMB", analysis.skippedSize / 1024.0 / 1024.0
                 )
             )).build();
 
@@ -146,6 +192,16 @@ public class ImportResource {
         }
     }
 
+    /**
+     * Directory Claude runs in: the target MFE's directory, or the frontend root, within the
+     * session's worktree
+     */
+    private String getWorkingDirectory(GitService.Worktree worktree, String targetMfe) {
+        return worktree.resolve(targetMfe != null && !targetMfe.isEmpty()
+            ? mfeDiscoveryService.getMfeWorkingDirectory(targetMfe)
+            : appConfig.getFrontendPath());
+    }
+
     /**
      * Start Claude Code transformation
      */
@@ -164,58 +220,67 @@ public class ImportResource {
         }
 
         try {
-            // Create git branch
-            String branchName = gitService.createBranch(sessionId, session.description);
+            // Create the session's branch and the worktree it is checked out in
+            GitService.Worktree worktree = gitService.prepareWorktree(sessionId, session.description, session.branchName);
+            String branchName = worktree.branchName;
             session.branchName = branchName;
             session.persist();
 
-            // Build instructions for Claude
-            String fullInstructions;
+            // Build instructions for Claude from the session alone, so starting it again only sends
+            // them again if the session changed (e.g. code was uploaded since)
+            FileService.Instructions instructions;
 
             // Check if this is an upload-based or direct session
             if (session.unpackedPath != null && !session.unpackedPath.isEmpty()) {
-                // Upload-based session: analyze files and build comprehensive instructions
-                Path unpackedPath = Path.of(session.unpackedPath);
-                FileService.FileAnalysis analysis = fileService.analyzeFiles(sessionId, unpackedPath);
-
-                String backendApiPath = Path.of(appConfig.getBackendPath(), "docs", "API.md").toString();
-                String baseInstructions = fileService.buildClaudeInstructions(
+                // Upload-based session: reuse the analysis from upload and build comprehensive instructions
+                if (session.uploadHash != null) {
+                    // Keep the shared upload alive while the session is in use
+                    uploadStore.addReference(session.uploadHash, sessionId);
+                }
+                // Extracts the upload now if it was only inspected at upload time or has been evicted
+                FileService.WorkingCopy workingCopy = fileService.prepareWorkingCopy(
+                    sessionId, session.uploadHash, Path.of(session.unpackedPath), session.fileAnalysis);
+                Path unpackedPath = workingCopy.directory;
+                FileService.FileAnalysis analysis = workingCopy.analysis;
+                session.unpackedPath = unpackedPath.toString();
+                session.fileAnalysis = fileService.writeAnalysis(analysis);
+
+                String codeMap = manifestService.getManifest(sessionId, unpackedPath);
+                instructions = fileService.buildClaudeInstructions(
                     session.description,
                     analysis,
-                    backendApiPath,
+                    codeMap,
+                    manifestService.getApiCalls(sessionId, unpackedPath),
+                    session.originalInstructions,
                     session.targetMfe
                 );
-
-                fullInstructions = baseInstructions + "\n\n" +
-                    "USER ADDITIONAL INSTRUCTIONS:\n" +
-                    (request.additionalInstructions != null ? request.additionalInstructions : session.originalInstructions);
             } else {
                 // Direct session: use user instructions with context
-                fullInstructions = fileService.buildDirectInstructions(
+                instructions = fileService.buildDirectInstructions(
                     session.description,
                     session.originalInstructions,
-                    request.additionalInstructions,
-                    Path.of(appConfig.getBackendPath(), "docs", "API.md").toString(),
                     session.targetMfe
                 );
             }
 
-            // Determine working directory based on target MFE
-            String workingDirectory = session.targetMfe != null && !session.targetMfe.isEmpty()
-                ? mfeDiscoveryService.getMfeWorkingDirectory(session.targetMfe)
-                : appConfig.getFrontendPath();
+            String workingDirectory = getWorkingDirectory(worktree, session.targetMfe);
 
-            // Start Claude Code process in the appropriate directory
+            // Start Claude Code process in the appropriate directory, instructions first
             claudeCodeService.startClaudeProcess(
                 sessionId,
-                fullInstructions,
+                instructions,
                 workingDirectory
             );
+            if (request.additionalInstructions != null && !request.additionalInstructions.isBlank()) {
+                // Queued behind the instructions, if they were sent
+                claudeCodeService.sendCommandToProcess(sessionId, request.additionalInstructions);
+            }
 
             return Response.ok(Map.of(
                 "sessionId", sessionId,
                 "status", "RUNNING",
-                "branchName", branchName
+                "branchName", branchName,
+                "workingDirectory", workingDirectory
             )).build();
 
         } catch (Exception e) {
@@ -278,6 +343,10 @@ public class ImportResource {
         }
 
         try {
+            // Claude must not change files while the branch is merged, and the worktree is removed after
+            if (claudeCodeService.isProcessRunning(sessionId)) {
+                claudeCodeService.stopProcess(sessionId);
+            }
             gitService.mergeBranch(sessionId, session.branchName, commitMessage);
 
             session.merged = true;
@@ -355,10 +424,34 @@ public class ImportResource {
         response.put("filesModified", session.filesModified);
         response.put("filesDeleted", session.filesDeleted);
         response.put("isRunning", claudeCodeService.isRunning(sessionId));
+        response.put("commandQueue", claudeCodeService.getQueueStatus(sessionId));
+        response.put("promptPrefixHash", session.promptPrefixHash);
 
         return Response.ok(response).build();
     }
 
+    /**
+     * Get the commands sent to Claude for a session, with their latency, usage and cost
+     */
+    @GET
+    @jakarta.ws.rs.Path("/session/{sessionId}/commands")
+    @Transactional
+    public Response getSessionCommands(@PathParam("sessionId") String sessionId) {
+        ImportSession session = ImportSession.findBySessionId(sessionId);
+        if (session == null) {
+            return Response.status(Response.Status.NOT_FOUND)
+                .entity(Map.of("error", "Session not found"))
+                .build();
+        }
+
+        List<ClaudeCommand> commands = commandStats.getCommands(sessionId);
+        return Response.ok(Map.of(
+            "sessionId", sessionId,
+            "commands", commands,
+            "totals", commandStats.totals(commands)
+        )).build();
+    }
+
     /**
      * List all sessions
      */
@@ -421,12 +514,77 @@ public class ImportResource {
                 .build();
         }
 
+        // Written to the response as git produces it, in chunks
+        String branchName = session.branchName;
+        StreamingOutput diff = out -> gitService.streamDiff(sessionId, branchName, out);
+        return Response.ok(diff).build();
+    }
+
+    /**
+     * Get a page of the files changed by the session's branch
+     */
+    @GET
+    @jakarta.ws.rs.Path("/session/{sessionId}/diff/files")
+    public Response getDiffFiles(
+        @PathParam("sessionId") String sessionId,
+        @QueryParam("offset") @DefaultValue("0") int offset,
+        @QueryParam("limit") @DefaultValue("100") int limit
+    ) {
+        ImportSession session = ImportSession.findBySessionId(sessionId);
+        if (session == null) {
+            return Response.status(Response.Status.NOT_FOUND).build();
+        }
+
+        if (session.branchName == null) {
+            return Response.status(Response.Status.BAD_REQUEST)
+                .entity(Map.of("error", "No branch available"))
+                .build();
+        }
+
         try {
-            String diff = gitService.getDiff(sessionId, session.branchName);
+            return Response.ok(gitService.getDiffFiles(sessionId, session.branchName, offset,
+                Math.min(limit, MAX_DIFF_PAGE))).build();
+        } catch (IOException e) {
+            return Response.status(Response.Status.INTERNAL_SERVER_ERROR)
+                .entity(Map.of("error", "Failed to get diff: " + e.getMessage()))
+                .build();
+        }
+    }
+
+    /**
+     * Get the diff of one changed file, split into hunks
+     */
+    @GET
+    @jakarta.ws.rs.Path("/session/{sessionId}/diff/file")
+    public Response getFileDiff(
+        @PathParam("sessionId") String sessionId,
+        @QueryParam("path") String path,
+        @QueryParam("offset") @DefaultValue("0") int offset,
+        @QueryParam("limit") @DefaultValue("50") int limit
+    ) {
+        ImportSession session = ImportSession.findBySessionId(sessionId);
+        if (session == null) {
+            return Response.status(Response.Status.NOT_FOUND).build();
+        }
+
+        if (session.branchName == null || path == null || path.isEmpty()) {
+            return Response.status(Response.Status.BAD_REQUEST)
+                .entity(Map.of("error", session.branchName == null ? "No branch available" : "path is required"))
+                .build();
+        }
+
+        try {
+            GitService.FileDiff diff = gitService.getFileDiff(sessionId, session.branchName, path, offset,
+                Math.min(limit, MAX_DIFF_PAGE));
+            if (diff == null) {
+                return Response.status(Response.Status.NOT_FOUND)
+                    .entity(Map.of("error", "File not changed on the branch: " + path))
+                    .build();
+            }
             return Response.ok(diff).build();
         } catch (IOException e) {
             return Response.status(Response.Status.INTERNAL_SERVER_ERROR)
-                .entity("Failed to get diff: " + e.getMessage())
+                .entity(Map.of("error", "Failed to get diff: " + e.getMessage()))
                 .build();
         }
     }
@@ -479,13 +637,19 @@ public class ImportResource {
         }
 
         try {
-            claudeCodeService.sendCommandToProcess(sessionId, request.command);
+            int position = claudeCodeService.sendCommandToProcess(sessionId, request.command);
 
             return Response.ok(Map.of(
                 "sessionId", sessionId,
                 "command", request.command,
-                "sent", true
+                "sent", true,
+                "queuePosition", position
             )).build();
+        } catch (RejectedExecutionException e) {
+            return Response.status(Response.Status.SERVICE_UNAVAILABLE)
+                .header("Retry-After", "10")
+                .entity(Map.of("error", e.getMessage()))
+                .build();
         } catch (Exception e) {
             return Response.status(Response.Status.INTERNAL_SERVER_ERROR)
                 .entity(Map.of("error", "Failed to send command: " + e.getMessage()))
@@ -498,6 +662,8 @@ public class ImportResource {
         public String description;
         public String instructions;
         public String targetMfe;
+        // Who the session is for, e.g. a user name; sessions without one share a single owner
+        public String owner;
     }
 
     public static class StartRequest {
@@ -1,6 +1,11 @@
 package com.snabel.resource;
 
 import com.snabel.config.AppConfig;
+import com.snabel.service.AdmissionController;
+import com.snabel.service.ClaudeProcessManager;
+import com.snabel.service.CommandExecutor;
+import com.snabel.service.CommandStatsService;
+import com.snabel.service.StorageJanitor;
 import jakarta.inject.Inject;
 import jakarta.ws.rs.*;
 import jakarta.ws.rs.core.MediaType;
@@ -8,6 +13,7 @@ import jakarta.ws.rs.core.Response;
 
 import java.io.BufferedReader;
 import java.io.File;
+import java.io.IOException;
 import java.io.InputStreamReader;
 import java.net.HttpURLConnection;
 import java.net.URL;
@@ -22,6 +28,21 @@ public class StatusResource {
     @Inject
     AppConfig appConfig;
 
+    @Inject
+    StorageJanitor storageJanitor;
+
+    @Inject
+    CommandExecutor commandExecutor;
+
+    @Inject
+    AdmissionController admissionController;
+
+    @Inject
+    ClaudeProcessManager processManager;
+
+    @Inject
+    CommandStatsService commandStats;
+
     /**
      * Check if frontend is running
      */
@@ -97,6 +118,75 @@ public class StatusResource {
         return Response.ok(status).build();
     }
 
+    /**
+     * Get temp directory disk usage and storage janitor metrics
+     */
+    @GET
+    @jakarta.ws.rs.Path("/storage")
+    public Response getStorageStatus() {
+        try {
+            Map<String, Object> status = new HashMap<>();
+            status.put("usage", storageJanitor.getUsage());
+            status.put("quotaMB", appConfig.getStorageQuotaMb());
+            status.put("sessionQuotaMB", appConfig.getStorageSessionQuotaMb());
+            status.put("lastRunAt", storageJanitor.getLastRunAt());
+            status.put("lastRunMillis", storageJanitor.getLastRunMillis());
+            status.put("evictedTrees", storageJanitor.getEvictedTrees());
+            status.put("deletedFiles", storageJanitor.getDeletedFiles());
+
+            return Response.ok(status).build();
+        } catch (IOException e) {
+            return Response.status(Response.Status.INTERNAL_SERVER_ERROR)
+                .entity(Map.of("error", "Failed to measure storage: " + e.getMessage()))
+                .build();
+        }
+    }
+
+    /**
+     * Get Claude command execution metrics
+     */
+    @GET
+    @jakarta.ws.rs.Path("/claude")
+    public Response getClaudeStatus() {
+        Map<String, Object> status = new HashMap<>();
+        AdmissionController.Status admission = admissionController.getStatus();
+        status.put("commands", Map.of(
+            "concurrency", commandExecutor.getConcurrency(),
+            "active", commandExecutor.getActiveCount(),
+            "queued", admission.waiting,
+            "queueCapacity", admission.queueCapacity,
+            "completed", commandExecutor.getCompletedCount(),
+            "rejected", admission.rejected
+        ));
+        status.put("admission", admission);
+        status.put("processes", Map.of(
+            "persistent", processManager.getProcessCount(),
+            "warm", processManager.getWarmCount(),
+            "poolSize", appConfig.getClaudePoolSize(),
+            "poolHits", processManager.getPoolHits(),
+            "poolMisses", processManager.getPoolMisses(),
+            "started", processManager.getStartedCount(),
+            "runningCommands", processManager.getRunningCommandCount(),
+            "reclaimed", processManager.getReclaimedCount(),
+            "killed", processManager.getKilledCount(),
+            "timedOut", processManager.getTimedOutCount()
+        ));
+
+        return Response.ok(status).build();
+    }
+
+    /**
+     * Get Claude command latency, usage and cost of the last days, per target MFE
+     */
+    @GET
+    @jakarta.ws.rs.Path("/claude/stats")
+    public Response getClaudeStats(
+        @QueryParam("days") @DefaultValue("7") int days,
+        @QueryParam("top") @DefaultValue("10") int top
+    ) {
+        return Response.ok(commandStats.getStats(Math.max(days, 1), Math.max(top, 0))).build();
+    }
+
     /**
      * Get configuration
      */
@@ -0,0 +1,347 @@
+package com.snabel.service;
+
+import com.snabel.config.AppConfig;
+import com.snabel.websocket.LogWebSocket;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+
+import java.util.*;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Decides when Claude commands may run. At most claude.command.concurrency commands run at once
+ * across all sessions. Sessions waiting for a slot are queued per share, the session's owner and
+ * target MFE, and a free slot goes to the share with the fewest commands running, oldest waiter
+ * first on a tie, so a burst of sessions from one user or on one MFE cannot starve the others.
+ * A session holds a slot for one command and queues again for its next one, so a user's
+ * sessions on the same MFE take turns.
+ *
+ * Up to claude.command.queue.capacity sessions may wait for a slot; new work beyond that is
+ * rejected. Waiting sessions are told their position over their WebSocket whenever it changes.
+ */
+@ApplicationScoped
+public class AdmissionController {
+
+    static final String NO_OWNER = "(anonymous)";
+    static final String NO_MFE = "(frontend root)";
+    // Admissions kept for the wait-time percentile
+    private static final int WAIT_SAMPLES = 500;
+
+    @Inject
+    AppConfig appConfig;
+
+    @Inject
+    CommandExecutor commandExecutor;
+
+    @Inject
+    LogWebSocket logWebSocket;
+
+    // Sessions waiting for a slot, by share, oldest first
+    private final Map<ShareKey, Deque<Ticket>> waiting = new HashMap<>();
+    // Commands running, by share
+    private final Map<ShareKey, Integer> running = new HashMap<>();
+    private int waitingCount = 0;
+    private int runningCount = 0;
+    private long sequence = 0;
+
+    private long admitted = 0;
+    private long rejected = 0;
+    private long totalWaitMillis = 0;
+    private long maxWaitMillis = 0;
+    private final long[] waitSamples = new long[WAIT_SAMPLES];
+
+    /**
+     * The share a session's commands are scheduled under
+     */
+    static ShareKey shareOf(String owner, String targetMfe) {
+        return new ShareKey(owner != null && !owner.isEmpty() ? owner : NO_OWNER,
+            targetMfe != null && !targetMfe.isEmpty() ? targetMfe : NO_MFE);
+    }
+
+    /**
+     * Queue a session's next command for a slot. Returns the session's position among the
+     * sessions waiting, or 0 if the command was admitted right away.
+     *
+     * Throws RejectedExecutionException if too many sessions are waiting already, unless the
+     * session is requeueing for its next command: work already accepted is never rejected.
+     */
+    public int submit(String sessionId, ShareKey share, Runnable command, boolean requeue) {
+        Ticket ticket;
+        synchronized (this) {
+            int capacity = appConfig.getClaudeCommandQueueCapacity();
+            if (!requeue && waitingCount >= capacity) {
+                rejected++;
+                throw new RejectedExecutionException(
+                    "Too many Claude commands waiting (" + capacity + "), try again later");
+            }
+            ticket = new Ticket(sessionId, share, command, sequence++);
+            waiting.computeIfAbsent(share, key -> new ArrayDeque<>()).addLast(ticket);
+            waitingCount++;
+        }
+        dispatch();
+        synchronized (this) {
+            return ticket.position;
+        }
+    }
+
+    /**
+     * Withdraw a session that is waiting for a slot. Returns false if it was not waiting.
+     */
+    public boolean cancel(String sessionId) {
+        synchronized (this) {
+            Ticket ticket = find(sessionId);
+            if (ticket == null) {
+                return false;
+            }
+            Deque<Ticket> queue = waiting.get(ticket.share);
+            queue.remove(ticket);
+            if (queue.isEmpty()) {
+                waiting.remove(ticket.share);
+            }
+            waitingCount--;
+        }
+        dispatch();
+        return true;
+    }
+
+    /**
+     * Position of a session waiting for a slot, or null if it is not waiting
+     */
+    public synchronized Integer getPosition(String sessionId) {
+        Ticket ticket = find(sessionId);
+        return ticket != null ? ticket.position : null;
+    }
+
+    /**
+     * Admit waiting sessions while there are free slots, then tell the sessions still waiting
+     * their new position
+     */
+    private void dispatch() {
+        List<Ticket> admittedNow = new ArrayList<>();
+        List<Ticket> moved = new ArrayList<>();
+        int runningNow;
+
+        synchronized (this) {
+            int concurrency = appConfig.getClaudeCommandConcurrency();
+            Ticket next;
+            while (runningCount < concurrency && (next = pollFairest(waiting, running)) != null) {
+                waitingCount--;
+                runningCount++;
+                running.merge(next.share, 1, Integer::sum);
+                recordWait(next);
+                next.waited = next.position > 0;
+                next.position = 0;
+                admittedNow.add(next);
+            }
+            runningNow = runningCount;
+
+            List<Ticket> order = dispatchOrder();
+            for (int i = 0; i < order.size(); i++) {
+                Ticket ticket = order.get(i);
+                if (ticket.position != i + 1) {
+                    ticket.position = i + 1;
+                    moved.add(ticket);
+                }
+            }
+        }
+
+        for (Ticket ticket : admittedNow) {
+            if (ticket.waited) {
+                logWebSocket.sendLog(ticket.sessionId, "INFO",
+                    "Got a Claude slot after waiting " + (ticket.waitMillis / 1000) + "s");
+            }
+            try {
+                commandExecutor.execute(() -> run(ticket));
+            } catch (RejectedExecutionException e) {
+                // Shutting down; the session's queued commands are restored on restart
+                release(ticket);
+            }
+        }
+        for (Ticket ticket : moved) {
+            logWebSocket.sendLog(ticket.sessionId, "INFO", "Waiting for a Claude slot: position "
+                + ticket.position + " (" + runningNow + " command(s) running)");
+        }
+    }
+
+    private void run(Ticket ticket) {
+        try {
+            ticket.command.run();
+        } finally {
+            release(ticket);
+        }
+    }
+
+    private void release(Ticket ticket) {
+        synchronized (this) {
+            runningCount--;
+            running.computeIfPresent(ticket.share, (share, count) -> count > 1 ? count - 1 : null);
+        }
+        dispatch();
+    }
+
+    /**
+     * Take the oldest ticket of the share with the fewest commands running
+     */
+    private static Ticket pollFairest(Map<ShareKey, Deque<Ticket>> queues, Map<ShareKey, Integer> runningByShare) {
+        Deque<Ticket> fairest = null;
+        int fairestRunning = 0;
+        for (Map.Entry<ShareKey, Deque<Ticket>> entry : queues.entrySet()) {
+            Deque<Ticket> queue = entry.getValue();
+            int shareRunning = runningByShare.getOrDefault(entry.getKey(), 0);
+            if (fairest == null || shareRunning < fairestRunning
+                    || (shareRunning == fairestRunning && queue.peekFirst().sequence < fairest.peekFirst().sequence)) {
+                fairest = queue;
+                fairestRunning = shareRunning;
+            }
+        }
+        if (fairest == null) {
+            return null;
+        }
+
+        Ticket ticket = fairest.pollFirst();
+        if (fairest.isEmpty()) {
+            queues.remove(ticket.share);
+        }
+        return ticket;
+    }
+
+    /**
+     * The order waiting sessions would be admitted in if nothing finished and nothing new arrived
+     */
+    private List<Ticket> dispatchOrder() {
+        Map<ShareKey, Deque<Ticket>> queues = new HashMap<>();
+        waiting.forEach((share, queue) -> queues.put(share, new ArrayDeque<>(queue)));
+        Map<ShareKey, Integer> runningByShare = new HashMap<>(running);
+
+        List<Ticket> order = new ArrayList<>(waitingCount);
+        Ticket next;
+        while ((next = pollFairest(queues, runningByShare)) != null) {
+            order.add(next);
+            runningByShare.merge(next.share, 1, Integer::sum);
+        }
+        return order;
+    }
+
+    private void recordWait(Ticket ticket) {
+        ticket.waitMillis = System.currentTimeMillis() - ticket.queuedAt;
+        waitSamples[(int) (admitted % WAIT_SAMPLES)] = ticket.waitMillis;
+        admitted++;
+        totalWaitMillis += ticket.waitMillis;
+        maxWaitMillis = Math.max(maxWaitMillis, ticket.waitMillis);
+    }
+
+    private Ticket find(String sessionId) {
+        for (Deque<Ticket> queue : waiting.values()) {
+            for (Ticket ticket : queue) {
+                if (ticket.sessionId.equals(sessionId)) {
+                    return ticket;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Slots, waiting sessions and wait times, as reported by GET /api/status/claude
+     */
+    public synchronized Status getStatus() {
+        Status status = new Status();
+        status.concurrency = appConfig.getClaudeCommandConcurrency();
+        status.running = runningCount;
+        status.waiting = waitingCount;
+        status.queueCapacity = appConfig.getClaudeCommandQueueCapacity();
+        status.admitted = admitted;
+        status.rejected = rejected;
+
+        if (admitted > 0) {
+            long[] samples = Arrays.copyOf(waitSamples, (int) Math.min(admitted, WAIT_SAMPLES));
+            Arrays.sort(samples);
+            status.avgWaitMillis = totalWaitMillis / admitted;
+            status.p95WaitMillis = samples[(int) Math.ceil(samples.length * 0.95) - 1];
+            status.maxWaitMillis = maxWaitMillis;
+        }
+
+        Set<ShareKey> shares = new TreeSet<>(running.keySet());
+        shares.addAll(waiting.keySet());
+        for (ShareKey share : shares) {
+            Share shareStatus = new Share();
+            shareStatus.owner = share.owner;
+            shareStatus.targetMfe = share.targetMfe;
+            shareStatus.running = running.getOrDefault(share, 0);
+            Deque<Ticket> queue = waiting.get(share);
+            shareStatus.waiting = queue != null ? queue.size() : 0;
+            status.shares.add(shareStatus);
+        }
+        return status;
+    }
+
+    /**
+     * A session owner and target MFE, the unit slots are shared out between
+     */
+    public static final class ShareKey implements Comparable<ShareKey> {
+        final String owner;
+        final String targetMfe;
+
+        ShareKey(String owner, String targetMfe) {
+            this.owner = owner;
+            this.targetMfe = targetMfe;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof ShareKey other && owner.equals(other.owner) && targetMfe.equals(other.targetMfe);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(owner, targetMfe);
+        }
+
+        @Override
+        public int compareTo(ShareKey other) {
+            int byOwner = owner.compareTo(other.owner);
+            return byOwner != 0 ? byOwner : targetMfe.compareTo(other.targetMfe);
+        }
+    }
+
+    private static class Ticket {
+        final String sessionId;
+        final ShareKey share;
+        final Runnable command;
+        final long sequence;
+        final long queuedAt = System.currentTimeMillis();
+        // Position among the waiting sessions, 0 once admitted
+        int position = 0;
+        // Whether it was told a position before being admitted
+        boolean waited = false;
+        long waitMillis = 0;
+
+        Ticket(String sessionId, ShareKey share, Runnable command, long sequence) {
+            this.sessionId = sessionId;
+            this.share = share;
+            this.command = command;
+            this.sequence = sequence;
+        }
+    }
+
+    public static class Status {
+        public int concurrency;
+        public int running;
+        public int waiting;
+        public int queueCapacity;
+        public long admitted;
+        public long rejected;
+        // Time from queueing for a slot to getting one; the percentile covers the latest admissions
+        public Long avgWaitMillis;
+        public Long p95WaitMillis;
+        public Long maxWaitMillis;
+        public final List<Share> shares = new ArrayList<>();
+    }
+
+    public static class Share {
+        public String owner;
+        public String targetMfe;
+        public int running;
+        public int waiting;
+    }
+}
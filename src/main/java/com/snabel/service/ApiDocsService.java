@@ -0,0 +1,343 @@
+package com.snabel.service;
+
+import com.snabel.config.AppConfig;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Loads the backend API documentation (docs/API.md in the backend project) once and keeps the
+ * parsed document in memory. The file's modification time is checked on access, so edits to
+ * the docs are picked up without a restart.
+ */
+@ApplicationScoped
+public class ApiDocsService {
+
+    private static final Pattern TERM_SPLIT = Pattern.compile("[^a-z0-9]+");
+    private static final Pattern GENERAL_HEADING = Pattern.compile(
+        "(?i)\\b(auth\\w*|base url|errors?|overview|conventions?|pagination)\\b");
+    private static final Set<String> STOP_WORDS = Set.of(
+        "the", "and", "for", "with", "from", "this", "that", "api", "get", "post", "put", "patch", "delete",
+        "json", "request", "response", "body", "string", "true", "false", "null", "http", "localhost");
+
+    private static final Pattern HEADING = Pattern.compile("^(#{1,6})\\s+(.*)$");
+    private static final Pattern ENDPOINT = Pattern.compile(
+        "\\b(GET|POST|PUT|PATCH|DELETE)\\s+`?(/[^\\s`]*)`?", Pattern.CASE_INSENSITIVE);
+
+    @Inject
+    AppConfig appConfig;
+
+    private volatile ApiDocument document;
+
+    /**
+     * Path of the API documentation inside the configured backend project
+     */
+    public Path getDocsPath() {
+        return Paths.get(appConfig.getBackendPath(), "docs", "API.md");
+    }
+
+    /**
+     * Get the parsed API documentation, reloading it if the file changed. Returns null if the
+     * documentation does not exist or cannot be read.
+     */
+    public ApiDocument getDocument() {
+        Path docsPath = getDocsPath();
+        ApiDocument current = document;
+
+        try {
+            if (!Files.exists(docsPath)) {
+                document = null;
+                return null;
+            }
+
+            long modifiedAt = Files.getLastModifiedTime(docsPath).toMillis();
+            if (current != null && current.path.equals(docsPath) && current.modifiedAt == modifiedAt) {
+                return current;
+            }
+
+            synchronized (this) {
+                current = document;
+                if (current == null || !current.path.equals(docsPath) || current.modifiedAt != modifiedAt) {
+                    current = parse(docsPath, Files.readString(docsPath), modifiedAt);
+                    document = current;
+                }
+                return current;
+            }
+        } catch (IOException e) {
+            System.err.println("Failed to load backend API docs: " + e.getMessage());
+            return current;
+        }
+    }
+
+    /**
+     * Endpoint paths documented in the API docs, or an empty list if there are no docs
+     */
+    public List<Endpoint> getEndpoints() {
+        ApiDocument doc = getDocument();
+        return doc != null ? doc.endpoints : List.of();
+    }
+
+    /**
+     * Render the API documentation for a session's instructions. Sections are ranked by relevance
+     * to the target MFE, the task description and the endpoints the uploaded code calls, and the
+     * best ones are included in document order until the token budget (api.docs.max.tokens) is
+     * used up. The full documentation is used when it fits the budget, when slicing is disabled
+     * (budget 0) or when nothing in the docs matches the session. Returns null if there are no docs.
+     */
+    public String renderForSession(String targetMfe, String description, Collection<String> referencedPaths) {
+        ApiDocument doc = getDocument();
+        if (doc == null) {
+            return null;
+        }
+
+        int maxTokens = appConfig.getApiDocsMaxTokens();
+        if (maxTokens <= 0 || estimateTokens(doc.promptFragment) <= maxTokens) {
+            return doc.promptFragment;
+        }
+
+        Set<String> queryTerms = new HashSet<>(terms(description));
+        queryTerms.addAll(terms(targetMfe));
+        // A host-only URL normalizes to "", which would match every endpoint
+        List<String> references = referencedPaths.stream()
+            .map(ApiDocsService::normalizePath)
+            .filter(reference -> !reference.isEmpty())
+            .toList();
+
+        double[] scores = new double[doc.sections.size()];
+        boolean anyEndpointMatched = false;
+        for (int i = 0; i < doc.sections.size(); i++) {
+            Section section = doc.sections.get(i);
+            scores[i] = score(section, i, queryTerms, references);
+            anyEndpointMatched |= section.path != null && scores[i] > 0;
+        }
+
+        if (!anyEndpointMatched) {
+            return doc.promptFragment;
+        }
+
+        // Pick the highest-scoring sections that fit the budget, then emit them in document order
+        Integer[] ranked = new Integer[scores.length];
+        for (int i = 0; i < ranked.length; i++) {
+            ranked[i] = i;
+        }
+        Arrays.sort(ranked, (a, b) -> Double.compare(scores[b], scores[a]));
+
+        String header = "=== BACKEND API DOCUMENTATION (sections relevant to this task) ===\n\n";
+        String footer = "\n=== END OF API DOCUMENTATION ===\n\n";
+        int remaining = maxTokens - estimateTokens(header + footer) - 40;
+        TreeSet<Integer> selected = new TreeSet<>();
+        for (int index : ranked) {
+            if (scores[index] <= 0) {
+                break;
+            }
+            int tokens = estimateTokens(doc.sections.get(index).body);
+            if (tokens <= remaining) {
+                selected.add(index);
+                remaining -= tokens;
+            }
+        }
+
+        StringBuilder out = new StringBuilder(header);
+        for (int index : selected) {
+            out.append(doc.sections.get(index).body);
+        }
+        out.append("\n(Showing ").append(selected.size()).append(" of ").append(doc.sections.size())
+            .append(" sections. Full documentation: ").append(doc.path).append(")\n");
+        out.append(footer);
+        return out.toString();
+    }
+
+    private double score(Section section, int index, Set<String> queryTerms, List<String> references) {
+        double score = 0;
+
+        if (section.path != null) {
+            String basePath = section.basePath();
+            for (String reference : references) {
+                if (reference.equals(basePath) || reference.startsWith(basePath + "/") || basePath.startsWith(reference + "/")) {
+                    score += 10;
+                }
+            }
+            for (String term : queryTerms) {
+                if (section.pathTerms.contains(term)) {
+                    score += 3;
+                } else if (section.textTerms.contains(term)) {
+                    score += 0.5;
+                }
+            }
+        } else if (index == 0 || GENERAL_HEADING.matcher(section.heading).find()) {
+            // Title, authentication, base URL and error conventions apply to every task
+            score = 5;
+        } else {
+            for (String term : queryTerms) {
+                if (section.textTerms.contains(term)) {
+                    score += 0.5;
+                }
+            }
+        }
+
+        return score;
+    }
+
+    /**
+     * Reduce a URL found in the code to a path comparable with a section's base path: host,
+     * query, template placeholders (a leading `${API_URL}` included) and numeric ids are removed,
+     * e.g. "${API_URL}/api/invoices/42?full=1" becomes "/api/invoices"
+     */
+    static String normalizePath(String url) {
+        String path = url.replaceAll("https?://[^/]+", "")
+            .split("\\?")[0]
+            .replaceAll("/?\\$\\{[^}]*}", "")
+            .replaceAll("/\\d+", "");
+        if (!path.isEmpty() && !path.startsWith("/")) {
+            path = "/" + path;
+        }
+        return path.endsWith("/") ? path.substring(0, path.length() - 1) : path;
+    }
+
+    private static Set<String> terms(String text) {
+        Set<String> terms = new HashSet<>();
+        if (text == null) {
+            return terms;
+        }
+        for (String word : TERM_SPLIT.split(text.toLowerCase())) {
+            if (word.length() >= 3 && !STOP_WORDS.contains(word)) {
+                terms.add(stem(word));
+            }
+        }
+        return terms;
+    }
+
+    // Crude suffix stripping so "invoicing", "invoices" and "invoice" meet
+    private static String stem(String word) {
+        for (String suffix : List.of("ing", "es", "s", "e")) {
+            if (word.length() > suffix.length() + 3 && word.endsWith(suffix)) {
+                return word.substring(0, word.length() - suffix.length());
+            }
+        }
+        return word;
+    }
+
+    private static int estimateTokens(String text) {
+        return text.length() / 4;
+    }
+
+    private ApiDocument parse(Path path, String markdown, long modifiedAt) {
+        ApiDocument doc = new ApiDocument();
+        doc.path = path;
+        doc.modifiedAt = modifiedAt;
+        doc.markdown = markdown;
+        doc.promptFragment = "=== BACKEND API DOCUMENTATION ===\n\n" + markdown + "\n\n=== END OF API DOCUMENTATION ===\n\n";
+
+        Section section = null;
+        StringBuilder body = new StringBuilder();
+        boolean inCodeBlock = false;
+
+        for (String line : markdown.split("\n", -1)) {
+            if (line.startsWith("```")) {
+                inCodeBlock = !inCodeBlock;
+            }
+
+            Matcher heading = inCodeBlock ? null : HEADING.matcher(line);
+            if (heading != null && heading.matches()) {
+                if (section != null) {
+                    section.body = body.toString();
+                    doc.sections.add(section);
+                }
+                section = new Section();
+                section.level = heading.group(1).length();
+                section.heading = heading.group(2).trim();
+                body.setLength(0);
+
+                Matcher endpoint = ENDPOINT.matcher(section.heading);
+                if (endpoint.find()) {
+                    section.method = endpoint.group(1).toUpperCase();
+                    section.path = endpoint.group(2);
+                }
+            }
+
+            if (section == null) {
+                section = new Section();
+                section.heading = "";
+            }
+            body.append(line).append("\n");
+        }
+        if (section != null) {
+            section.body = body.toString();
+            doc.sections.add(section);
+        }
+
+        for (Section s : doc.sections) {
+            s.textTerms = terms(s.body);
+            s.pathTerms = s.path != null ? terms(s.basePath()) : Set.of();
+        }
+
+        Set<String> seen = new HashSet<>();
+        for (Section s : doc.sections) {
+            if (s.path != null && seen.add(s.method + " " + s.path)) {
+                doc.endpoints.add(new Endpoint(s.method, s.path));
+            }
+        }
+
+        return doc;
+    }
+
+    public static class ApiDocument {
+        public Path path;
+        public long modifiedAt;
+        public String markdown;
+        // Pre-rendered block for embedding in Claude's instructions
+        public String promptFragment;
+        public final List<Section> sections = new ArrayList<>();
+        public final List<Endpoint> endpoints = new ArrayList<>();
+    }
+
+    /**
+     * A heading and the markdown up to the next heading (heading line included)
+     */
+    public static class Section {
+        public int level;
+        public String heading;
+        public String body;
+        // Set when the heading documents an endpoint, e.g. "GET /api/invoices/{id}"
+        public String method;
+        public String path;
+
+        // Index terms for relevance ranking
+        Set<String> pathTerms = Set.of();
+        Set<String> textTerms = Set.of();
+
+        public String basePath() {
+            return Endpoint.basePath(path);
+        }
+    }
+
+    public static class Endpoint {
+        public final String method;
+        public final String path;
+
+        public Endpoint(String method, String path) {
+            this.method = method;
+            this.path = path;
+        }
+
+        /**
+         * Path up to the first path parameter, e.g. "/api/invoices" for "/api/invoices/{id}"
+         */
+        public String basePath() {
+            return basePath(path);
+        }
+
+        static String basePath(String path) {
+            int param = path.indexOf("/{");
+            if (param < 0) {
+                param = path.indexOf("/:");
+            }
+            return param > 0 ? path.substring(0, param) : path;
+        }
+    }
+}
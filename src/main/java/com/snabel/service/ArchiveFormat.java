@@ -0,0 +1,72 @@
+package com.snabel.service;
+
+import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
+import org.apache.commons.compress.compressors.zstandard.ZstdCompressorInputStream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Upload archive formats, recognised by their leading magic bytes
+ */
+public enum ArchiveFormat {
+    ZIP(".zip"),
+    TAR_GZ(".tar.gz"),
+    TAR_ZST(".tar.zst");
+
+    // File name extension of archives of this format in the upload store
+    public final String extension;
+
+    ArchiveFormat(String extension) {
+        this.extension = extension;
+    }
+
+    /**
+     * Detect the format of an uploaded file from its content
+     */
+    public static ArchiveFormat detect(Path file) throws IOException {
+        byte[] magic = new byte[4];
+        int read;
+        try (InputStream in = Files.newInputStream(file)) {
+            read = in.readNBytes(magic, 0, magic.length);
+        }
+
+        if (read >= 2 && magic[0] == 'P' && magic[1] == 'K') {
+            return ZIP;
+        }
+        if (read >= 2 && (magic[0] & 0xff) == 0x1f && (magic[1] & 0xff) == 0x8b) {
+            return TAR_GZ;
+        }
+        if (read == 4 && (magic[0] & 0xff) == 0x28 && (magic[1] & 0xff) == 0xb5
+                && (magic[2] & 0xff) == 0x2f && (magic[3] & 0xff) == 0xfd) {
+            return TAR_ZST;
+        }
+        throw new IOException("Unsupported archive format, expected .zip, .tar.gz or .tar.zst");
+    }
+
+    /**
+     * Format of an archive stored in the upload store, from its file name
+     */
+    public static ArchiveFormat of(Path archive) {
+        String name = archive.getFileName().toString();
+        for (ArchiveFormat format : values()) {
+            if (name.endsWith(format.extension)) {
+                return format;
+            }
+        }
+        return ZIP;
+    }
+
+    /**
+     * Wrap a raw tarball stream in the matching decompressor
+     */
+    InputStream decompress(InputStream in) throws IOException {
+        return switch (this) {
+            case TAR_GZ -> new GzipCompressorInputStream(in, true);
+            case TAR_ZST -> new ZstdCompressorInputStream(in);
+            case ZIP -> throw new IllegalStateException("Zip archives are read through their central directory");
+        };
+    }
+}
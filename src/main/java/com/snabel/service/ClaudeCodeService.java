@@ -1,19 +1,25 @@
 package com.snabel.service;
 
 import com.snabel.config.AppConfig;
+import com.snabel.model.ClaudeCommand;
+import com.snabel.model.CommandQueueEntry;
 import com.snabel.model.ImportSession;
 import com.snabel.websocket.LogWebSocket;
+import io.quarkus.runtime.StartupEvent;
+import jakarta.annotation.PostConstruct;
 import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
 import jakarta.inject.Inject;
 import jakarta.transaction.Transactional;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 
 import java.io.*;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.util.*;
 import java.util.concurrent.*;
 
@@ -26,15 +32,39 @@ public class ClaudeCodeService {
     @Inject
     LogWebSocket logWebSocket;
 
+    @Inject
+    AdmissionController admission;
+
+    @Inject
+    CommandQueueStore queueStore;
+
+    @Inject
+    ClaudeProcessManager processManager;
+
+    @Inject
+    CommandStatsService commandStats;
+
     private final Map<String, String> sessionClaudeIds = new ConcurrentHashMap<>();
-    private final Map<String, CompletableFuture<Void>> runningTasks = new ConcurrentHashMap<>();
+    private final Map<String, SessionCommandQueue> commandQueues = new ConcurrentHashMap<>();
     private final ObjectMapper objectMapper = new ObjectMapper();
+    private final StreamJsonDecoder decoder = new StreamJsonDecoder();
+    private ClaudeRunner runner;
 
     /**
-     * Start a Claude Code session - just initializes it
+     * Resolve claude.runner once, so a typo in config.ini fails startup instead of every command
+     */
+    @PostConstruct
+    void init() {
+        runner = ClaudeRunner.of(appConfig.getClaudeRunner());
+    }
+
+    /**
+     * Start a Claude Code session and queue its instructions as the first message of the
+     * conversation. When the session is started again they are only sent if they changed since,
+     * e.g. because code was uploaded: returns false, sending nothing, if the conversation has them.
      */
     @Transactional
-    public void startClaudeProcess(String sessionId, String instructions, String workingDirectory) {
+    public boolean startClaudeProcess(String sessionId, FileService.Instructions instructions, String workingDirectory) {
         ImportSession session = ImportSession.findBySessionId(sessionId);
         if (session == null) {
             throw new IllegalArgumentException("Session not found: " + sessionId);
@@ -45,22 +75,73 @@ public class ClaudeCodeService {
         session.workingDirectory = workingDirectory;
 
         // Generate a UUID for Claude session if not exists
-        if (session.claudeSessionId == null) {
+        boolean newConversation = session.claudeSessionId == null;
+        if (newConversation) {
             session.claudeSessionId = UUID.randomUUID().toString();
         }
 
+        if (newConversation && appConfig.getClaudePersistentProcess()) {
+            // Hand the session a pre-started process so its first command does not wait for the CLI
+            try {
+                boolean warm = processManager.prepare(sessionId, workingDirectory);
+                logInfo(sessionId, warm ? "Claimed a pre-started Claude process" : "Starting a Claude process");
+            } catch (IOException e) {
+                logInfo(sessionId, "Could not start a Claude process yet: " + e.getMessage());
+            }
+        }
+
         sessionClaudeIds.put(sessionId, session.claudeSessionId);
-        session.persist();
 
         logInfo(sessionId, "Claude Code session initialized");
         logInfo(sessionId, "Working directory: " + workingDirectory);
+
+        boolean sent = false;
+        if (instructionsChanged(session, instructions)) {
+            if (session.instructionsHash != null) {
+                logInfo(sessionId, "Instructions changed since the session was started, sending them again");
+            }
+            try {
+                enqueue(session, session.claudeSessionId, instructions.text(), true);
+                // Only once queued: the hashes describe what Claude receives
+                session.promptPrefixHash = instructions.prefixHash;
+                session.instructionsHash = instructions.hash;
+                sent = true;
+            } catch (IOException | RejectedExecutionException e) {
+                logError(sessionId, "Could not send the instructions, start the session again: " + e.getMessage());
+            }
+        }
+        session.persist();
+
         logInfo(sessionId, "Ready to receive commands");
+        return sent;
     }
 
     /**
-     * Send a command to Claude using --print mode
+     * Whether the session's conversation lacks these instructions: they were never sent, or
+     * were different when they were
      */
-    public void sendCommandToProcess(String sessionId, String command) throws IOException {
+    static boolean instructionsChanged(ImportSession session, FileService.Instructions instructions) {
+        return !instructions.hash.equals(session.instructionsHash);
+    }
+
+    /**
+     * Start the Claude process of a session that has been created but not started yet, in the
+     * background, so it is ready when the session starts
+     */
+    public void prestartProcess(String sessionId, String workingDirectory) {
+        if (appConfig.getClaudePersistentProcess()) {
+            processManager.prestart(sessionId, workingDirectory);
+        }
+    }
+
+    /**
+     * Queue a command for Claude. Commands for a session run one at a time, in order; the returned
+     * position is 0 if the command is next in line, otherwise the number of commands ahead of it.
+     * A command next in line still waits for a free slot if too many commands are running (see
+     * {@link AdmissionController}). Throws RejectedExecutionException if too many sessions are
+     * already waiting for one.
+     */
+    public int sendCommandToProcess(String sessionId, String command) throws IOException {
         ImportSession session = ImportSession.findBySessionId(sessionId);
         if (session == null) {
             throw new IllegalStateException("Session not found: " + sessionId);
@@ -71,40 +152,135 @@ public class ClaudeCodeService {
             throw new IllegalStateException("No Claude session ID for session: " + sessionId);
         }
 
-        CompletableFuture<Void> task = CompletableFuture.runAsync(() -> {
-            try {
-                executeClaudeCommand(sessionId, command, claudeSessionId, session.workingDirectory);
-            } catch (Exception e) {
-                logError(sessionId, "Error executing command: " + e.getMessage());
+        return enqueue(session, claudeSessionId, command, false);
+    }
+
+    private int enqueue(ImportSession session, String claudeSessionId, String command, boolean instructions) throws IOException {
+        String sessionId = session.sessionId;
+
+        // Persisted first, so the command survives a restart until it starts
+        CommandQueueEntry entry = queueStore.save(sessionId, command, instructions);
+        SessionCommandQueue queue = commandQueues.computeIfAbsent(sessionId, id -> new SessionCommandQueue());
+        int position = queue.add(entry.id, command, instructions, System.currentTimeMillis());
+        if (position > 0) {
+            logInfo(sessionId, "Command queued at position " + position + ": " + describe(command, instructions));
+            return position;
+        }
+
+        try {
+            admit(sessionId, queue, claudeSessionId, session.workingDirectory,
+                AdmissionController.shareOf(session.owner, session.targetMfe), false);
+        } catch (RejectedExecutionException e) {
+            int dropped = queue.abort() - 1;
+            queueStore.removeSession(sessionId);
+            if (dropped > 0) {
+                logError(sessionId, "Dropped " + dropped + " queued command(s): " + e.getMessage());
             }
-        });
+            throw e;
+        }
+        return 0;
+    }
+
+    /**
+     * Restore the commands that were queued when the server stopped. A command that was running
+     * is not run again: it may have changed files already.
+     */
+    void restoreQueuedCommands(@Observes StartupEvent event) {
+        List<CommandQueueStore.QueuedSession> sessions;
+        try {
+            sessions = queueStore.load();
+        } catch (RuntimeException e) {
+            System.err.println("Failed to restore queued Claude commands: " + e.getMessage());
+            return;
+        }
+
+        int restored = 0;
+        for (CommandQueueStore.QueuedSession session : sessions) {
+            sessionClaudeIds.put(session.sessionId, session.claudeSessionId);
+            SessionCommandQueue queue = commandQueues.computeIfAbsent(session.sessionId, id -> new SessionCommandQueue());
+            boolean idle = false;
+            for (CommandQueueEntry entry : session.entries) {
+                long queuedAt = entry.queuedAt.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+                idle |= queue.add(entry.id, entry.command, entry.instructions, queuedAt) == 0;
+            }
+            restored += session.entries.size();
+            logInfo(session.sessionId, "Restored " + session.entries.size() + " queued command(s) after a restart");
+
+            if (idle) {
+                // Accepted before the restart, so never rejected now
+                admit(session.sessionId, queue, session.claudeSessionId, session.workingDirectory,
+                    AdmissionController.shareOf(session.owner, session.targetMfe), true);
+            }
+        }
+        if (restored > 0) {
+            System.out.println("Restored " + restored + " queued Claude command(s) for " + sessions.size() + " session(s)");
+        }
+    }
 
-        runningTasks.put(sessionId, task);
+    /**
+     * Queue the session for a slot to run its next command
+     */
+    private void admit(String sessionId, SessionCommandQueue queue, String claudeSessionId,
+                       String workingDirectory, AdmissionController.ShareKey share, boolean requeue) {
+        admission.submit(sessionId, share,
+            () -> runNext(sessionId, queue, claudeSessionId, workingDirectory, share), requeue);
     }
 
-    private void executeClaudeCommand(String sessionId, String command, String claudeSessionId, String workingDirectory) throws IOException, InterruptedException {
-        List<String> cmdList = new ArrayList<>();
-        cmdList.add("stdbuf");
-        cmdList.add("-o0");
-        cmdList.add(appConfig.getClaudeExecutable());
-        cmdList.add("--print");
-        cmdList.add("--verbose");
-        cmdList.add("--output-format");
-        cmdList.add("stream-json");
+    /**
+     * Run the session's next command, then queue for another slot if more commands are waiting
+     */
+    private void runNext(String sessionId, SessionCommandQueue queue, String claudeSessionId,
+                         String workingDirectory, AdmissionController.ShareKey share) {
+        List<SessionCommandQueue.QueuedCommand> batch = queue.next(appConfig.getClaudeCommandCoalesce());
+        if (batch == null) {
+            // Stopped while waiting for a slot
+            return;
+        }
+        queueStore.remove(batch.stream().map(queued -> queued.id).toList());
 
-        if (appConfig.getClaudeUnsafeMode()) {
-            cmdList.add("--dangerously-skip-permissions");
+        SessionCommandQueue.QueuedCommand first = batch.get(0);
+        String command = batch.size() == 1 ? first.command : coalesce(sessionId, batch);
+        try {
+            executeClaudeCommand(sessionId, command, describe(command, first.instructions), first.queuedAt,
+                claudeSessionId, workingDirectory);
+        } catch (InterruptedException e) {
+            // Shutting down: what is still queued stays persisted for the restart
+            Thread.currentThread().interrupt();
+            queue.clear();
+            queue.finish();
+            return;
+        } catch (Exception e) {
+            logError(sessionId, "Error executing command: " + e.getMessage());
+        }
+
+        if (queue.finish()) {
+            admit(sessionId, queue, claudeSessionId, workingDirectory, share, true);
         }
+    }
+
+    private String coalesce(String sessionId, List<SessionCommandQueue.QueuedCommand> batch) {
+        logInfo(sessionId, "Merging " + batch.size() + " queued commands into one prompt");
 
-        // ALWAYS use --continue to maintain conversation history
-        // Claude Code will automatically detect if this is the first command
-        // and start a new session, or continue an existing one based on
-        // the working directory
-        cmdList.add("--continue");
+        StringBuilder prompt = new StringBuilder("Several follow-up requests arrived while you were working. Handle them in order:\n");
+        for (int i = 0; i < batch.size(); i++) {
+            prompt.append("\n").append(i + 1).append(". ").append(batch.get(i).command);
+        }
+        return prompt.toString();
+    }
 
-        cmdList.add(command);
+    /**
+     * How a command is shown in the log: the instructions are too long to echo
+     */
+    private static String describe(String command, boolean instructions) {
+        return instructions ? "Session instructions (" + command.length() + " characters)" : command;
+    }
 
-        logInfo(sessionId, "→ " + command);
+    private void executeClaudeCommand(String sessionId, String command, String description, long queuedAt, String claudeSessionId, String workingDirectory) throws IOException, InterruptedException {
+        if (!sessionClaudeIds.containsKey(sessionId)) {
+            // Stopped while the command was waiting for a thread
+            return;
+        }
+        logInfo(sessionId, "→ " + description);
 
         // Ensure working directory exists
         File workDir = new File(workingDirectory);
@@ -112,61 +288,187 @@ public class ClaudeCodeService {
             workDir.mkdirs();
         }
 
-        ProcessBuilder pb = new ProcessBuilder(cmdList);
-        pb.directory(workDir);
-        pb.redirectErrorStream(true); // Merge stderr into stdout
-        pb.redirectInput(ProcessBuilder.Redirect.PIPE);
+        CommandMetrics metrics = new CommandMetrics(sessionId, command, queuedAt);
+        try {
+            if (appConfig.getClaudePersistentProcess() && executeInPersistentProcess(sessionId, command, workDir, metrics)) {
+                return;
+            }
+            executeInNewProcess(sessionId, command, workDir, metrics);
+        } finally {
+            recordMetrics(metrics);
+        }
+    }
 
-        Process process = pb.start();
-        process.getOutputStream().close();
+    private void recordMetrics(CommandMetrics metrics) {
+        metrics.finish();
+        try {
+            commandStats.record(metrics.record);
+        } catch (RuntimeException e) {
+            System.err.println("Failed to record command metrics: " + e.getMessage());
+        }
+    }
 
-        // Read output line by line and stream to WebSocket
-        BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+    /**
+     * Run a command in the session's persistent process. Returns false if the process could not
+     * be started or died before producing any output, in which case nothing ran and the caller
+     * falls back to spawning a process for the command.
+     */
+    private boolean executeInPersistentProcess(String sessionId, String command, File workDir, CommandMetrics metrics) {
+        ClaudeProcess process;
+        try {
+            process = processManager.acquire(sessionId, workDir);
+        } catch (IOException e) {
+            logInfo(sessionId, "Could not start a persistent Claude process, running the command on its own: " + e.getMessage());
+            return false;
+        }
 
-        String line;
-        while ((line = reader.readLine()) != null) {
-            parseAndLogJsonLine(sessionId, line);
+        boolean[] started = {false};
+        boolean healthy = false;
+        metrics.record.mode = "persistent";
+        ClaudeProcessManager.RunningCommand running = processManager.track(sessionId, process.handle());
+        try {
+            process.send(userMessage(command), line -> {
+                started[0] = true;
+                running.touch();
+                return "result".equals(handleOutputLine(sessionId, line, metrics));
+            });
+            healthy = true;
+            return true;
+        } catch (IOException e) {
+            if (running.getStopReason() != null) {
+                metrics.record.outcome = "stopped";
+                logError(sessionId, running.getStopReason());
+                return true;
+            }
+            if (!started[0]) {
+                logInfo(sessionId, "Persistent Claude process is not responding, running the command on its own: " + e.getMessage());
+                return false;
+            }
+            logError(sessionId, e.getMessage());
+            return true;
+        } finally {
+            processManager.untrack(running);
+            processManager.release(sessionId, process, healthy);
         }
+    }
 
-        reader.close();
-        int exitCode = process.waitFor();
+    private void executeInNewProcess(String sessionId, String command, File workDir, CommandMetrics metrics) throws IOException, InterruptedException {
+        metrics.record.mode = "spawn";
+        Process process = runner.start(ClaudeProcess.commandLine(appConfig, false, false, command), workDir);
+        // Empty if the command already exited: then there is nothing left to stop or time out
+        ClaudeProcessManager.RunningCommand running = ClaudeRunner.handle(process)
+            .map(handle -> processManager.track(sessionId, handle))
+            .orElse(null);
 
-        if (exitCode != 0) {
+        int exitCode;
+        try {
+            // Read output line by line and stream to WebSocket
+            BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (running != null) {
+                        running.touch();
+                    }
+                    handleOutputLine(sessionId, line, metrics);
+                }
+            } catch (IOException e) {
+                // A terminal reports EIO rather than end of file once the process has exited
+                if (runner != ClaudeRunner.PTY || process.isAlive()) {
+                    throw e;
+                }
+            }
+
+            reader.close();
+            exitCode = process.waitFor();
+        } finally {
+            if (running != null) {
+                processManager.untrack(running);
+            }
+        }
+
+        metrics.record.exitCode = exitCode;
+        if (running != null && running.getStopReason() != null) {
+            metrics.record.outcome = "stopped";
+            logError(sessionId, running.getStopReason());
+        } else if (exitCode != 0) {
             logError(sessionId, "Command failed with exit code: " + exitCode);
         }
     }
 
-    private void parseAndLogJsonLine(String sessionId, String jsonLine) {
-        try {
-            JsonNode root = objectMapper.readTree(jsonLine);
-            String type = root.path("type").asText();
-
-            if ("assistant".equals(type)) {
-                // Extract Claude's response
-                JsonNode content = root.path("message").path("content");
-                if (content.isArray() && content.size() > 0) {
-                    String text = content.get(0).path("text").asText();
-                    if (!text.isEmpty()) {
-                        logInfo(sessionId, "← " + text);
+    private String userMessage(String command) throws IOException {
+        ObjectNode message = objectMapper.createObjectNode();
+        message.put("type", "user");
+        ObjectNode body = message.putObject("message");
+        body.put("role", "user");
+        body.putArray("content").addObject()
+            .put("type", "text")
+            .put("text", command);
+        return objectMapper.writeValueAsString(message);
+    }
+
+    /**
+     * Decode an output line, log what the user should see, record metrics and return its message
+     * type, or null if it is not JSON
+     */
+    private String handleOutputLine(String sessionId, String line, CommandMetrics metrics) {
+        return decoder.decode(line, event -> {
+            metrics.onEvent(event);
+            switch (event.kind) {
+                case TEXT -> {
+                    if (event.text != null && !event.text.isEmpty()) {
+                        logInfo(sessionId, "← " + event.text);
+                    }
+                }
+                case RESULT -> {
+                    if (event.isError) {
+                        logError(sessionId, "Command failed: " + (event.text != null ? event.text : event.subtype));
                     }
                 }
+                default -> {
+                    // Tool calls and their output are not logged
+                }
             }
-            // Don't log system init messages - they're just noise
-        } catch (Exception e) {
-            // Ignore malformed JSON
-        }
+        });
     }
 
+    /**
+     * Stop a session: discard its queued commands, and terminate the running command and the
+     * session's Claude process along with everything they started
+     */
     public void stopProcess(String sessionId) {
-        runningTasks.remove(sessionId);
+        SessionCommandQueue queue = commandQueues.get(sessionId);
+        if (queue != null) {
+            int dropped = queue.clear();
+            if (admission.cancel(sessionId)) {
+                // Its turn will never come, so nothing else releases the drain loop
+                dropped += queue.abort();
+            }
+            if (dropped > 0) {
+                logInfo(sessionId, "Discarded " + dropped + " queued command(s)");
+            }
+        }
+        queueStore.removeSession(sessionId);
         sessionClaudeIds.remove(sessionId);
+        processManager.close(sessionId);
         updateSessionStatus(sessionId, ImportSession.SessionStatus.PAUSED);
         logInfo(sessionId, "Session stopped");
     }
 
     public boolean isRunning(String sessionId) {
-        CompletableFuture<Void> task = runningTasks.get(sessionId);
-        return task != null && !task.isDone();
+        SessionCommandQueue queue = commandQueues.get(sessionId);
+        return queue != null && queue.isBusy();
+    }
+
+    /**
+     * State of a session's command queue: whether a command is in flight and what is waiting behind it
+     */
+    public SessionCommandQueue.Status getQueueStatus(String sessionId) {
+        SessionCommandQueue queue = commandQueues.get(sessionId);
+        SessionCommandQueue.Status status = queue != null ? queue.status() : new SessionCommandQueue().status();
+        status.waitingForSlot = admission.getPosition(sessionId);
+        return status;
     }
 
     public boolean isProcessRunning(String sessionId) {
@@ -189,6 +491,56 @@ public class ClaudeCodeService {
         return false;
     }
 
+    /**
+     * Collects a command's latency, usage and outcome from its output events
+     */
+    private static class CommandMetrics {
+        final ClaudeCommand record = new ClaudeCommand();
+        final long startNanos = System.nanoTime();
+
+        CommandMetrics(String sessionId, String command, long queuedAt) {
+            record.sessionId = sessionId;
+            record.command = command.length() > 2000 ? command.substring(0, 2000) : command;
+            record.startedAt = LocalDateTime.now();
+            record.queueWaitMillis = Math.max(0, System.currentTimeMillis() - queuedAt);
+        }
+
+        void onEvent(ClaudeEvent event) {
+            if (record.firstTokenMillis == null
+                    && (event.kind == ClaudeEvent.Kind.TEXT || event.kind == ClaudeEvent.Kind.TOOL_USE)) {
+                record.firstTokenMillis = elapsedMillis();
+            }
+            switch (event.kind) {
+                case TOOL_USE -> record.toolCalls++;
+                case RESULT -> {
+                    record.outcome = event.subtype != null ? event.subtype : (event.isError ? "error" : "success");
+                    record.apiDurationMillis = event.apiDurationMs;
+                    record.numTurns = event.numTurns;
+                    record.inputTokens = event.inputTokens;
+                    record.outputTokens = event.outputTokens;
+                    record.cacheCreationTokens = event.cacheCreationTokens;
+                    record.cacheReadTokens = event.cacheReadTokens;
+                    record.costUsd = event.costUsd;
+                }
+                default -> {
+                }
+            }
+        }
+
+        void finish() {
+            record.completedAt = LocalDateTime.now();
+            record.durationMillis = elapsedMillis();
+            if (record.outcome == null) {
+                // Ended without a result message
+                record.outcome = "failed";
+            }
+        }
+
+        private long elapsedMillis() {
+            return (System.nanoTime() - startNanos) / 1_000_000;
+        }
+    }
+
     // Logging helpers
     private void logInfo(String sessionId, String message) {
         logWebSocket.sendLog(sessionId, "INFO", message);
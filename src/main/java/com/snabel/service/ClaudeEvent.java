@@ -0,0 +1,50 @@
+package com.snabel.service;
+
+/**
+ * One content block or final result decoded from Claude's stream-json output
+ * (see {@link StreamJsonDecoder})
+ */
+public class ClaudeEvent {
+
+    public enum Kind {
+        // Assistant text
+        TEXT,
+        // The assistant calling a tool
+        TOOL_USE,
+        // A tool's output, sent back to the assistant
+        TOOL_RESULT,
+        // End of the command
+        RESULT
+    }
+
+    public Kind kind;
+
+    // TEXT: the text. RESULT: the final answer or error.
+    public String text;
+
+    // TOOL_USE and TOOL_RESULT
+    public String toolUseId;
+    // TOOL_USE: tool name, e.g. "Edit" or "Bash"
+    public String toolName;
+    // TOOL_USE: the file, path, command or pattern the tool was called with, if any
+    public String toolTarget;
+
+    // TOOL_RESULT and RESULT
+    public boolean isError;
+    // RESULT: e.g. "success" or "error_max_turns"
+    public String subtype;
+
+    // RESULT: totals for the command, as reported by the CLI
+    public Long durationMs;
+    public Long apiDurationMs;
+    public Integer numTurns;
+    public Double costUsd;
+    public Long inputTokens;
+    public Long outputTokens;
+    public Long cacheCreationTokens;
+    public Long cacheReadTokens;
+
+    ClaudeEvent(Kind kind) {
+        this.kind = kind;
+    }
+}
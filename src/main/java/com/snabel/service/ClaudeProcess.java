@@ -0,0 +1,143 @@
+package com.snabel.service;
+
+import com.snabel.config.AppConfig;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+/**
+ * A long-lived `claude --input-format stream-json --output-format stream-json` process. Each
+ * command is written to stdin as one user message; the reply is read from stdout line by line
+ * until the end of the turn. Not thread-safe: the owner sends one command at a time.
+ */
+public class ClaudeProcess {
+
+    private final Process process;
+    private final BufferedWriter stdin;
+    private final BufferedReader stdout;
+
+    final long startedAt;
+    volatile long lastUsedAt;
+    volatile boolean busy = false;
+    volatile int commands = 0;
+
+    private ClaudeProcess(Process process) {
+        this.process = process;
+        this.stdin = new BufferedWriter(new OutputStreamWriter(process.getOutputStream(), StandardCharsets.UTF_8));
+        this.stdout = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+        this.startedAt = System.currentTimeMillis();
+        this.lastUsedAt = startedAt;
+    }
+
+    /**
+     * Claude CLI command line. A persistent process reads its commands as stream-json from stdin;
+     * otherwise the prompt is passed as an argument. Unless starting a new conversation, the most
+     * recent conversation in the working directory is continued. See {@link ClaudeRunner} for
+     * how one-off processes are started.
+     */
+    static List<String> commandLine(AppConfig appConfig, boolean persistent, boolean newConversation, String prompt) {
+        List<String> cmdList = new ArrayList<>();
+        cmdList.add(appConfig.getClaudeExecutable());
+        cmdList.add("--print");
+        cmdList.add("--verbose");
+        if (persistent) {
+            cmdList.add("--input-format");
+            cmdList.add("stream-json");
+        }
+        cmdList.add("--output-format");
+        cmdList.add("stream-json");
+
+        if (appConfig.getClaudeUnsafeMode()) {
+            cmdList.add("--dangerously-skip-permissions");
+        }
+
+        // Use --continue to maintain conversation history
+        // Claude Code will automatically detect if this is the first command
+        // and start a new session, or continue an existing one based on
+        // the working directory
+        if (!newConversation) {
+            cmdList.add("--continue");
+        }
+
+        if (!persistent) {
+            cmdList.add(prompt);
+        }
+        return cmdList;
+    }
+
+    static ClaudeProcess start(List<String> command, File workingDirectory) throws IOException {
+        ProcessBuilder pb = new ProcessBuilder(command);
+        pb.directory(workingDirectory);
+        pb.redirectErrorStream(true); // Merge stderr into stdout
+        return new ClaudeProcess(pb.start());
+    }
+
+    public boolean isAlive() {
+        return process.isAlive();
+    }
+
+    public long pid() {
+        return process.pid();
+    }
+
+    ProcessHandle handle() {
+        return process.toHandle();
+    }
+
+    /**
+     * Write one stream-json message to stdin and pass every output line to the handler until it
+     * returns true (end of turn). Throws EOFException if the process exits first.
+     */
+    void send(String message, Predicate<String> onLine) throws IOException {
+        stdin.write(message);
+        stdin.newLine();
+        stdin.flush();
+        commands++;
+
+        String line;
+        while ((line = stdout.readLine()) != null) {
+            if (onLine.test(line)) {
+                lastUsedAt = System.currentTimeMillis();
+                return;
+            }
+        }
+
+        String exit = process.isAlive() ? "closed its output" : "exited with code " + waitForExit();
+        throw new EOFException("Claude process " + exit + " before finishing the command");
+    }
+
+    /**
+     * Close stdin so the CLI exits on its own, then terminate the process and anything it
+     * started. The grace period covers both: whatever is still running once it is over is killed.
+     */
+    ProcessTree.Reclaimed close(Duration grace) {
+        ProcessTree tree = ProcessTree.of(process.toHandle());
+        long deadline = System.nanoTime() + grace.toNanos();
+        try {
+            stdin.close();
+        } catch (IOException e) {
+            // Already gone
+        }
+        try {
+            // Half the grace period to exit on its own, the rest to honour the termination request
+            process.waitFor(grace.toMillis() / 2, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return tree.terminate(Duration.ofNanos(Math.max(0, deadline - System.nanoTime())));
+    }
+
+    private int waitForExit() {
+        try {
+            return process.waitFor();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return -1;
+        }
+    }
+}
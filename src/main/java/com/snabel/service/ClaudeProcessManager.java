@@ -0,0 +1,525 @@
+package com.snabel.service;
+
+import com.snabel.config.AppConfig;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.*;
+import java.time.Duration;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Keeps one persistent Claude process per active session (claude.persistent.process), so
+ * follow-up commands skip the CLI start-up and conversation reload of a fresh `--continue` run.
+ * Processes idle for claude.persistent.idle.minutes, or found dead by the periodic health check,
+ * are closed; the next command for that session starts a new one.
+ *
+ * New sessions are handed a pre-started process from a warm pool: claude.pool.size idle
+ * processes are kept for the frontend root and for each MFE listed in claude.pool.mfes, and the
+ * pool is refilled in the background whenever one is claimed. That pool only serves sessions
+ * working in the frontend checkout itself, so it stays empty while git.worktrees is on. A session
+ * in a worktree instead gets a process pre-started in its own working directory when the session
+ * is created (see {@link #prestart}), which it claims the same way when it starts.
+ *
+ * Every command that is running, persistent or not, is tracked with its process. A watchdog
+ * stops commands that run longer than claude.command.timeout.minutes or go quiet for
+ * claude.command.idle.timeout.minutes. Stopping a command or closing a process terminates the
+ * process and all its descendants, killing whatever is left after claude.kill.grace.seconds.
+ * Terminations run in the background, each on a thread of its own, so neither the caller nor
+ * the watchdog waits out grace periods, and stopping many sessions takes one grace period.
+ */
+@ApplicationScoped
+public class ClaudeProcessManager {
+
+    @Inject
+    AppConfig appConfig;
+
+    @Inject
+    MfeDiscoveryService mfeDiscoveryService;
+
+    private final Map<String, ClaudeProcess> processes = new HashMap<>();
+    // Idle processes with a new conversation, by working directory
+    private final Map<String, Deque<ClaudeProcess>> warm = new HashMap<>();
+    // Working directory of the process pre-started for a session that has not started yet, by session
+    private final Map<String, String> prestarted = new HashMap<>();
+    private final Map<String, RunningCommand> running = new ConcurrentHashMap<>();
+    private ScheduledExecutorService scheduler;
+    // Runs terminations, which wait up to the grace period
+    private ExecutorService reclaimer;
+
+    private final AtomicLong poolHits = new AtomicLong();
+    private final AtomicLong poolMisses = new AtomicLong();
+    private final AtomicLong started = new AtomicLong();
+    private final AtomicLong reclaimed = new AtomicLong();
+    private final AtomicLong killed = new AtomicLong();
+    private final AtomicLong timedOut = new AtomicLong();
+
+    @PostConstruct
+    void init() {
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "claude-process-manager");
+            thread.setDaemon(true);
+            return thread;
+        });
+        reclaimer = Executors.newVirtualThreadPerTaskExecutor();
+        scheduler.scheduleWithFixedDelay(this::reap, 1, 1, TimeUnit.MINUTES);
+        scheduler.scheduleWithFixedDelay(this::enforceTimeouts, 10, 10, TimeUnit.SECONDS);
+        if (appConfig.getClaudePersistentProcess()) {
+            scheduler.execute(this::refill);
+        }
+    }
+
+    @PreDestroy
+    void shutdown() {
+        scheduler.shutdownNow();
+        List<ClaudeProcess> closing = new ArrayList<>();
+        synchronized (this) {
+            closing.addAll(processes.values());
+            processes.clear();
+            warm.values().forEach(closing::addAll);
+            warm.clear();
+        }
+        // Every termination starts now and they wait out the grace period together
+        running.values().forEach(command -> stop(command, "Server shutting down"));
+        closing.forEach(this::reclaim);
+        reclaimer.shutdown();
+        try {
+            reclaimer.awaitTermination(grace().toMillis() + 1000, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Give a new session a process for a new conversation in its working directory: a warm one
+     * from the pool if there is one, otherwise one started now. Returns true on a pool hit.
+     */
+    public boolean prepare(String sessionId, String workingDirectory) throws IOException {
+        ClaudeProcess process = claimWarm(workingDirectory);
+        // Whatever was pre-started for the session and not claimed just now is of no further use
+        List<ClaudeProcess> unclaimed = takePrestarted(sessionId);
+        boolean own = process != null && unclaimed != null;
+        unclaimed = unclaimed != null ? unclaimed : List.of();
+        unclaimed.forEach(this::reclaim);
+
+        boolean hit = process != null;
+        (hit ? poolHits : poolMisses).incrementAndGet();
+        if (!hit) {
+            process = start(workingDirectory, true);
+        }
+
+        ClaudeProcess replaced;
+        synchronized (this) {
+            replaced = processes.put(sessionId, process);
+        }
+        if (replaced != null) {
+            reclaim(replaced);
+        }
+        if (hit && !own) {
+            scheduler.execute(this::refill);
+        }
+        return hit;
+    }
+
+    /**
+     * Start a process for a new conversation in a session's own working directory (its worktree),
+     * in the background, for {@link #prepare} to claim when the session starts. It is closed if
+     * the session has not started within claude.persistent.idle.minutes, or is stopped.
+     */
+    public void prestart(String sessionId, String workingDirectory) {
+        scheduler.execute(() -> {
+            synchronized (this) {
+                if (prestarted.containsKey(sessionId) || processes.containsKey(sessionId)) {
+                    return;
+                }
+            }
+
+            ClaudeProcess process;
+            try {
+                process = start(workingDirectory, true);
+            } catch (IOException e) {
+                System.err.println("Failed to pre-start Claude process for session " + sessionId + ": " + e.getMessage());
+                return;
+            }
+
+            synchronized (this) {
+                // Not if the session started while this one was starting: it has a process of its own
+                if (!processes.containsKey(sessionId)) {
+                    String key = poolKey(workingDirectory);
+                    warm.computeIfAbsent(key, k -> new ArrayDeque<>()).addLast(process);
+                    prestarted.put(sessionId, key);
+                    return;
+                }
+            }
+            reclaim(process);
+        });
+    }
+
+    /**
+     * Check out the session's process, starting one that continues the session's conversation if
+     * it has none or the one it had died. The process is reserved for the caller until {@link #release}.
+     */
+    public ClaudeProcess acquire(String sessionId, File workingDirectory) throws IOException {
+        ClaudeProcess stale = null;
+        synchronized (this) {
+            ClaudeProcess process = processes.get(sessionId);
+            if (process != null && process.isAlive() && !process.busy) {
+                process.busy = true;
+                return process;
+            }
+            if (process != null && process.busy) {
+                throw new IllegalStateException("Claude process for session " + sessionId + " is already running a command");
+            }
+            if (process != null) {
+                stale = processes.remove(sessionId);
+            }
+        }
+        if (stale != null) {
+            reclaim(stale);
+        }
+
+        ClaudeProcess process = start(workingDirectory.getPath(), false);
+        process.busy = true;
+        synchronized (this) {
+            processes.put(sessionId, process);
+        }
+        return process;
+    }
+
+    /**
+     * Return a process after a command. A process that failed is closed rather than reused.
+     */
+    public void release(String sessionId, ClaudeProcess process, boolean healthy) {
+        synchronized (this) {
+            process.busy = false;
+            if (healthy && process.isAlive()) {
+                return;
+            }
+            processes.remove(sessionId, process);
+        }
+        reclaim(process);
+    }
+
+    /**
+     * Stop the session's running command and close its persistent process, in the background.
+     * Both are terminated with everything they started, at the same time.
+     */
+    public void close(String sessionId) {
+        RunningCommand command = running.get(sessionId);
+        if (command != null) {
+            // Set now, so the command sees why its output ended
+            command.stopReason = "Command stopped";
+        }
+        ClaudeProcess process;
+        synchronized (this) {
+            process = processes.remove(sessionId);
+        }
+        List<ClaudeProcess> unclaimed = takePrestarted(sessionId);
+
+        if (command != null) {
+            stop(command, command.stopReason);
+        }
+        if (process != null) {
+            reclaim(process);
+        }
+        if (unclaimed != null) {
+            unclaimed.forEach(this::reclaim);
+        }
+    }
+
+    /**
+     * Start tracking a command's process for timeouts and stop. The caller must call
+     * {@link RunningCommand#touch} on every line of output and {@link #untrack} when done.
+     */
+    public RunningCommand track(String sessionId, ProcessHandle process) {
+        RunningCommand command = new RunningCommand(sessionId, process);
+        running.put(sessionId, command);
+        return command;
+    }
+
+    public void untrack(RunningCommand command) {
+        running.remove(command.sessionId, command);
+    }
+
+    public synchronized int getProcessCount() {
+        return processes.size();
+    }
+
+    public synchronized int getWarmCount() {
+        return warm.values().stream().mapToInt(Deque::size).sum();
+    }
+
+    public long getPoolHits() {
+        return poolHits.get();
+    }
+
+    public long getPoolMisses() {
+        return poolMisses.get();
+    }
+
+    public long getStartedCount() {
+        return started.get();
+    }
+
+    public int getRunningCommandCount() {
+        return running.size();
+    }
+
+    /**
+     * Processes terminated by stop, timeouts, failures and idle expiry
+     */
+    public long getReclaimedCount() {
+        return reclaimed.get();
+    }
+
+    /**
+     * Reclaimed processes that ignored the grace period and had to be killed
+     */
+    public long getKilledCount() {
+        return killed.get();
+    }
+
+    public long getTimedOutCount() {
+        return timedOut.get();
+    }
+
+    private Duration grace() {
+        return Duration.ofSeconds(appConfig.getClaudeKillGraceSeconds());
+    }
+
+    /**
+     * Close a process in the background
+     */
+    private void reclaim(ClaudeProcess process) {
+        terminate(() -> process.close(grace()));
+    }
+
+    /**
+     * Terminate a command's process in the background. The reason is set right away, so the
+     * command sees why its output ended and the watchdog does not stop it again.
+     */
+    private void stop(RunningCommand command, String reason) {
+        if (command.stopReason == null) {
+            command.stopReason = reason;
+        }
+        terminate(() -> ProcessTree.of(command.process).terminate(grace()));
+    }
+
+    private void terminate(Supplier<ProcessTree.Reclaimed> termination) {
+        try {
+            reclaimer.execute(() -> count(termination.get()));
+        } catch (RejectedExecutionException e) {
+            // Shut down: terminate on the caller's thread
+            count(termination.get());
+        }
+    }
+
+    private void count(ProcessTree.Reclaimed result) {
+        reclaimed.addAndGet(result.terminated);
+        killed.addAndGet(result.killed);
+    }
+
+    /**
+     * Stop commands that exceeded claude.command.timeout.minutes, or produced no output for
+     * claude.command.idle.timeout.minutes
+     */
+    void enforceTimeouts() {
+        long now = System.currentTimeMillis();
+        int timeout = appConfig.getClaudeCommandTimeoutMinutes();
+        int idleTimeout = appConfig.getClaudeCommandIdleTimeoutMinutes();
+
+        for (RunningCommand command : running.values()) {
+            if (command.stopReason != null) {
+                continue;
+            }
+            String reason = null;
+            if (timeout > 0 && now - command.startedAt > timeout * 60_000L) {
+                reason = "Command stopped after running for " + timeout + " minutes";
+            } else if (idleTimeout > 0 && now - command.lastOutputAt > idleTimeout * 60_000L) {
+                reason = "Command stopped after " + idleTimeout + " minutes without output";
+            }
+            if (reason != null) {
+                timedOut.incrementAndGet();
+                stop(command, reason);
+            }
+        }
+    }
+
+    private ClaudeProcess start(String workingDirectory, boolean newConversation) throws IOException {
+        File dir = new File(workingDirectory);
+        if (!dir.exists()) {
+            dir.mkdirs();
+        }
+        ClaudeProcess process = ClaudeProcess.start(
+            ClaudeProcess.commandLine(appConfig, true, newConversation, null), dir);
+        started.incrementAndGet();
+        return process;
+    }
+
+    /**
+     * Remove the processes pre-started for a session from the warm pool and return them, or
+     * null if none were
+     */
+    private synchronized List<ClaudeProcess> takePrestarted(String sessionId) {
+        String key = prestarted.remove(sessionId);
+        if (key == null) {
+            return null;
+        }
+        Deque<ClaudeProcess> pool = warm.remove(key);
+        return pool != null ? new ArrayList<>(pool) : new ArrayList<>();
+    }
+
+    private synchronized ClaudeProcess claimWarm(String workingDirectory) {
+        Deque<ClaudeProcess> pool = warm.get(poolKey(workingDirectory));
+        while (pool != null && !pool.isEmpty()) {
+            ClaudeProcess process = pool.pollFirst();
+            if (process.isAlive()) {
+                return process;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Top up the warm pool of every configured directory to claude.pool.size
+     */
+    void refill() {
+        // A session in a worktree has a directory of its own, and its process is pre-started there (see prestart)
+        int size = appConfig.getClaudePersistentProcess() && !appConfig.getGitWorktrees() ? appConfig.getClaudePoolSize() : 0;
+
+        List<String> directories;
+        try {
+            directories = poolDirectories();
+        } catch (RuntimeException e) {
+            System.err.println("Failed to resolve Claude pool directories: " + e.getMessage());
+            return;
+        }
+
+        for (String directory : directories) {
+            String key = poolKey(directory);
+            int missing;
+            List<ClaudeProcess> surplus = new ArrayList<>();
+            synchronized (this) {
+                Deque<ClaudeProcess> pool = warm.computeIfAbsent(key, k -> new ArrayDeque<>());
+                pool.removeIf(process -> !process.isAlive());
+                while (pool.size() > size) {
+                    surplus.add(pool.pollLast());
+                }
+                missing = size - pool.size();
+            }
+            surplus.forEach(this::reclaim);
+
+            for (int i = 0; i < missing; i++) {
+                try {
+                    ClaudeProcess process = start(directory, true);
+                    synchronized (this) {
+                        warm.get(key).addLast(process);
+                    }
+                } catch (IOException e) {
+                    System.err.println("Failed to pre-start Claude process in " + directory + ": " + e.getMessage());
+                    break;
+                }
+            }
+        }
+    }
+
+    private List<String> poolDirectories() {
+        List<String> directories = new ArrayList<>();
+        directories.add(appConfig.getFrontendPath());
+        for (String mfe : appConfig.getClaudePoolMfes()) {
+            directories.add(mfeDiscoveryService.getMfeWorkingDirectory(mfe));
+        }
+        return directories;
+    }
+
+    private static String poolKey(String directory) {
+        return Paths.get(directory).toAbsolutePath().normalize().toString();
+    }
+
+    /**
+     * Close processes that died or sat idle longer than claude.persistent.idle.minutes, including
+     * those pre-started for sessions that never started, and replace dead processes in the warm pool
+     */
+    void reap() {
+        long idleCutoff = System.currentTimeMillis() - appConfig.getClaudePersistentIdleMinutes() * 60_000L;
+        Map<String, ClaudeProcess> closing = new HashMap<>();
+
+        List<String> unstarted;
+        synchronized (this) {
+            unstarted = prestarted.entrySet().stream()
+                .filter(entry -> warm.getOrDefault(entry.getValue(), new ArrayDeque<>()).stream()
+                    .allMatch(process -> !process.isAlive() || process.lastUsedAt < idleCutoff))
+                .map(Map.Entry::getKey)
+                .toList();
+        }
+        for (String sessionId : unstarted) {
+            List<ClaudeProcess> unclaimed = takePrestarted(sessionId);
+            if (unclaimed != null) {
+                unclaimed.forEach(this::reclaim);
+            }
+        }
+
+        synchronized (this) {
+            Iterator<Map.Entry<String, ClaudeProcess>> it = processes.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<String, ClaudeProcess> entry = it.next();
+                ClaudeProcess process = entry.getValue();
+                if (!process.busy && (!process.isAlive() || process.lastUsedAt < idleCutoff)) {
+                    closing.put(entry.getKey(), process);
+                    it.remove();
+                }
+            }
+        }
+
+        closing.forEach((sessionId, process) -> {
+            String reason = process.isAlive() ? "idle" : "exited";
+            reclaim(process);
+            System.out.println("Closed " + reason + " Claude process for session " + sessionId
+                + " after " + process.commands + " command(s)");
+        });
+
+        refill();
+    }
+
+    /**
+     * A command in progress and the process running it
+     */
+    public static class RunningCommand {
+        final String sessionId;
+        final ProcessHandle process;
+        final long startedAt;
+        volatile long lastOutputAt;
+        // Set when the command was stopped rather than finishing on its own
+        volatile String stopReason;
+
+        RunningCommand(String sessionId, ProcessHandle process) {
+            this.sessionId = sessionId;
+            this.process = process;
+            this.startedAt = System.currentTimeMillis();
+            this.lastOutputAt = startedAt;
+        }
+
+        public void touch() {
+            lastOutputAt = System.currentTimeMillis();
+        }
+
+        /**
+         * Why the command was stopped, or null if it ran to completion
+         */
+        public String getStopReason() {
+            return stopReason;
+        }
+    }
+}
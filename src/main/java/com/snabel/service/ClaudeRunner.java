@@ -0,0 +1,83 @@
+package com.snabel.service;
+
+import com.pty4j.PtyProcess;
+import com.pty4j.PtyProcessBuilder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * How a one-off Claude process is started (claude.runner). Output read through a pipe may be
+ * block-buffered by the child; STDBUF asks libc to flush every write, PTY gives the child a
+ * terminal so it flushes every line by itself, and PIPE starts it as is.
+ *
+ * Persistent processes always use pipes: their stream-json input must not go through a
+ * terminal's line discipline.
+ */
+public enum ClaudeRunner {
+    STDBUF,
+    PTY,
+    PIPE;
+
+    public static ClaudeRunner of(String name) {
+        try {
+            return valueOf(name.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown claude.runner '" + name + "' in config.ini, expected stdbuf, pty or pipe");
+        }
+    }
+
+    /**
+     * Start the command with stderr merged into stdout and nothing to read on stdin
+     */
+    Process start(List<String> command, File workingDirectory) throws IOException {
+        if (this == PTY) {
+            Map<String, String> env = new HashMap<>(System.getenv());
+            // Plain output: no colours or cursor movement in the log
+            env.put("TERM", "dumb");
+            env.put("NO_COLOR", "1");
+
+            // A terminal's stdin is never at end of file, but the CLI only reads stdin when it is not a terminal
+            return new PtyProcessBuilder()
+                .setCommand(command.toArray(String[]::new))
+                .setDirectory(workingDirectory.getPath())
+                .setEnvironment(env)
+                .setRedirectErrorStream(true)
+                // Wide enough that nothing the CLI formats for the terminal gets wrapped
+                .setInitialColumns(500)
+                .setInitialRows(50)
+                .start();
+        }
+
+        List<String> cmdList = command;
+        if (this == STDBUF) {
+            cmdList = new ArrayList<>(List.of("stdbuf", "-o0"));
+            cmdList.addAll(command);
+        }
+
+        ProcessBuilder pb = new ProcessBuilder(cmdList);
+        pb.directory(workingDirectory);
+        pb.redirectErrorStream(true); // Merge stderr into stdout
+        pb.redirectInput(ProcessBuilder.Redirect.PIPE);
+
+        Process process = pb.start();
+        process.getOutputStream().close();
+        return process;
+    }
+
+    /**
+     * Handle for a process started by {@link #start}, or empty if it already exited. PTY processes
+     * do not support Process.toHandle(), and a fast command may be gone before its pid is looked up.
+     */
+    static Optional<ProcessHandle> handle(Process process) {
+        if (process instanceof PtyProcess pty) {
+            return ProcessHandle.of(pty.getPid());
+        }
+        return Optional.of(process.toHandle());
+    }
+}
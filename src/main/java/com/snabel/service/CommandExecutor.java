@@ -0,0 +1,70 @@
+package com.snabel.service;
+
+import com.snabel.config.AppConfig;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Executor for Claude commands. A command spends its whole life blocked on the CLI's output,
+ * so each command gets a thread of its own (virtual by default) instead of borrowing the common
+ * ForkJoinPool. There is no pool size or queue here: commands are handed over by
+ * {@link AdmissionController}, which decides when they may run and never hands over more than
+ * claude.command.concurrency at once.
+ */
+@ApplicationScoped
+public class CommandExecutor implements Executor {
+
+    @Inject
+    AppConfig appConfig;
+
+    private ExecutorService executor;
+
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicLong completed = new AtomicLong();
+
+    @PostConstruct
+    void init() {
+        executor = appConfig.getClaudeCommandVirtualThreads()
+            ? Executors.newVirtualThreadPerTaskExecutor()
+            : Executors.newThreadPerTaskExecutor(Thread.ofPlatform().name("claude-command-", 0).daemon().factory());
+    }
+
+    @PreDestroy
+    void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Run a command, or throw RejectedExecutionException if the server is shutting down
+     */
+    @Override
+    public void execute(Runnable command) {
+        executor.execute(() -> {
+            active.incrementAndGet();
+            try {
+                command.run();
+            } finally {
+                active.decrementAndGet();
+                completed.incrementAndGet();
+            }
+        });
+    }
+
+    public int getConcurrency() {
+        return appConfig.getClaudeCommandConcurrency();
+    }
+
+    public int getActiveCount() {
+        return active.get();
+    }
+
+    public long getCompletedCount() {
+        return completed.get();
+    }
+}
@@ -0,0 +1,92 @@
+package com.snabel.service;
+
+import com.snabel.model.CommandQueueEntry;
+import com.snabel.model.ImportSession;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.transaction.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.*;
+
+/**
+ * Persists the commands waiting in each session's {@link SessionCommandQueue}, so queued work
+ * survives a restart. Writes commit on their own, whatever transaction the caller is in: a
+ * command can start on another thread before the caller's transaction ends, and its entry must
+ * already be there to be deleted.
+ */
+@ApplicationScoped
+public class CommandQueueStore {
+
+    @Transactional(Transactional.TxType.REQUIRES_NEW)
+    public CommandQueueEntry save(String sessionId, String command, boolean instructions) {
+        CommandQueueEntry entry = new CommandQueueEntry();
+        entry.sessionId = sessionId;
+        entry.command = command;
+        entry.instructions = instructions;
+        entry.queuedAt = LocalDateTime.now();
+        entry.persist();
+        return entry;
+    }
+
+    /**
+     * Delete the entries of commands that started
+     */
+    @Transactional(Transactional.TxType.REQUIRES_NEW)
+    public void remove(Collection<Long> ids) {
+        if (!ids.isEmpty()) {
+            CommandQueueEntry.delete("id in ?1", ids);
+        }
+    }
+
+    @Transactional(Transactional.TxType.REQUIRES_NEW)
+    public void removeSession(String sessionId) {
+        CommandQueueEntry.deleteBySessionId(sessionId);
+    }
+
+    /**
+     * Load every queued command, grouped by session in queue order. Entries of sessions that
+     * can no longer run commands are deleted.
+     */
+    @Transactional
+    public List<QueuedSession> load() {
+        Map<String, QueuedSession> sessions = new LinkedHashMap<>();
+        Set<String> dropped = new HashSet<>();
+
+        for (CommandQueueEntry entry : CommandQueueEntry.findAllQueued()) {
+            if (dropped.contains(entry.sessionId)) {
+                continue;
+            }
+            QueuedSession queued = sessions.get(entry.sessionId);
+            if (queued == null) {
+                ImportSession session = ImportSession.findBySessionId(entry.sessionId);
+                if (session == null || session.claudeSessionId == null || session.workingDirectory == null) {
+                    dropped.add(entry.sessionId);
+                    continue;
+                }
+                queued = new QueuedSession(session);
+                sessions.put(entry.sessionId, queued);
+            }
+            queued.entries.add(entry);
+        }
+
+        dropped.forEach(CommandQueueEntry::deleteBySessionId);
+        return new ArrayList<>(sessions.values());
+    }
+
+    public static class QueuedSession {
+        public final String sessionId;
+        public final String claudeSessionId;
+        public final String workingDirectory;
+        public final String owner;
+        public final String targetMfe;
+        public final List<CommandQueueEntry> entries = new ArrayList<>();
+
+        QueuedSession(ImportSession session) {
+            this.sessionId = session.sessionId;
+            this.claudeSessionId = session.claudeSessionId;
+            this.workingDirectory = session.workingDirectory;
+            this.owner = session.owner;
+            this.targetMfe = session.targetMfe;
+        }
+    }
+}
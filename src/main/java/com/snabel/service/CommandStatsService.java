@@ -0,0 +1,161 @@
+package com.snabel.service;
+
+import com.snabel.model.ClaudeCommand;
+import com.snabel.model.ImportSession;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.transaction.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Records the metrics of every Claude command and aggregates them, to find the prompts and MFEs
+ * that are slow or expensive
+ */
+@ApplicationScoped
+public class CommandStatsService {
+
+    private static final String NO_MFE = "(frontend root)";
+
+    /**
+     * Store a finished command. Commands of sessions deleted while they ran are dropped.
+     */
+    @Transactional
+    public void record(ClaudeCommand command) {
+        ImportSession session = ImportSession.findBySessionId(command.sessionId);
+        if (session == null) {
+            return;
+        }
+        command.targetMfe = session.targetMfe;
+        command.persist();
+    }
+
+    @Transactional
+    public List<ClaudeCommand> getCommands(String sessionId) {
+        return ClaudeCommand.findBySessionId(sessionId);
+    }
+
+    /**
+     * Totals over a list of commands
+     */
+    public Totals totals(List<ClaudeCommand> commands) {
+        Totals totals = new Totals();
+        List<Long> durations = new ArrayList<>();
+        long firstTokenSum = 0;
+        int firstTokenCount = 0;
+        long queueWaitSum = 0;
+        int queueWaitCount = 0;
+
+        for (ClaudeCommand command : commands) {
+            totals.commands++;
+            if (!"success".equals(command.outcome)) {
+                totals.errors++;
+            }
+            if (command.durationMillis != null) {
+                durations.add(command.durationMillis);
+            }
+            if (command.firstTokenMillis != null) {
+                firstTokenSum += command.firstTokenMillis;
+                firstTokenCount++;
+            }
+            if (command.queueWaitMillis != null) {
+                queueWaitSum += command.queueWaitMillis;
+                queueWaitCount++;
+            }
+            totals.numTurns += valueOf(command.numTurns);
+            totals.toolCalls += valueOf(command.toolCalls);
+            totals.inputTokens += valueOf(command.inputTokens);
+            totals.outputTokens += valueOf(command.outputTokens);
+            totals.cacheCreationTokens += valueOf(command.cacheCreationTokens);
+            totals.cacheReadTokens += valueOf(command.cacheReadTokens);
+            totals.costUsd += command.costUsd != null ? command.costUsd : 0;
+        }
+
+        if (!durations.isEmpty()) {
+            Collections.sort(durations);
+            totals.avgDurationMillis = durations.stream().mapToLong(Long::longValue).sum() / durations.size();
+            totals.p95DurationMillis = durations.get((int) Math.ceil(durations.size() * 0.95) - 1);
+        }
+        if (firstTokenCount > 0) {
+            totals.avgFirstTokenMillis = firstTokenSum / firstTokenCount;
+        }
+        if (queueWaitCount > 0) {
+            totals.avgQueueWaitMillis = queueWaitSum / queueWaitCount;
+        }
+        return totals;
+    }
+
+    /**
+     * Command metrics of the last days, per target MFE, with the slowest and most expensive commands
+     */
+    @Transactional
+    public Stats getStats(int days, int top) {
+        LocalDateTime since = LocalDateTime.now().minusDays(days);
+        Stats stats = aggregate(ClaudeCommand.findStartedSince(since), top);
+        stats.since = since;
+        return stats;
+    }
+
+    /**
+     * Totals, per MFE totals and top lists of already loaded commands
+     */
+    Stats aggregate(List<ClaudeCommand> commands, int top) {
+        Stats stats = new Stats();
+        stats.total = totals(commands);
+
+        Map<String, List<ClaudeCommand>> byMfe = commands.stream().collect(Collectors.groupingBy(
+            command -> command.targetMfe != null && !command.targetMfe.isEmpty() ? command.targetMfe : NO_MFE));
+        byMfe.forEach((mfe, mfeCommands) -> {
+            Totals totals = totals(mfeCommands);
+            totals.targetMfe = mfe;
+            stats.byMfe.add(totals);
+        });
+        stats.byMfe.sort(Comparator.comparingDouble((Totals totals) -> totals.costUsd).reversed());
+
+        stats.slowest = topBy(commands, command -> command.durationMillis != null ? command.durationMillis.doubleValue() : null, top);
+        stats.mostExpensive = topBy(commands, command -> command.costUsd, top);
+        return stats;
+    }
+
+    private static List<ClaudeCommand> topBy(List<ClaudeCommand> commands, Function<ClaudeCommand, Double> metric, int top) {
+        return commands.stream()
+            .filter(command -> metric.apply(command) != null)
+            .sorted(Comparator.comparing(metric).reversed())
+            .limit(top)
+            .toList();
+    }
+
+    private static long valueOf(Number value) {
+        return value != null ? value.longValue() : 0;
+    }
+
+    public static class Totals {
+        // Set when grouped by MFE
+        public String targetMfe;
+        public int commands = 0;
+        // Commands that did not end with a successful result
+        public int errors = 0;
+        public Long avgDurationMillis;
+        public Long p95DurationMillis;
+        public Long avgFirstTokenMillis;
+        public Long avgQueueWaitMillis;
+        public long numTurns = 0;
+        public long toolCalls = 0;
+        public long inputTokens = 0;
+        public long outputTokens = 0;
+        public long cacheCreationTokens = 0;
+        public long cacheReadTokens = 0;
+        public double costUsd = 0;
+    }
+
+    public static class Stats {
+        public LocalDateTime since;
+        public Totals total;
+        // Most expensive MFE first
+        public final List<Totals> byMfe = new ArrayList<>();
+        public List<ClaudeCommand> slowest;
+        public List<ClaudeCommand> mostExpensive;
+    }
+}
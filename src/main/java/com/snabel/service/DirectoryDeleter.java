@@ -0,0 +1,261 @@
+package com.snabel.service;
+
+import com.snabel.config.AppConfig;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Deletes directory trees on a pool of its own. Trees are deleted post-order while they are
+ * streamed, never listed in full: the top levels fan out across the pool one task per
+ * subdirectory, deeper subtrees are deleted with a sequential walkFileTree.
+ *
+ * Bulk cleanup can be throttled to storage.delete.rate files per second so it does not compete
+ * with active sessions for disk I/O, or handed off entirely by renaming the tree into the trash
+ * and deleting it in the background. The trash is the upload store's ({temp.directory}/store/trash,
+ * see {@link UploadStore}), next to the trees so renaming into it is atomic; whatever is left
+ * there after a restart is deleted by the {@link StorageJanitor}.
+ */
+@ApplicationScoped
+public class DirectoryDeleter {
+
+    // Directories at most this deep below the deleted root get their own task
+    private static final int FORK_DEPTH = 3;
+
+    @Inject
+    AppConfig appConfig;
+
+    private ForkJoinPool deletePool;
+
+    // Throttled deletions wait for the rate limit, so they get a thread of their own rather
+    // than holding deletePool workers that unthrottled callers are waiting on
+    private ForkJoinPool throttledPool;
+
+    // Token bucket shared by all throttled deletions
+    private final Object throttleLock = new Object();
+    private long nextSlotNanos = System.nanoTime();
+
+    @PostConstruct
+    void init() {
+        deletePool = new ForkJoinPool(Math.max(2, Runtime.getRuntime().availableProcessors() / 2));
+        throttledPool = new ForkJoinPool(1);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        deletePool.shutdownNow();
+        throttledPool.shutdownNow();
+    }
+
+    /**
+     * Delete a file or directory tree and return the number of files removed. Failures are
+     * collected while the rest of the tree is still deleted, then thrown.
+     */
+    public long delete(Path path) throws IOException {
+        return run(path, false);
+    }
+
+    /**
+     * Like {@link #delete}, but at most storage.delete.rate files per second across all
+     * throttled deletions
+     */
+    public long deleteThrottled(Path path) throws IOException {
+        return run(path, true);
+    }
+
+    /**
+     * Rename a tree into the trash and delete it in the background, so the caller does not wait
+     * for the delete. The tree is gone from its original location when this returns; if it cannot
+     * be renamed (e.g. the trash is on another file system) it is deleted in place, in the background.
+     */
+    public void deleteInBackground(Path path) throws IOException {
+        if (!Files.exists(path, LinkOption.NOFOLLOW_LINKS)) {
+            return;
+        }
+
+        Path trash;
+        try {
+            trash = moveToTrash(path);
+        } catch (AtomicMoveNotSupportedException e) {
+            trash = path;
+        }
+        deleteAsync(trash);
+    }
+
+    /**
+     * Rename a file or tree into the trash and return its new location. Nothing is deleted:
+     * the caller deletes it, or leaves it to the {@link StorageJanitor}.
+     */
+    public Path moveToTrash(Path path) throws IOException {
+        Path trash = getTrashRoot().resolve(path.getFileName() + "-" + System.nanoTime());
+        Files.createDirectories(trash.getParent());
+        Files.move(path, trash, StandardCopyOption.ATOMIC_MOVE);
+        return trash;
+    }
+
+    public Path getTrashRoot() {
+        return Paths.get(appConfig.getTempDirectory(), "store", "trash");
+    }
+
+    private void deleteAsync(Path path) {
+        deletePool.execute(() -> {
+            try {
+                new DeleteTask(path, 0, false).compute();
+            } catch (UncheckedIOException e) {
+                System.err.println("Background delete failed: " + path + " - " + e.getCause().getMessage());
+            }
+        });
+    }
+
+    private long run(Path path, boolean throttled) throws IOException {
+        if (!Files.exists(path, LinkOption.NOFOLLOW_LINKS)) {
+            return 0;
+        }
+
+        try {
+            return (throttled ? throttledPool : deletePool).submit(new DeleteTask(path, 0, throttled)).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Delete interrupted: " + path, e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof UncheckedIOException unchecked) {
+                throw unchecked.getCause();
+            }
+            throw new IOException("Delete failed: " + e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    private void throttle() {
+        int rate = appConfig.getStorageDeleteRate();
+        if (rate <= 0) {
+            return;
+        }
+
+        long interval = 1_000_000_000L / rate;
+        long wait;
+        synchronized (throttleLock) {
+            long now = System.nanoTime();
+            long slot = Math.max(nextSlotNanos, now);
+            nextSlotNanos = slot + interval;
+            wait = slot - now;
+        }
+        if (wait > 0) {
+            LockSupport.parkNanos(wait);
+        }
+    }
+
+    private class DeleteTask extends RecursiveTask<Long> {
+        private final Path path;
+        private final int depth;
+        private final boolean throttled;
+
+        DeleteTask(Path path, int depth, boolean throttled) {
+            this.path = path;
+            this.depth = depth;
+            this.throttled = throttled;
+        }
+
+        @Override
+        protected Long compute() {
+            try {
+                BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                if (!attrs.isDirectory()) {
+                    deleteFile(path);
+                    return 1L;
+                }
+                return depth < FORK_DEPTH ? forkChildren() : walk();
+            } catch (NoSuchFileException e) {
+                return 0L;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private long forkChildren() throws IOException {
+            List<DeleteTask> subtasks = new ArrayList<>();
+            long files = 0;
+
+            try (DirectoryStream<Path> children = Files.newDirectoryStream(path)) {
+                for (Path child : children) {
+                    if (Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS)) {
+                        DeleteTask subtask = new DeleteTask(child, depth + 1, throttled);
+                        subtask.fork();
+                        subtasks.add(subtask);
+                    } else {
+                        deleteFile(child);
+                        files++;
+                    }
+                }
+            }
+
+            // Join every subtask before failing, so one bad file does not leave the rest of the tree behind
+            UncheckedIOException failure = null;
+            for (DeleteTask subtask : subtasks) {
+                try {
+                    files += subtask.join();
+                } catch (UncheckedIOException e) {
+                    if (failure == null) {
+                        failure = e;
+                    } else {
+                        failure.addSuppressed(e.getCause());
+                    }
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+
+            Files.deleteIfExists(path);
+            return files;
+        }
+
+        private long walk() throws IOException {
+            long[] files = {0};
+            Files.walkFileTree(path, new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                    deleteFile(file);
+                    files[0]++;
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException exc) throws IOException {
+                    if (exc instanceof NoSuchFileException) {
+                        return FileVisitResult.CONTINUE;
+                    }
+                    throw exc;
+                }
+
+                @Override
+                public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                    if (exc != null) {
+                        throw exc;
+                    }
+                    Files.deleteIfExists(dir);
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+            return files[0];
+        }
+
+        private void deleteFile(Path file) throws IOException {
+            if (throttled) {
+                throttle();
+            }
+            Files.deleteIfExists(file);
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.snabel.service;
+
+import com.snabel.config.AppConfig;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.security.MessageDigest;
+import java.util.*;
+
+/**
+ * Glob based include/exclude filter for archive entries.
+ * Patterns are matched against the entry name prefixed with "/", so "**&#47;node_modules/**"
+ * also matches a node_modules directory at the root of the archive.
+ */
+public class ExtractionFilter {
+
+    private final List<String> includePatterns;
+    private final List<String> excludePatterns;
+    private final List<PathMatcher> includes;
+    private final List<PathMatcher> excludes;
+
+    public ExtractionFilter(List<String> includePatterns, List<String> excludePatterns) {
+        this.includePatterns = List.copyOf(includePatterns);
+        this.excludePatterns = List.copyOf(excludePatterns);
+        this.includes = compile(includePatterns);
+        this.excludes = compile(excludePatterns);
+    }
+
+    public static ExtractionFilter fromConfig(AppConfig appConfig) {
+        return new ExtractionFilter(appConfig.getExtractIncludes(), appConfig.getExtractExcludes());
+    }
+
+    /**
+     * Check whether an archive entry should be extracted
+     */
+    public boolean accepts(String entryName) {
+        // Directory entries ("dist/") are tested as if they held a file, so "dist/**" style globs cover them too
+        Path path = Path.of("/" + (entryName.endsWith("/") ? entryName + "-" : entryName));
+
+        if (!includes.isEmpty() && includes.stream().noneMatch(m -> m.matches(path))) {
+            return false;
+        }
+        return excludes.stream().noneMatch(m -> m.matches(path));
+    }
+
+    /**
+     * Short stable hash of the patterns, so trees extracted with different filters are kept apart
+     */
+    public String fingerprint() {
+        MessageDigest digest = UploadStore.newSha256();
+        digest.update(String.join(",", includePatterns).getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) '|');
+        digest.update(String.join(",", excludePatterns).getBytes(StandardCharsets.UTF_8));
+        return HexFormat.of().formatHex(digest.digest()).substring(0, 12);
+    }
+
+    private static List<PathMatcher> compile(List<String> patterns) {
+        List<PathMatcher> matchers = new ArrayList<>();
+        for (String pattern : patterns) {
+            matchers.add(FileSystems.getDefault().getPathMatcher("glob:" + pattern));
+        }
+        return matchers;
+    }
+}
@@ -0,0 +1,543 @@
+package com.snabel.service;
+
+import com.snabel.config.AppConfig;
+import com.snabel.websocket.LogWebSocket;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+
+import java.io.*;
+import java.nio.file.*;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.IntStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Extracts uploaded archives. Zip files are read through the central directory, so entries can be
+ * inflated in parallel instead of one by one through a ZipInputStream. Tarballs have to be read
+ * sequentially: one thread decompresses while writer threads write the files out in parallel.
+ */
+@ApplicationScoped
+public class ExtractionService {
+
+    private static final int PROGRESS_INTERVAL = 500;
+
+    // Tar extraction: files are handed to the writers in chunks of this size, through bounded queues
+    private static final int TAR_CHUNK_SIZE = 256 * 1024;
+    private static final int TAR_QUEUE_CHUNKS = 16;
+    private static final TarChunk END_OF_ARCHIVE = new TarChunk(null, null, 0, false, false, false);
+
+    @Inject
+    AppConfig appConfig;
+
+    @Inject
+    LogWebSocket logWebSocket;
+
+    private ForkJoinPool extractionPool;
+
+    @PostConstruct
+    void init() {
+        extractionPool = new ForkJoinPool(appConfig.getExtractParallelism());
+    }
+
+    @PreDestroy
+    void shutdown() {
+        extractionPool.shutdownNow();
+    }
+
+    /**
+     * Extract all accepted entries of an archive into the target directory and record them in the analysis.
+     * If a handler is given, each extracted file is passed to it together with the SHA-256 of its content.
+     * Archives whose accepted entries add up to more than maxBytes (if positive) are rejected; for zip
+     * files before anything is inflated if the declared sizes add up to more, otherwise as soon as
+     * the inflated content does.
+     */
+    public ExtractionStats extract(String sessionId, Path archive, Path targetDir, ExtractionFilter filter,
+                                   FileService.FileAnalysis analysis, ExtractedFileHandler handler,
+                                   long maxBytes) throws IOException {
+        ArchiveFormat format = ArchiveFormat.of(archive);
+        return format == ArchiveFormat.ZIP
+            ? extractZip(sessionId, archive, targetDir, filter, analysis, handler, maxBytes)
+            : extractTar(sessionId, archive, format, targetDir, filter, analysis, handler, maxBytes);
+    }
+
+    /**
+     * Fill in the analysis from the archive's entry list, without extracting anything
+     */
+    public void scan(String sessionId, Path archive, ExtractionFilter filter,
+                     FileService.FileAnalysis analysis) throws IOException {
+        ArchiveFormat format = ArchiveFormat.of(archive);
+        if (format == ArchiveFormat.ZIP) {
+            scanZip(archive, filter, analysis);
+        } else {
+            scanTar(archive, format, filter, analysis);
+        }
+        logSkipped(sessionId, analysis);
+    }
+
+    private ExtractionStats extractZip(String sessionId, Path zipFile, Path targetDir, ExtractionFilter filter,
+                                       FileService.FileAnalysis analysis, ExtractedFileHandler handler,
+                                       long maxBytes) throws IOException {
+        long start = System.nanoTime();
+        Path root = targetDir.normalize();
+
+        try (ZipFile zip = new ZipFile(zipFile.toFile())) {
+            // By target path: an archive may list the same name twice, and the last entry wins,
+            // as when extracting one by one. Two writers must never share a file.
+            Map<Path, ZipEntry> filesByPath = new LinkedHashMap<>();
+            Set<Path> directories = new TreeSet<>();
+
+            // Read the central directory once: validate paths, apply filters and collect directories up front
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                Path entryPath = root.resolve(entry.getName()).normalize();
+
+                // Security check: prevent path traversal
+                if (!entryPath.startsWith(root)) {
+                    throw new IOException("Invalid zip entry: " + entry.getName());
+                }
+
+                // Excluded entries are never inflated
+                if (!filter.accepts(entry.getName())) {
+                    recordSkipped(entry.isDirectory(), entry.getSize(), analysis);
+                    continue;
+                }
+
+                if (entry.isDirectory()) {
+                    directories.add(entryPath);
+                    analysis.directory(directoryName(entry));
+                } else {
+                    filesByPath.remove(entryPath);
+                    filesByPath.put(entryPath, entry);
+                    directories.add(entryPath.getParent());
+                }
+            }
+
+            List<ZipEntry> files = new ArrayList<>(filesByPath.values());
+            long declaredBytes = files.stream().mapToLong(entry -> Math.max(entry.getSize(), 0)).sum();
+            if (maxBytes > 0 && declaredBytes > maxBytes) {
+                throw new IOException(String.format("Unpacked upload would be %.1f MB, over the per-session quota of %.1f MB",
+                    declaredBytes / 1024.0 / 1024.0, maxBytes / 1024.0 / 1024.0));
+            }
+
+            // Sorted order guarantees parents are created before their children
+            for (Path directory : directories) {
+                Files.createDirectories(directory);
+            }
+
+            long[] sizes = new long[files.size()];
+            AtomicInteger extracted = new AtomicInteger();
+            // Declared sizes can lie: the quota is enforced on what is actually inflated
+            AtomicLong inflated = new AtomicLong();
+
+            try {
+                extractionPool.submit(() -> IntStream.range(0, files.size()).parallel().forEach(i -> {
+                    ZipEntry entry = files.get(i);
+                    Path entryPath = root.resolve(entry.getName()).normalize();
+                    try {
+                        MessageDigest digest = handler != null ? UploadStore.newSha256() : null;
+                        try (InputStream in = zip.getInputStream(entry);
+                             OutputStream out = digest != null
+                                 ? new DigestOutputStream(Files.newOutputStream(entryPath), digest)
+                                 : Files.newOutputStream(entryPath)) {
+                            sizes[i] = inflate(in, out, inflated, maxBytes);
+                        }
+                        if (handler != null) {
+                            handler.accept(entryPath, digest.digest());
+                        }
+                    } catch (IOException e) {
+                        throw new UncheckedIOException("Failed to extract " + entry.getName(), e);
+                    }
+
+                    int count = extracted.incrementAndGet();
+                    if (count % PROGRESS_INTERVAL == 0) {
+                        logInfo(sessionId, "Extracted " + count + " of " + files.size() + " files...");
+                    }
+                })).get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Extraction interrupted", e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof UncheckedIOException unchecked) {
+                    throw unchecked.getCause();
+                }
+                throw new IOException("Extraction failed: " + e.getCause().getMessage(), e.getCause());
+            }
+
+            ExtractionStats stats = new ExtractionStats();
+            for (int i = 0; i < files.size(); i++) {
+                analysis.record(files.get(i).getName(), sizes[i]);
+                stats.bytes += sizes[i];
+            }
+            stats.files = files.size();
+            stats.millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+            logSkipped(sessionId, analysis);
+            logThroughput(sessionId, stats);
+            return stats;
+        }
+    }
+
+    /**
+     * Copy an entry's content, adding it to the bytes inflated so far. Fails as soon as the total
+     * goes over maxBytes (if positive), so a zip bomb stops at the quota whatever it declared.
+     */
+    private static long inflate(InputStream in, OutputStream out, AtomicLong inflated, long maxBytes) throws IOException {
+        byte[] buffer = new byte[64 * 1024];
+        long size = 0;
+        int read;
+        while ((read = in.read(buffer)) >= 0) {
+            if (maxBytes > 0 && inflated.addAndGet(read) > maxBytes) {
+                throw new IOException(String.format("Unpacked upload is over the per-session quota of %.1f MB",
+                    maxBytes / 1024.0 / 1024.0));
+            }
+            out.write(buffer, 0, read);
+            size += read;
+        }
+        return size;
+    }
+
+    private void scanZip(Path zipFile, ExtractionFilter filter, FileService.FileAnalysis analysis) throws IOException {
+        try (ZipFile zip = new ZipFile(zipFile.toFile())) {
+            // The last of duplicate entries wins, as in extractZip
+            Map<String, ZipEntry> files = new LinkedHashMap<>();
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                if (!filter.accepts(entry.getName())) {
+                    recordSkipped(entry.isDirectory(), entry.getSize(), analysis);
+                } else if (entry.isDirectory()) {
+                    analysis.directory(directoryName(entry));
+                } else {
+                    files.remove(entry.getName());
+                    files.put(entry.getName(), entry);
+                }
+            }
+            files.values().forEach(entry -> analysis.record(entry.getName(), Math.max(entry.getSize(), 0)));
+        }
+    }
+
+    /**
+     * Extract a tarball. The calling thread decompresses and reads entries, and hands each file's
+     * content in chunks to one of the writer threads, so decompression overlaps with writing and
+     * hashing. The writer is chosen by target path: all chunks of a file, and of any later entry
+     * with the same name, go to the same writer in order. A later entry replaces the earlier file
+     * rather than writing into it, since the earlier one may already be a hard link to a blob.
+     */
+    private ExtractionStats extractTar(String sessionId, Path archive, ArchiveFormat format, Path targetDir,
+                                       ExtractionFilter filter, FileService.FileAnalysis analysis,
+                                       ExtractedFileHandler handler, long maxBytes) throws IOException {
+        long start = System.nanoTime();
+        Path root = targetDir.normalize();
+        ExtractionStats stats = new ExtractionStats();
+
+        int writerCount = appConfig.getExtractParallelism();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<BlockingQueue<TarChunk>> queues = new ArrayList<>();
+        List<Thread> writers = new ArrayList<>();
+        for (int i = 0; i < writerCount; i++) {
+            BlockingQueue<TarChunk> queue = new ArrayBlockingQueue<>(TAR_QUEUE_CHUNKS);
+            queues.add(queue);
+            writers.add(Thread.ofPlatform().daemon().name("tar-writer-" + i)
+                .start(() -> writeChunks(queue, handler, failure)));
+        }
+
+        try (TarArchiveInputStream tar = openTar(archive, format)) {
+            Set<Path> directories = new HashSet<>();
+            Set<Path> files = new HashSet<>();
+            long declaredBytes = 0;
+
+            TarArchiveEntry entry;
+            while ((entry = tar.getNextEntry()) != null) {
+                String name = tarEntryName(entry);
+                if (name.isEmpty()) {
+                    continue;
+                }
+
+                Path entryPath = root.resolve(name).normalize();
+
+                // Security check: prevent path traversal
+                if (!entryPath.startsWith(root)) {
+                    throw new IOException("Invalid tar entry: " + entry.getName());
+                }
+
+                if (!filter.accepts(entry.isDirectory() ? name + "/" : name)) {
+                    recordSkipped(entry.isDirectory(), entry.getSize(), analysis);
+                    continue;
+                }
+
+                if (entry.isDirectory()) {
+                    if (directories.add(entryPath)) {
+                        Files.createDirectories(entryPath);
+                    }
+                    analysis.directory(name);
+                    continue;
+                }
+
+                // Links and special files are never extracted; a symlink could point outside the tree
+                if (!isRegularFile(entry)) {
+                    recordSkipped(false, 0, analysis);
+                    continue;
+                }
+
+                declaredBytes += entry.getSize();
+                if (maxBytes > 0 && declaredBytes > maxBytes) {
+                    throw new IOException(String.format("Unpacked upload would be over the per-session quota of %.1f MB",
+                        maxBytes / 1024.0 / 1024.0));
+                }
+
+                if (directories.add(entryPath.getParent())) {
+                    Files.createDirectories(entryPath.getParent());
+                }
+
+                boolean duplicate = !files.add(entryPath);
+                BlockingQueue<TarChunk> queue = queues.get(Math.floorMod(entryPath.hashCode(), writerCount));
+                long size = 0;
+                boolean first = true;
+                do {
+                    byte[] data = new byte[(int) Math.min(TAR_CHUNK_SIZE, entry.getSize() - size)];
+                    int read = tar.readNBytes(data, 0, data.length);
+                    if (read < data.length) {
+                        throw new EOFException("Truncated tar entry: " + entry.getName());
+                    }
+                    size += read;
+                    if (failure.get() != null) {
+                        break;
+                    }
+                    queue.put(new TarChunk(entryPath, data, read, first, size == entry.getSize(), first && duplicate));
+                    first = false;
+                } while (size < entry.getSize());
+
+                if (failure.get() != null) {
+                    break;
+                }
+
+                stats.bytes += size;
+                if (duplicate) {
+                    // Already counted when the name first appeared
+                    continue;
+                }
+                analysis.record(name, size);
+                stats.files++;
+                if (stats.files % PROGRESS_INTERVAL == 0) {
+                    logInfo(sessionId, "Extracted " + stats.files + " files...");
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failure.compareAndSet(null, e);
+        } catch (IOException | RuntimeException e) {
+            failure.compareAndSet(null, e);
+        } finally {
+            finishWriters(queues, writers);
+        }
+
+        Throwable error = failure.get();
+        if (error instanceof IOException io) {
+            throw io;
+        }
+        if (error != null) {
+            throw new IOException("Extraction failed: " + error.getMessage(), error);
+        }
+
+        stats.millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        logSkipped(sessionId, analysis);
+        logThroughput(sessionId, stats);
+        return stats;
+    }
+
+    private void scanTar(Path archive, ArchiveFormat format, ExtractionFilter filter,
+                         FileService.FileAnalysis analysis) throws IOException {
+        try (TarArchiveInputStream tar = openTar(archive, format)) {
+            // A name listed twice is one file once extracted
+            Set<String> files = new HashSet<>();
+            TarArchiveEntry entry;
+            while ((entry = tar.getNextEntry()) != null) {
+                String name = tarEntryName(entry);
+                if (name.isEmpty()) {
+                    continue;
+                }
+                if (!filter.accepts(entry.isDirectory() ? name + "/" : name)) {
+                    recordSkipped(entry.isDirectory(), entry.getSize(), analysis);
+                } else if (entry.isDirectory()) {
+                    analysis.directory(name);
+                } else if (isRegularFile(entry)) {
+                    if (files.add(name)) {
+                        analysis.record(name, entry.getSize());
+                    }
+                } else {
+                    recordSkipped(false, 0, analysis);
+                }
+            }
+        }
+    }
+
+    /**
+     * Writer thread: write the chunks of one file after another until the end marker. After a
+     * failure the queue is still drained so the reading thread never blocks on it.
+     */
+    private void writeChunks(BlockingQueue<TarChunk> queue, ExtractedFileHandler handler,
+                             AtomicReference<Throwable> failure) {
+        OutputStream out = null;
+        MessageDigest digest = null;
+        try {
+            while (true) {
+                TarChunk chunk = queue.take();
+                if (chunk == END_OF_ARCHIVE) {
+                    break;
+                }
+                if (failure.get() != null) {
+                    continue;
+                }
+
+                try {
+                    if (chunk.first) {
+                        if (chunk.replace) {
+                            Files.deleteIfExists(chunk.path);
+                        }
+                        digest = handler != null ? UploadStore.newSha256() : null;
+                        out = digest != null
+                            ? new DigestOutputStream(Files.newOutputStream(chunk.path), digest)
+                            : Files.newOutputStream(chunk.path);
+                    }
+                    out.write(chunk.data, 0, chunk.length);
+                    if (chunk.last) {
+                        out.close();
+                        out = null;
+                        if (handler != null) {
+                            handler.accept(chunk.path, digest.digest());
+                        }
+                    }
+                } catch (IOException | RuntimeException e) {
+                    failure.compareAndSet(null, e);
+                }
+            }
+        } catch (InterruptedException e) {
+            failure.compareAndSet(null, e);
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    // Already failing
+                }
+            }
+        }
+    }
+
+    private void finishWriters(List<BlockingQueue<TarChunk>> queues, List<Thread> writers) {
+        try {
+            for (BlockingQueue<TarChunk> queue : queues) {
+                queue.put(END_OF_ARCHIVE);
+            }
+            for (Thread writer : writers) {
+                writer.join();
+            }
+        } catch (InterruptedException e) {
+            writers.forEach(Thread::interrupt);
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private TarArchiveInputStream openTar(Path archive, ArchiveFormat format) throws IOException {
+        InputStream raw = new BufferedInputStream(Files.newInputStream(archive), 1024 * 1024);
+        try {
+            return new TarArchiveInputStream(format.decompress(raw));
+        } catch (IOException e) {
+            raw.close();
+            throw e;
+        }
+    }
+
+    private boolean isRegularFile(TarArchiveEntry entry) {
+        return entry.isFile() && !entry.isSymbolicLink() && !entry.isLink()
+            && !entry.isCharacterDevice() && !entry.isBlockDevice() && !entry.isFIFO();
+    }
+
+    private String tarEntryName(TarArchiveEntry entry) {
+        String name = entry.getName();
+        while (name.startsWith("./")) {
+            name = name.substring(2);
+        }
+        return name.endsWith("/") ? name.substring(0, name.length() - 1) : name;
+    }
+
+    private void recordSkipped(boolean directory, long size, FileService.FileAnalysis analysis) {
+        if (!directory) {
+            analysis.skippedFiles++;
+            analysis.skippedSize += Math.max(size, 0);
+        }
+    }
+
+    private String directoryName(ZipEntry entry) {
+        String name = entry.getName();
+        return name.endsWith("/") ? name.substring(0, name.length() - 1) : name;
+    }
+
+    private void logSkipped(String sessionId, FileService.FileAnalysis analysis) {
+        if (analysis.skippedFiles > 0) {
+            logInfo(sessionId, String.format("Skipped %d excluded files (%.2f MB)",
+                analysis.skippedFiles, analysis.skippedSize / 1024.0 / 1024.0));
+        }
+    }
+
+    private void logThroughput(String sessionId, ExtractionStats stats) {
+        double seconds = Math.max(stats.millis, 1) / 1000.0;
+        logInfo(sessionId, String.format(
+            "Extraction throughput: %d files, %.2f MB in %d ms (%.0f files/s, %.2f MB/s)",
+            stats.files,
+            stats.bytes / 1024.0 / 1024.0,
+            stats.millis,
+            stats.files / seconds,
+            stats.bytes / 1024.0 / 1024.0 / seconds
+        ));
+    }
+
+    private void logInfo(String sessionId, String message) {
+        logWebSocket.sendLog(sessionId, "FILE", message);
+    }
+
+    /**
+     * Callback for files as they are extracted
+     */
+    @FunctionalInterface
+    public interface ExtractedFileHandler {
+        void accept(Path file, byte[] sha256) throws IOException;
+    }
+
+    private static class TarChunk {
+        final Path path;
+        final byte[] data;
+        final int length;
+        final boolean first;
+        final boolean last;
+        // First chunk of a name seen before: delete the earlier file before writing
+        final boolean replace;
+
+        TarChunk(Path path, byte[] data, int length, boolean first, boolean last, boolean replace) {
+            this.path = path;
+            this.data = data;
+            this.length = length;
+            this.first = first;
+            this.last = last;
+            this.replace = replace;
+        }
+    }
+
+    public static class ExtractionStats {
+        public int files = 0;
+        public long bytes = 0;
+        public long millis = 0;
+    }
+}
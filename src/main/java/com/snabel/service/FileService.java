@@ -1,37 +1,64 @@
 package com.snabel.service;
 
 import com.snabel.config.AppConfig;
+import com.snabel.model.ImportSession;
 import com.snabel.websocket.LogWebSocket;
 import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.inject.Inject;
+import jakarta.transaction.Transactional;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
 
 import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
-import java.util.zip.*;
+import java.util.*;
+import java.util.stream.Stream;
 
 @ApplicationScoped
 public class FileService {
 
+    // Version of the instruction layout; part of the prompt prefix hash stored with each session
+    public static final String PROMPT_TEMPLATE_VERSION = "v3";
+
     @Inject
     AppConfig appConfig;
 
     @Inject
     LogWebSocket logWebSocket;
 
-    /**
-     * Save uploaded zip file
-     */
-    public Path saveUploadedFile(String sessionId, InputStream inputStream, String fileName) throws IOException {
-        Path uploadDir = Paths.get(appConfig.getTempDirectory(), "uploads", sessionId);
-        Files.createDirectories(uploadDir);
+    @Inject
+    ExtractionService extractionService;
+
+    @Inject
+    UploadStore uploadStore;
+
+    @Inject
+    ManifestService manifestService;
 
-        Path filePath = uploadDir.resolve(sanitizeFileName(fileName));
+    @Inject
+    ApiDocsService apiDocsService;
+
+    @Inject
+    DirectoryDeleter directoryDeleter;
 
+    private final ObjectMapper objectMapper = new ObjectMapper()
+        .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+    /**
+     * Save an uploaded archive (zip, tar.gz or tar.zst, detected from its content) into the
+     * content-addressed upload store. The file spooled by the HTTP
+     * layer is moved (not copied) into place; an identical earlier upload is reused instead.
+     */
+    public Path saveUploadedFile(String sessionId, Path uploadedFile, String fileName) throws IOException {
         logInfo(sessionId, "Saving uploaded file: " + fileName);
 
-        Files.copy(inputStream, filePath, StandardCopyOption.REPLACE_EXISTING);
+        Path filePath = uploadStore.storeArchive(sessionId, uploadedFile);
 
         logInfo(sessionId, "File saved: " + filePath);
 
@@ -39,57 +66,108 @@ public class FileService {
     }
 
     /**
-     * Unpack a zip file to a temporary directory
+     * Content hash of an uploaded archive saved by {@link #saveUploadedFile}
      */
-    public Path unpackZipFile(String sessionId, Path zipFile) throws IOException {
-        Path unpackDir = Paths.get(appConfig.getTempDirectory(), "unpacked", sessionId);
+    public String getUploadHash(Path archive) {
+        return uploadStore.archiveHash(archive);
+    }
 
-        // Clean up existing directory if it exists
-        if (Files.exists(unpackDir)) {
-            logInfo(sessionId, "Cleaning up existing unpacked directory");
-            deleteDirectory(unpackDir);
+    /**
+     * Unpack an uploaded archive to a temporary directory
+     */
+    public Path unpackArchive(String sessionId, Path archive) throws IOException {
+        return unpackArchive(sessionId, archive, new FileAnalysis());
+    }
+
+    /**
+     * Unpack an uploaded archive, filling in the file analysis while extracting so the unpacked tree does not
+     * have to be walked again afterwards. Identical uploads share one unpacked tree, and identical
+     * files across uploads are hard-linked to a single blob.
+     */
+    public Path unpackArchive(String sessionId, Path archive, FileAnalysis analysis) throws IOException {
+        ExtractionFilter filter = ExtractionFilter.fromConfig(appConfig);
+        Path unpackDir = uploadStore.treePath(uploadStore.archiveHash(archive), filter);
+
+        if (Files.isDirectory(unpackDir)) {
+            uploadStore.touchTree(unpackDir);
+            logInfo(sessionId, "Identical upload already unpacked, reusing: " + unpackDir);
+            extractionService.scan(sessionId, archive, filter, analysis);
+            analysis.stampDirectories(unpackDir);
+            logAnalysis(sessionId, analysis);
+            return unpackDir;
         }
 
-        Files.createDirectories(unpackDir);
+        logInfo(sessionId, "Unpacking archive: " + archive.getFileName());
 
-        logInfo(sessionId, "Unpacking zip file: " + zipFile.getFileName());
+        long maxBytes = appConfig.getStorageSessionQuotaMb() * 1024 * 1024;
+        uploadStore.materializeTree(unpackDir, staging ->
+            extractionService.extract(sessionId, archive, staging, filter, analysis, uploadStore::intern, maxBytes));
+        uploadStore.touchTree(unpackDir);
 
-        int fileCount = 0;
-        try (ZipInputStream zis = new ZipInputStream(new FileInputStream(zipFile.toFile()))) {
-            ZipEntry entry;
+        analysis.stampDirectories(unpackDir);
 
-            while ((entry = zis.getNextEntry()) != null) {
-                Path entryPath = unpackDir.resolve(entry.getName());
+        logInfo(sessionId, "Unpacking complete. Extracted " + analysis.totalFiles + " files to: " + unpackDir);
+        logAnalysis(sessionId, analysis);
 
-                // Security check: prevent path traversal
-                if (!entryPath.normalize().startsWith(unpackDir.normalize())) {
-                    throw new IOException("Invalid zip entry: " + entry.getName());
-                }
+        return unpackDir;
+    }
 
-                if (entry.isDirectory()) {
-                    Files.createDirectories(entryPath);
-                } else {
-                    // Create parent directories if needed
-                    Files.createDirectories(entryPath.getParent());
+    /**
+     * Analyze an uploaded zip and build its code map straight from the archive, mounted as a zip
+     * file system, without extracting anything. Returns where the tree will be extracted once a
+     * session needs a working copy (see {@link #prepareWorkingCopy}); if an identical upload
+     * is already unpacked, that tree is reused as with {@link #unpackArchive}. Tarballs have no
+     * index and would have to be decompressed in full anyway, so they are unpacked right away.
+     */
+    public Path inspectArchive(String sessionId, Path archive, FileAnalysis analysis) throws IOException {
+        ExtractionFilter filter = ExtractionFilter.fromConfig(appConfig);
+        Path unpackDir = uploadStore.treePath(uploadStore.archiveHash(archive), filter);
 
-                    // Extract file
-                    Files.copy(zis, entryPath, StandardCopyOption.REPLACE_EXISTING);
-                    fileCount++;
+        if (Files.isDirectory(unpackDir) || ArchiveFormat.of(archive) != ArchiveFormat.ZIP) {
+            return unpackArchive(sessionId, archive, analysis);
+        }
 
-                    if (fileCount % 10 == 0) {
-                        logInfo(sessionId, "Extracted " + fileCount + " files...");
-                    }
-                }
+        logInfo(sessionId, "Analyzing zip file without extracting: " + archive.getFileName());
 
-                zis.closeEntry();
-            }
-        }
+        // The central directory has every name and size the analysis needs
+        extractionService.scan(sessionId, archive, filter, analysis);
+        logAnalysis(sessionId, analysis);
 
-        logInfo(sessionId, "Unpacking complete. Extracted " + fileCount + " files to: " + unpackDir);
+        try (FileSystem zipFs = FileSystems.newFileSystem(archive)) {
+            manifestService.getManifest(sessionId, zipFs.getPath("/"), unpackDir, filter);
+        }
 
         return unpackDir;
     }
 
+    /**
+     * Get a session's upload as a working copy on disk together with its up-to-date analysis.
+     * The tree is extracted from the stored archive if it was never extracted (uploads inspected
+     * with {@link #inspectArchive}) or was evicted by the storage janitor. It is the shared tree
+     * itself, not a private copy, so it must only be read.
+     */
+    public WorkingCopy prepareWorkingCopy(String sessionId, String uploadHash, Path unpackedDir,
+                                          String storedAnalysis) throws IOException {
+        if (Files.isDirectory(unpackedDir)) {
+            uploadStore.touchTree(unpackedDir);
+            FileAnalysis previous = readAnalysis(storedAnalysis);
+            FileAnalysis analysis = previous != null
+                ? refreshAnalysis(sessionId, unpackedDir, previous)
+                : analyzeFiles(sessionId, unpackedDir);
+            return new WorkingCopy(unpackedDir, analysis);
+        }
+
+        Path archive = uploadHash != null ? uploadStore.archivePath(uploadHash) : null;
+        if (archive == null || !Files.exists(archive)) {
+            throw new IOException("Unpacked upload is no longer available, please upload the archive again");
+        }
+
+        logInfo(sessionId, "Extracting upload into a working copy");
+        FileAnalysis analysis = new FileAnalysis();
+        Path tree = unpackArchive(sessionId, archive, analysis);
+        return new WorkingCopy(tree, analysis);
+    }
+
     /**
      * Analyze unpacked files and generate summary
      */
@@ -98,226 +176,282 @@ public class FileService {
 
         FileAnalysis analysis = new FileAnalysis();
 
-        Files.walk(directory)
-            .filter(Files::isRegularFile)
-            .forEach(file -> {
-                String fileName = file.getFileName().toString();
-                String extension = getFileExtension(fileName);
-
-                analysis.totalFiles++;
-
-                if (extension.equals("ts") || extension.equals("tsx")) {
-                    analysis.typescriptFiles++;
-                } else if (extension.equals("js") || extension.equals("jsx")) {
-                    analysis.javascriptFiles++;
-                } else if (extension.equals("css") || extension.equals("scss")) {
-                    analysis.styleFiles++;
-                } else if (extension.equals("json")) {
-                    analysis.jsonFiles++;
-                } else if (extension.equals("html")) {
-                    analysis.htmlFiles++;
-                }
+        Files.walkFileTree(directory, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                analysis.directory(relativePath(directory, dir)).modifiedAt = attrs.lastModifiedTime().toMillis();
+                return FileVisitResult.CONTINUE;
+            }
 
-                try {
-                    analysis.totalSize += Files.size(file);
-                } catch (IOException e) {
-                    // Ignore
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (attrs.isRegularFile()) {
+                    analysis.record(relativePath(directory, file), attrs.size());
                 }
-            });
+                return FileVisitResult.CONTINUE;
+            }
 
-        logInfo(sessionId, String.format(
-            "Analysis: %d files, %d TS/TSX, %d JS/JSX, %d CSS, %d JSON, %d HTML, %.2f MB total",
-            analysis.totalFiles,
-            analysis.typescriptFiles,
-            analysis.javascriptFiles,
-            analysis.styleFiles,
-            analysis.jsonFiles,
-            analysis.htmlFiles,
-            analysis.totalSize / 1024.0 / 1024.0
-        ));
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                return FileVisitResult.CONTINUE;
+            }
+        });
+
+        logAnalysis(sessionId, analysis);
 
         return analysis;
     }
 
     /**
-     * Build instructions for Claude Code based on file analysis
+     * Bring a previously stored analysis up to date. Directories whose modification time is unchanged
+     * have the same entries as before, so their stored counts are reused and only their known
+     * subdirectories are visited; files are re-stat'ed only in directories that changed.
+     * Files rewritten in place (without being replaced) keep their previously recorded size.
      */
-    public String buildClaudeInstructions(String userDescription, FileAnalysis analysis, String backendApiPath, String targetMfe) {
-        StringBuilder instructions = new StringBuilder();
+    public FileAnalysis refreshAnalysis(String sessionId, Path directory, FileAnalysis previous) throws IOException {
+        FileAnalysis analysis = new FileAnalysis();
+        analysis.skippedFiles = previous.skippedFiles;
+        analysis.skippedSize = previous.skippedSize;
 
-        instructions.append("You are tasked with transforming uploaded TypeScript code into production-ready React code.\n\n");
+        int changed = refreshDirectory(directory, "", previous, analysis);
 
-        instructions.append("PROJECT CONTEXT:\n");
-        instructions.append("- User description: ").append(userDescription).append("\n");
-        instructions.append("- Source code statistics: ")
-            .append(analysis.totalFiles).append(" files, ")
-            .append(analysis.typescriptFiles).append(" TypeScript files\n");
-
-        if (targetMfe != null && !targetMfe.isEmpty()) {
-            instructions.append("- Target MFE: ").append(targetMfe).append("\n");
-            instructions.append("- You are working in the '").append(targetMfe).append("' micro-frontend app\n");
-        }
-        instructions.append("\n");
-
-        instructions.append("REQUIREMENTS:\n");
-        instructions.append("1. Transform all components into proper React components\n");
-        instructions.append("2. Use Tailwind CSS for all styling (remove inline styles)\n");
-        instructions.append("3. ONLY use the backend API documented below - do NOT create fake/mock endpoints\n");
-        instructions.append("4. Follow the Nx micro-frontend architecture in snabel_frontend\n");
-        instructions.append("5. Use TypeScript with proper type safety\n");
-        instructions.append("6. Implement proper error handling\n");
-        instructions.append("7. Add loading states for async operations\n");
-        instructions.append("8. Follow React best practices (hooks, functional components)\n");
-        instructions.append("9. Reuse components from the shared design-system package when possible\n\n");
-
-        // Load and include backend API documentation
-        String apiDocs = loadBackendApiDocs(backendApiPath);
-        if (apiDocs != null) {
-            instructions.append("=== BACKEND API DOCUMENTATION ===\n\n");
-            instructions.append(apiDocs);
-            instructions.append("\n\n=== END OF API DOCUMENTATION ===\n\n");
+        if (changed == 0) {
+            logInfo(sessionId, "Unpacked files unchanged, reusing stored analysis");
         } else {
-            // Fallback if API docs can't be loaded
-            instructions.append("BACKEND API (Base URL: http://localhost:8080):\n");
-            instructions.append("- Authentication: JWT tokens via POST /api/auth/login\n");
-            instructions.append("- Available endpoints:\n");
-            instructions.append("  * GET /api/accounts - List accounts\n");
-            instructions.append("  * POST /api/accounts - Create account\n");
-            instructions.append("  * GET /api/invoices - List invoices\n");
-            instructions.append("  * POST /api/invoices - Create invoice\n");
-            instructions.append("- All endpoints (except login) require Authorization: Bearer <token>\n");
-            instructions.append("- Refer to ").append(backendApiPath).append(" for complete API details\n\n");
+            logInfo(sessionId, "Re-analyzed " + changed + " changed directories");
+            logAnalysis(sessionId, analysis);
         }
 
-        instructions.append("DELIVERABLES:\n");
-        if (targetMfe != null && !targetMfe.isEmpty()) {
-            instructions.append("- Place all components in the '").append(targetMfe).append("' MFE directory (apps/").append(targetMfe).append("/src/)\n");
-            instructions.append("- Follow the routing conventions for the '").append(targetMfe).append("' MFE\n");
-            instructions.append("- Use the shared design-system package from packages/design-system\n");
-        } else {
-            instructions.append("- Convert all components to the appropriate MFE (invoicing, expenses, reports, etc.)\n");
-            instructions.append("- Each MFE is in apps/{mfe-name}/ directory\n");
+        return analysis;
+    }
+
+    private int refreshDirectory(Path root, String relativeDir, FileAnalysis previous, FileAnalysis analysis) throws IOException {
+        Path dir = relativeDir.isEmpty() ? root : root.resolve(relativeDir);
+
+        BasicFileAttributes dirAttrs;
+        try {
+            dirAttrs = Files.readAttributes(dir, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            return 1;
         }
-        instructions.append("- Implement proper routing using react-router-dom\n");
-        instructions.append("- Add API integration using the exact endpoints documented above\n");
-        instructions.append("- Ensure code passes TypeScript compilation\n");
-        instructions.append("- Write clean, maintainable code\n");
-        instructions.append("- Use Tailwind CSS for all styling\n\n");
+        long modifiedAt = dirAttrs.lastModifiedTime().toMillis();
 
-        if (targetMfe != null && !targetMfe.isEmpty()) {
-            instructions.append("IMPORTANT: You are working in apps/").append(targetMfe).append("/ - make all changes within this MFE directory.\n\n");
+        DirectoryStats stored = previous.directories.get(relativeDir);
+        if (stored != null && stored.modifiedAt == modifiedAt) {
+            analysis.directories.put(relativeDir, stored);
+            analysis.add(stored);
+
+            int changed = 0;
+            for (String subdirectory : stored.subdirectories) {
+                changed += refreshDirectory(root, childPath(relativeDir, subdirectory), previous, analysis);
+            }
+            return changed;
         }
 
-        instructions.append("Get started by analyzing the source code and creating a plan for the transformation.");
+        DirectoryStats stats = new DirectoryStats();
+        stats.modifiedAt = modifiedAt;
+        analysis.directories.put(relativeDir, stats);
+
+        List<String> subdirectories = new ArrayList<>();
+        try (DirectoryStream<Path> children = Files.newDirectoryStream(dir)) {
+            for (Path child : children) {
+                BasicFileAttributes attrs = Files.readAttributes(child, BasicFileAttributes.class);
+                String name = child.getFileName().toString();
+                if (attrs.isDirectory()) {
+                    stats.subdirectories.add(name);
+                    subdirectories.add(name);
+                } else if (attrs.isRegularFile()) {
+                    stats.count(name, attrs.size());
+                }
+            }
+        }
+        analysis.add(stats);
 
-        return instructions.toString();
+        int changed = 1;
+        for (String subdirectory : subdirectories) {
+            changed += refreshDirectory(root, childPath(relativeDir, subdirectory), previous, analysis);
+        }
+        return changed;
     }
 
     /**
-     * Build instructions for direct Claude Code session (without upload)
+     * Serialize an analysis for storage with the session
      */
-    public String buildDirectInstructions(String description, String originalInstructions,
-                                         String additionalInstructions, String backendApiPath,
-                                         String targetMfe) {
-        StringBuilder instructions = new StringBuilder();
-
-        instructions.append("You are working on a development task for the Snabel accounting system.\n\n");
-
-        instructions.append("PROJECT CONTEXT:\n");
-        instructions.append("- Task: ").append(description).append("\n");
+    public String writeAnalysis(FileAnalysis analysis) {
+        try {
+            return objectMapper.writeValueAsString(analysis);
+        } catch (IOException e) {
+            System.err.println("Failed to serialize file analysis: " + e.getMessage());
+            return null;
+        }
+    }
 
-        if (targetMfe != null && !targetMfe.isEmpty()) {
-            instructions.append("- Target MFE: ").append(targetMfe).append("\n");
-            instructions.append("- Working directory: apps/").append(targetMfe).append("/\n");
+    /**
+     * Read an analysis stored with the session, or null if there is none (or it is unreadable)
+     */
+    public FileAnalysis readAnalysis(String json) {
+        if (json == null || json.isEmpty()) {
+            return null;
         }
-        instructions.append("\n");
+        try {
+            return objectMapper.readValue(json, FileAnalysis.class);
+        } catch (IOException e) {
+            System.err.println("Failed to read stored file analysis: " + e.getMessage());
+            return null;
+        }
+    }
 
-        instructions.append("ARCHITECTURE:\n");
-        instructions.append("- Frontend: Nx monorepo with micro-frontends (Module Federation)\n");
-        instructions.append("- MFEs: shell, dashboard, invoicing, expenses, reports, clients\n");
-        instructions.append("- Styling: Tailwind CSS\n");
-        instructions.append("- Shared components: packages/design-system\n");
-        instructions.append("- TypeScript with React functional components\n\n");
+    private static String relativePath(Path root, Path path) {
+        return root.relativize(path).toString().replace(File.separatorChar, '/');
+    }
 
-        // Load and include backend API documentation
-        String apiDocs = loadBackendApiDocs(backendApiPath);
-        if (apiDocs != null) {
-            instructions.append("=== BACKEND API DOCUMENTATION ===\n\n");
-            instructions.append(apiDocs);
-            instructions.append("\n\n=== END OF API DOCUMENTATION ===\n\n");
-        } else {
-            instructions.append("BACKEND API:\n");
-            instructions.append("- Base URL: http://localhost:8080\n");
-            instructions.append("- Authentication: JWT tokens via POST /api/auth/login\n");
-            instructions.append("- Main endpoints: /api/accounts, /api/invoices\n");
-            instructions.append("- All endpoints require Authorization: Bearer <token>\n\n");
-        }
+    private static String childPath(String relativeDir, String name) {
+        return relativeDir.isEmpty() ? name : relativeDir + "/" + name;
+    }
 
-        instructions.append("REQUIREMENTS:\n");
-        instructions.append("1. Follow the Nx micro-frontend architecture\n");
-        instructions.append("2. Use TypeScript with proper type safety\n");
-        instructions.append("3. Use Tailwind CSS for styling\n");
-        instructions.append("4. Implement proper error handling\n");
-        instructions.append("5. Add loading states for async operations\n");
-        instructions.append("6. Use React best practices (hooks, functional components)\n");
-        instructions.append("7. ONLY use backend API endpoints documented above\n");
-        instructions.append("8. Reuse components from packages/design-system when possible\n\n");
+    private void logAnalysis(String sessionId, FileAnalysis analysis) {
+        logInfo(sessionId, String.format(
+            "Analysis: %d files, %d TS/TSX, %d JS/JSX, %d CSS, %d JSON, %d HTML, %.2f MB total",
+            analysis.totalFiles,
+            analysis.typescriptFiles,
+            analysis.javascriptFiles,
+            analysis.styleFiles,
+            analysis.jsonFiles,
+            analysis.htmlFiles,
+            analysis.totalSize / 1024.0 / 1024.0
+        ));
+    }
 
-        if (targetMfe != null && !targetMfe.isEmpty()) {
-            instructions.append("IMPORTANT: You are working in apps/").append(targetMfe)
-                .append("/ - make all changes within this MFE directory.\n\n");
-        }
+    /**
+     * Build instructions for Claude Code based on file analysis and the code map of the upload,
+     * ending with the user's instructions: the complete first message of the session. The API
+     * calls found in the upload steer which API documentation sections are included.
+     */
+    public Instructions buildClaudeInstructions(String userDescription, FileAnalysis analysis, String codeMap,
+                                                List<String> apiCalls, String userInstructions, String targetMfe) {
+        StringBuilder session = new StringBuilder();
+
+        session.append("=== TASK: TRANSFORM UPLOADED CODE ===\n\n");
+        session.append("You are tasked with transforming uploaded TypeScript code into production-ready React code.\n\n");
+
+        session.append("TRANSFORMATION RULES:\n");
+        session.append("1. Transform all components into proper React components\n");
+        session.append("2. Use Tailwind CSS for all styling (remove inline styles)\n");
+        session.append("3. Do NOT create fake/mock endpoints - only the backend API documented above\n\n");
+
+        session.append("DELIVERABLES:\n");
+        session.append("- Implement proper routing using react-router-dom\n");
+        session.append("- Add API integration using the exact endpoints documented above\n");
+        session.append("- Ensure code passes TypeScript compilation\n");
+        session.append("- Write clean, maintainable code\n\n");
+
+        // Everything below is specific to this session
+        session.append("PROJECT CONTEXT:\n");
+        session.append("- User description: ").append(userDescription).append("\n");
+        session.append("- Source code statistics: ")
+            .append(analysis.totalFiles).append(" files, ")
+            .append(analysis.typescriptFiles).append(" TypeScript files\n\n");
 
-        instructions.append("USER TASK:\n");
-        if (originalInstructions != null && !originalInstructions.isEmpty()) {
-            instructions.append(originalInstructions).append("\n\n");
-        }
-        if (additionalInstructions != null && !additionalInstructions.isEmpty()) {
-            instructions.append("ADDITIONAL INSTRUCTIONS:\n");
-            instructions.append(additionalInstructions).append("\n\n");
+        if (codeMap != null) {
+            session.append("The map below summarizes the uploaded code; read individual files only where you need details.\n\n");
+            session.append(codeMap).append("\n");
         }
 
-        instructions.append("Please analyze the task and start implementing the solution.");
+        session.append("Get started by analyzing the source code and creating a plan for the transformation.");
+
+        session.append("\n\nUSER ADDITIONAL INSTRUCTIONS:\n").append(Objects.toString(userInstructions, ""));
 
-        return instructions.toString();
+        return new Instructions(buildStaticPrefix(targetMfe, userDescription, apiCalls), session.toString());
     }
 
     /**
-     * Load backend API documentation
+     * Build instructions for direct Claude Code session (without upload)
      */
-    private String loadBackendApiDocs(String backendApiPath) {
-        try {
-            Path apiDocsPath = Paths.get(backendApiPath, "docs", "API.md");
-            if (Files.exists(apiDocsPath)) {
-                return Files.readString(apiDocsPath);
-            }
-        } catch (Exception e) {
-            System.err.println("Failed to load backend API docs: " + e.getMessage());
+    public Instructions buildDirectInstructions(String description, String originalInstructions, String targetMfe) {
+        StringBuilder session = new StringBuilder();
+
+        session.append("=== TASK ===\n\n");
+        session.append("- Task: ").append(description).append("\n\n");
+
+        session.append("USER TASK:\n");
+        if (originalInstructions != null && !originalInstructions.isEmpty()) {
+            session.append(originalInstructions).append("\n\n");
         }
-        return null;
+
+        session.append("Please analyze the task and start implementing the solution.");
+
+        String relevance = String.join("\n", description, Objects.toString(originalInstructions, ""));
+        return new Instructions(buildStaticPrefix(targetMfe, relevance, List.of()), session.toString());
     }
 
     /**
-     * Delete a directory and all its contents
+     * The part of the instructions shared by every session targeting the same MFE: architecture rules,
+     * then the backend API documentation, then the MFE section. It must not contain anything
+     * session-specific, so that it stays byte-identical across sessions and can be served from the
+     * provider's prompt cache. Bump PROMPT_TEMPLATE_VERSION whenever this layout changes.
+     *
+     * When the API docs exceed their token budget only the relevant sections are included; the
+     * task text and API calls only choose sections, so sessions that need the same endpoints
+     * still share a prefix.
      */
-    public void deleteDirectory(Path directory) throws IOException {
-        if (!Files.exists(directory)) {
-            return;
+    private String buildStaticPrefix(String targetMfe, String relevanceText, List<String> apiCalls) {
+        StringBuilder prefix = new StringBuilder();
+
+        prefix.append("You are working on a development task for the Snabel accounting system.\n\n");
+
+        prefix.append("ARCHITECTURE:\n");
+        prefix.append("- Frontend: Nx monorepo with micro-frontends (Module Federation)\n");
+        prefix.append("- MFEs: shell, dashboard, invoicing, expenses, reports, clients\n");
+        prefix.append("- Styling: Tailwind CSS\n");
+        prefix.append("- Shared components: packages/design-system\n");
+        prefix.append("- TypeScript with React functional components\n\n");
+
+        prefix.append("REQUIREMENTS:\n");
+        prefix.append("1. Follow the Nx micro-frontend architecture\n");
+        prefix.append("2. Use TypeScript with proper type safety\n");
+        prefix.append("3. Use Tailwind CSS for styling\n");
+        prefix.append("4. Implement proper error handling\n");
+        prefix.append("5. Add loading states for async operations\n");
+        prefix.append("6. Use React best practices (hooks, functional components)\n");
+        prefix.append("7. ONLY use backend API endpoints documented below\n");
+        prefix.append("8. Reuse components from packages/design-system when possible\n\n");
+
+        // Include backend API documentation (cached, sliced to the token budget if needed)
+        String apiDocs = apiDocsService.renderForSession(targetMfe, relevanceText, apiCalls);
+        if (apiDocs != null) {
+            prefix.append(apiDocs);
+        } else {
+            // Fallback if API docs can't be loaded
+            prefix.append("BACKEND API (Base URL: http://localhost:8080):\n");
+            prefix.append("- Authentication: JWT tokens via POST /api/auth/login\n");
+            prefix.append("- Available endpoints:\n");
+            prefix.append("  * GET /api/accounts - List accounts\n");
+            prefix.append("  * POST /api/accounts - Create account\n");
+            prefix.append("  * GET /api/invoices - List invoices\n");
+            prefix.append("  * POST /api/invoices - Create invoice\n");
+            prefix.append("- All endpoints (except login) require Authorization: Bearer <token>\n");
+            prefix.append("- Refer to ").append(apiDocsService.getDocsPath()).append(" for complete API details\n\n");
         }
 
-        Files.walk(directory)
-            .sorted((a, b) -> b.compareTo(a)) // Reverse order to delete files before directories
-            .forEach(path -> {
-                try {
-                    Files.delete(path);
-                } catch (IOException e) {
-                    System.err.println("Failed to delete: " + path + " - " + e.getMessage());
-                }
-            });
+        prefix.append("=== TARGET MFE ===\n\n");
+        if (targetMfe != null && !targetMfe.isEmpty()) {
+            prefix.append("- Target MFE: ").append(targetMfe).append("\n");
+            prefix.append("- Working directory: apps/").append(targetMfe).append("/\n");
+            prefix.append("- Place all components in apps/").append(targetMfe).append("/src/ and follow its routing conventions\n");
+            prefix.append("- Use the shared design-system package from packages/design-system\n\n");
+            prefix.append("IMPORTANT: You are working in apps/").append(targetMfe)
+                .append("/ - make all changes within this MFE directory.\n\n");
+        } else {
+            prefix.append("- No target MFE: place components in the appropriate MFE (invoicing, expenses, reports, etc.)\n");
+            prefix.append("- Each MFE is in apps/{mfe-name}/ directory\n\n");
+        }
+
+        return prefix.toString();
     }
 
     /**
-     * Clean up old session files (older than configured timeout)
+     * Clean up old session files (older than configured timeout): expire upload store references and
+     * garbage-collect archives, trees and blobs no session uses any more
      */
     public void cleanupOldSessions() {
         Path tempDir = Paths.get(appConfig.getTempDirectory());
@@ -327,33 +461,56 @@ public class FileService {
         }
 
         long maxAgeHours = appConfig.getSessionTimeoutHours();
+        uploadStore.collectGarbage(Duration.ofHours(maxAgeHours));
+        manifestService.evictStale();
+
+        // Per-session directories written before the shared upload store existed
         long maxAgeMillis = maxAgeHours * 60 * 60 * 1000;
         long now = System.currentTimeMillis();
 
-        try {
-            Files.list(tempDir)
-                .filter(Files::isDirectory)
-                .forEach(dir -> {
-                    try {
-                        long lastModified = Files.getLastModifiedTime(dir).toMillis();
-                        if (now - lastModified > maxAgeMillis) {
-                            System.out.println("Cleaning up old session directory: " + dir);
-                            deleteDirectory(dir);
+        for (String legacyDir : List.of("uploads", "unpacked")) {
+            Path parent = tempDir.resolve(legacyDir);
+            if (!Files.isDirectory(parent)) {
+                continue;
+            }
+
+            try (Stream<Path> dirs = Files.list(parent)) {
+                dirs.filter(Files::isDirectory)
+                    .forEach(dir -> {
+                        try {
+                            long lastModified = Files.getLastModifiedTime(dir).toMillis();
+                            if (now - lastModified > maxAgeMillis) {
+                                System.out.println("Cleaning up old session directory: " + dir);
+                                directoryDeleter.deleteInBackground(dir);
+                            }
+                        } catch (IOException e) {
+                            System.err.println("Failed to cleanup directory: " + dir + " - " + e.getMessage());
                         }
-                    } catch (IOException e) {
-                        System.err.println("Failed to cleanup directory: " + dir + " - " + e.getMessage());
-                    }
-                });
-        } catch (IOException e) {
-            System.err.println("Failed to list temp directories: " + e.getMessage());
+                    });
+            } catch (IOException e) {
+                System.err.println("Failed to list temp directories: " + e.getMessage());
+            }
         }
     }
 
-    private String sanitizeFileName(String fileName) {
-        return fileName.replaceAll("[^a-zA-Z0-9.-]", "_");
+    /**
+     * Unpacked trees of sessions whose Claude commands are running. The storage janitor keeps them
+     * however long ago they were last touched. Sessions not updated within the session timeout
+     * are taken to have stopped with an earlier server.
+     */
+    @Transactional
+    public Set<Path> getTreesInUse() {
+        LocalDateTime since = LocalDateTime.now().minusHours(appConfig.getSessionTimeoutHours());
+        Set<Path> trees = new HashSet<>();
+        for (ImportSession session : ImportSession.findRunning(since)) {
+            if (session.unpackedPath != null && !session.unpackedPath.isEmpty()) {
+                trees.add(Path.of(session.unpackedPath).toAbsolutePath().normalize());
+            }
+        }
+        return trees;
     }
 
-    private String getFileExtension(String fileName) {
+    private static String getFileExtension(String fileName) {
         int lastDot = fileName.lastIndexOf('.');
         return lastDot > 0 ? fileName.substring(lastDot + 1).toLowerCase() : "";
     }
@@ -362,7 +519,10 @@ public class FileService {
         logWebSocket.sendLog(sessionId, "FILE", message);
     }
 
-    public static class FileAnalysis {
+    /**
+     * File counts by type
+     */
+    public static class FileCounts {
         public int totalFiles = 0;
         public int typescriptFiles = 0;
         public int javascriptFiles = 0;
@@ -370,5 +530,131 @@ public class FileService {
         public int jsonFiles = 0;
         public int htmlFiles = 0;
         public long totalSize = 0;
+
+        /**
+         * Count a single file
+         */
+        public void count(String fileName, long size) {
+            String extension = getFileExtension(fileName);
+
+            totalFiles++;
+
+            if (extension.equals("ts") || extension.equals("tsx")) {
+                typescriptFiles++;
+            } else if (extension.equals("js") || extension.equals("jsx")) {
+                javascriptFiles++;
+            } else if (extension.equals("css") || extension.equals("scss")) {
+                styleFiles++;
+            } else if (extension.equals("json")) {
+                jsonFiles++;
+            } else if (extension.equals("html")) {
+                htmlFiles++;
+            }
+
+            totalSize += size;
+        }
+
+        public void add(FileCounts other) {
+            totalFiles += other.totalFiles;
+            typescriptFiles += other.typescriptFiles;
+            javascriptFiles += other.javascriptFiles;
+            styleFiles += other.styleFiles;
+            jsonFiles += other.jsonFiles;
+            htmlFiles += other.htmlFiles;
+            totalSize += other.totalSize;
+        }
+    }
+
+    /**
+     * Counts for the files directly inside one directory
+     */
+    public static class DirectoryStats extends FileCounts {
+        public long modifiedAt = 0;
+        public List<String> subdirectories = new ArrayList<>();
+    }
+
+    /**
+     * An unpacked upload on disk and its file analysis. The directory is a tree of the upload
+     * store, shared by every session with the same upload, and read-only: see {@link UploadStore}.
+     */
+    public static class WorkingCopy {
+        public final Path directory;
+        public final FileAnalysis analysis;
+
+        public WorkingCopy(Path directory, FileAnalysis analysis) {
+            this.directory = directory;
+            this.analysis = analysis;
+        }
+    }
+
+    /**
+     * Instructions for Claude, split into the static prefix shared across sessions and the
+     * session-specific remainder. {@link #text()} is sent verbatim as the session's first message.
+     */
+    public static class Instructions {
+        public final String prefix;
+        public final String sessionPart;
+        public final String prefixHash;
+        // Of the whole text, to tell whether a session's conversation has these instructions
+        public final String hash;
+
+        public Instructions(String prefix, String sessionPart) {
+            this.prefix = prefix;
+            this.sessionPart = sessionPart;
+            this.prefixHash = PROMPT_TEMPLATE_VERSION + ":" + HexFormat.of().formatHex(
+                UploadStore.newSha256().digest(prefix.getBytes(StandardCharsets.UTF_8)));
+            this.hash = HexFormat.of().formatHex(
+                UploadStore.newSha256().digest(text().getBytes(StandardCharsets.UTF_8)));
+        }
+
+        public String text() {
+            return prefix + sessionPart;
+        }
+    }
+
+    public static class FileAnalysis extends FileCounts {
+        public int skippedFiles = 0;
+        public long skippedSize = 0;
+
+        // Keyed by path relative to the analyzed root, "" being the root itself
+        public Map<String, DirectoryStats> directories = new TreeMap<>();
+
+        /**
+         * Count a file, given by its '/'-separated path relative to the analyzed root
+         */
+        public void record(String relativePath, long size) {
+            int slash = relativePath.lastIndexOf('/');
+            String fileName = relativePath.substring(slash + 1);
+
+            count(fileName, size);
+            directory(slash < 0 ? "" : relativePath.substring(0, slash)).count(fileName, size);
+        }
+
+        /**
+         * Stats for a directory, registering it (and its ancestors) on first use
+         */
+        public DirectoryStats directory(String relativeDir) {
+            DirectoryStats stats = directories.get(relativeDir);
+            if (stats == null) {
+                stats = new DirectoryStats();
+                directories.put(relativeDir, stats);
+                if (!relativeDir.isEmpty()) {
+                    int slash = relativeDir.lastIndexOf('/');
+                    directory(slash < 0 ? "" : relativeDir.substring(0, slash))
+                        .subdirectories.add(relativeDir.substring(slash + 1));
+                }
+            }
+            return stats;
+        }
+
+        /**
+         * Record the current modification time of every known directory under root
+         */
+        public void stampDirectories(Path root) throws IOException {
+            for (Map.Entry<String, DirectoryStats> entry : directories.entrySet()) {
+                Path dir = entry.getKey().isEmpty() ? root : root.resolve(entry.getKey());
+                entry.getValue().modifiedAt = Files.getLastModifiedTime(dir).toMillis();
+            }
+        }
     }
 }
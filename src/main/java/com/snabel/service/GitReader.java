@@ -0,0 +1,41 @@
+package com.snabel.service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+
+/**
+ * Read-only git queries made by {@link GitService}, answered in-process by {@link JGitReader} or
+ * by the git command line (git.backend). Operations that change a repository always use the
+ * command line.
+ */
+interface GitReader {
+
+    /**
+     * Name of the branch checked out in the directory, or "HEAD" if it is detached
+     */
+    String currentBranch(String sessionId, String directory) throws IOException;
+
+    /**
+     * Working tree status in the format of `git status --short`
+     */
+    String status(String sessionId, String directory) throws IOException;
+
+    /**
+     * Whether the directory's repository has a local branch of that name
+     */
+    boolean branchExists(String sessionId, String directory, String branchName) throws IOException;
+
+    /**
+     * Write the changes of a branch since it left the base branch to the stream, as
+     * `git diff base...branch` prints them. With paths, only files with one of the paths as old
+     * or new path are included; null includes every file.
+     */
+    void diff(String sessionId, String directory, String baseBranch, String branchName,
+              List<String> paths, OutputStream out) throws IOException;
+
+    /**
+     * Files changed by a branch since it left the base branch, as "status path" (e.g. "M src/App.tsx")
+     */
+    List<String> changedFiles(String sessionId, String directory, String baseBranch, String branchName) throws IOException;
+}
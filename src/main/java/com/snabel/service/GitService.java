@@ -6,23 +6,184 @@ import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.inject.Inject;
 
 import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
+/**
+ * Git operations for import sessions. With git.worktrees on, every session works in a git
+ * worktree of its own under the temp directory, on its own branch, so sessions run side by side
+ * and the frontend checkout (with the dev server watching it) never changes branches. Sessions
+ * without a worktree work in the frontend checkout itself.
+ *
+ * Read-only queries (branch, status, diff, changed files) go through a {@link GitReader}: JGit
+ * in-process by default (git.backend=jgit), falling back to the command line if JGit cannot
+ * answer. Everything that changes a repository runs the git command line.
+ */
 @ApplicationScoped
 public class GitService {
 
+    private static final String NODE_MODULES = "node_modules";
+    // Depth of the node_modules directories linked into worktrees: the root, apps/* and packages/*
+    private static final int DEPENDENCY_DEPTH = 3;
+
     @Inject
     AppConfig appConfig;
 
     @Inject
     LogWebSocket logWebSocket;
 
+    @Inject
+    JGitReader jgitReader;
+
+    private final GitReader cliReader = new CliGitReader();
+    // Held while a session branch is merged into the base branch
+    private final Object mergeLock = new Object();
+
+    /**
+     * Set up the branch and directory a session works in: its worktree, created on a new branch
+     * (or on the session's existing branch when it is restarted), or the frontend checkout
+     * switched to a new branch when git.worktrees is off
+     */
+    public Worktree prepareWorktree(String sessionId, String description, String branchName) throws IOException {
+        Path checkout = Paths.get(appConfig.getFrontendPath()).toAbsolutePath().normalize();
+        if (!appConfig.getGitWorktrees()) {
+            return new Worktree(createBranch(sessionId, description), checkout, checkout);
+        }
+
+        Path worktree = worktreePath(sessionId);
+        if (branchName != null && Files.isDirectory(worktree)) {
+            logInfo(sessionId, "Reusing worktree: " + worktree);
+            return new Worktree(branchName, worktree, checkout);
+        }
+
+        String frontendPath = checkout.toString();
+        // Forget worktrees whose directory was deleted, so their branches can be checked out again
+        executeGitCommand(sessionId, frontendPath, "git", "worktree", "prune");
+        Files.createDirectories(worktree.getParent());
+
+        if (branchName != null && branchExists(sessionId, branchName)) {
+            logInfo(sessionId, "Checking out branch " + branchName + " in a new worktree");
+            executeGitCommand(sessionId, frontendPath, "git", "worktree", "add", worktree.toString(), branchName);
+        } else {
+            String baseBranch = getBaseBranch(sessionId);
+            String startPoint = baseBranch;
+            try {
+                executeGitCommand(sessionId, frontendPath, "git", "fetch", "origin", baseBranch);
+                startPoint = "origin/" + baseBranch;
+            } catch (IOException e) {
+                logInfo(sessionId, "Warning: Could not fetch from origin (no remote configured)");
+            }
+
+            branchName = generateBranchName(description);
+            logInfo(sessionId, "Creating branch " + branchName + " in a new worktree");
+            executeGitCommand(sessionId, frontendPath, "git", "worktree", "add", "--no-track",
+                "-b", branchName, worktree.toString(), startPoint);
+        }
+
+        linkDependencies(sessionId, checkout, worktree);
+        logInfo(sessionId, "Worktree ready: " + worktree);
+        return new Worktree(branchName, worktree, checkout);
+    }
+
+    /**
+     * Dependencies are not tracked, so a new worktree has none: link the frontend checkout's
+     * node_modules directories into it instead of installing them again
+     */
+    private void linkDependencies(String sessionId, Path checkout, Path worktree) throws IOException {
+        List<Path> dependencies = new ArrayList<>();
+        Files.walkFileTree(checkout, EnumSet.noneOf(FileVisitOption.class), DEPENDENCY_DEPTH, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                String name = dir.getFileName() != null ? dir.getFileName().toString() : "";
+                if (name.equals(NODE_MODULES)) {
+                    dependencies.add(dir);
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                return name.equals(".git") ? FileVisitResult.SKIP_SUBTREE : FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                // Directories at the maximum depth are visited as files
+                if (attrs.isDirectory() && file.getFileName().toString().equals(NODE_MODULES)) {
+                    dependencies.add(file);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                return FileVisitResult.CONTINUE;
+            }
+        });
+
+        int linked = 0;
+        for (Path dependency : dependencies) {
+            Path link = worktree.resolve(checkout.relativize(dependency));
+            if (Files.isDirectory(link.getParent()) && !Files.exists(link, LinkOption.NOFOLLOW_LINKS)) {
+                Files.createSymbolicLink(link, dependency);
+                linked++;
+            }
+        }
+        if (linked > 0) {
+            excludeDependencyLinks(sessionId, checkout);
+            logInfo(sessionId, "Linked " + linked + " node_modules director" + (linked == 1 ? "y" : "ies") + " into the worktree");
+        }
+    }
+
     /**
-     * Create a new branch for the import session (only if currently on main)
+     * A .gitignore entry "node_modules/" only matches directories, not the links to them, so the
+     * links are excluded in the repository's info/exclude, which every worktree shares
+     */
+    private void excludeDependencyLinks(String sessionId, Path checkout) throws IOException {
+        String commonDir = executeGitCommand(sessionId, checkout.toString(), "git", "rev-parse", "--git-common-dir").trim();
+        Path exclude = checkout.resolve(commonDir).resolve("info").resolve("exclude");
+
+        String excluded = Files.exists(exclude) ? Files.readString(exclude, StandardCharsets.UTF_8) : "";
+        if (!excluded.lines().toList().contains(NODE_MODULES)) {
+            Files.createDirectories(exclude.getParent());
+            String separator = excluded.isEmpty() || excluded.endsWith("\n") ? "" : "\n";
+            Files.writeString(exclude, separator + NODE_MODULES + "\n", StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        }
+    }
+
+    /**
+     * Remove a session's worktree, if it has one. Its branch is kept.
+     */
+    public void removeWorktree(String sessionId) throws IOException {
+        Path worktree = worktreePath(sessionId);
+        if (!Files.isDirectory(worktree)) {
+            return;
+        }
+        jgitReader.evict(worktree.toString());
+        // Forced: the dependency links are untracked files
+        executeGitCommand(sessionId, appConfig.getFrontendPath(), "git", "worktree", "remove", "--force", worktree.toString());
+        logInfo(sessionId, "Worktree removed: " + worktree);
+    }
+
+    /**
+     * Directory a session's git operations, validation and diffs run in: its worktree, or the
+     * frontend checkout for sessions without one
+     */
+    public String getWorkingTree(String sessionId) {
+        Path worktree = worktreePath(sessionId);
+        return Files.isDirectory(worktree) ? worktree.toString() : appConfig.getFrontendPath();
+    }
+
+    private Path worktreePath(String sessionId) {
+        return Paths.get(appConfig.getTempDirectory(), "worktrees", sessionId).toAbsolutePath().normalize();
+    }
+
+    /**
+     * Create a new branch for the import session in the frontend checkout (only if currently on main)
      */
     public String createBranch(String sessionId, String description) throws IOException {
         String frontendPath = appConfig.getFrontendPath();
@@ -63,6 +224,10 @@ public class GitService {
      * Merge branch into main with conflict resolution
      */
     public void mergeBranch(String sessionId, String branchName, String commitMessage) throws IOException {
+        if (Files.isDirectory(worktreePath(sessionId))) {
+            mergeWorktree(sessionId, branchName, commitMessage);
+            return;
+        }
         String frontendPath = appConfig.getFrontendPath();
 
         logInfo(sessionId, "Starting merge of branch: " + branchName);
@@ -102,6 +267,124 @@ public class GitService {
         logInfo(sessionId, "Feature branch deleted: " + branchName);
     }
 
+    /**
+     * Merge a session's branch into the base branch without touching the frontend checkout's
+     * branch: the merge commit is made in the session's worktree, on a detached HEAD (the base
+     * branch is checked out in the frontend checkout, so it cannot be checked out here too), and
+     * the base branch is then fast-forwarded to it. The worktree and branch are removed afterwards.
+     */
+    private void mergeWorktree(String sessionId, String branchName, String commitMessage) throws IOException {
+        String frontendPath = appConfig.getFrontendPath();
+        String worktree = worktreePath(sessionId).toString();
+        String baseBranch = getBaseBranch(sessionId);
+
+        logInfo(sessionId, "Starting merge of branch: " + branchName);
+
+        // Commit any pending changes in the branch
+        try {
+            executeGitCommand(sessionId, worktree, "git", "add", ".");
+            executeGitCommand(sessionId, worktree, "git", "commit", "-m",
+                "Final changes before merge - Session: " + sessionId);
+        } catch (IOException e) {
+            logInfo(sessionId, "No changes to commit before merge");
+        }
+
+        // One merge into the base branch at a time, so no merge builds on a base another one is moving
+        boolean merged = false;
+        try {
+            synchronized (mergeLock) {
+                String mergeCommit = mergeIntoBase(sessionId, worktree, baseBranch, branchName, commitMessage);
+                logInfo(sessionId, baseBranch + " is now at " + mergeCommit);
+            }
+            merged = true;
+        } finally {
+            if (!merged) {
+                // Back on the branch, so later commits and a retried merge do not land on a detached HEAD
+                restoreBranch(sessionId, worktree, branchName);
+            }
+        }
+
+        removeWorktree(sessionId);
+
+        // Merged above; -d would check against whatever the frontend checkout has checked out
+        executeGitCommand(sessionId, frontendPath, "git", "branch", "-D", branchName);
+        logInfo(sessionId, "Feature branch deleted: " + branchName);
+    }
+
+    /**
+     * Make the merge commit in the worktree and move the base branch to it. Returns the merge
+     * commit. Fails, leaving the base branch alone, if the base branch moved in the meantime,
+     * e.g. by a commit in the frontend checkout.
+     */
+    private String mergeIntoBase(String sessionId, String worktree, String baseBranch, String branchName,
+                                 String commitMessage) throws IOException {
+        String frontendPath = appConfig.getFrontendPath();
+
+        // Start from the latest base branch
+        String baseCommit = executeGitCommand(sessionId, frontendPath, "git", "rev-parse", "refs/heads/" + baseBranch).trim();
+        executeGitCommand(sessionId, worktree, "git", "checkout", "--detach", baseCommit);
+        try {
+            executeGitCommand(sessionId, worktree, "git", "pull", "--ff-only", "origin", baseBranch);
+        } catch (IOException e) {
+            logInfo(sessionId, "Warning: Could not pull from origin (no remote configured)");
+        }
+
+        // Attempt merge
+        try {
+            executeGitCommand(sessionId, worktree, "git", "merge", branchName, "--no-ff", "-m", commitMessage);
+            logInfo(sessionId, "Branch merged successfully without conflicts");
+        } catch (IOException e) {
+            // Merge conflict - resolve automatically
+            logInfo(sessionId, "Merge conflicts detected, resolving automatically...");
+            resolveConflicts(sessionId, worktree);
+
+            // Complete merge
+            executeGitCommand(sessionId, worktree, "git", "add", ".");
+            executeGitCommand(sessionId, worktree, "git", "commit", "-m",
+                commitMessage + " (with auto-resolved conflicts)");
+
+            logInfo(sessionId, "Conflicts resolved and merge completed");
+        }
+
+        // The merge commit descends from the base branch, so moving the base branch is a fast-forward
+        String mergeCommit = executeGitCommand(sessionId, worktree, "git", "rev-parse", "HEAD").trim();
+        try {
+            if (baseBranch.equals(getCurrentBranch(sessionId))) {
+                // Also updates the checked out files; refuses unless it is a fast-forward
+                executeGitCommand(sessionId, frontendPath, "git", "merge", "--ff-only", mergeCommit);
+            } else {
+                // Only moves the branch if it is still at the commit the merge started from
+                executeGitCommand(sessionId, frontendPath, "git", "update-ref", "refs/heads/" + baseBranch, mergeCommit, baseCommit);
+            }
+        } catch (IOException e) {
+            throw new IOException(baseBranch + " moved while " + branchName + " was being merged, merge again: " + e.getMessage(), e);
+        }
+        return mergeCommit;
+    }
+
+    /**
+     * Abort a merge left in progress in the worktree and check the session's branch out again.
+     * Failures are only logged: the merge's own error is the one reported.
+     */
+    private void restoreBranch(String sessionId, String worktree, String branchName) {
+        try {
+            boolean merging;
+            try {
+                queryGitCommand(sessionId, worktree, "git", "rev-parse", "--verify", "--quiet", "MERGE_HEAD");
+                merging = true;
+            } catch (IOException e) {
+                merging = false;
+            }
+            if (merging) {
+                executeGitCommand(sessionId, worktree, "git", "merge", "--abort");
+            }
+            executeGitCommand(sessionId, worktree, "git", "checkout", branchName);
+            logInfo(sessionId, "Merge failed, worktree is back on " + branchName);
+        } catch (IOException e) {
+            logInfo(sessionId, "Warning: Could not check " + branchName + " out again after the failed merge: " + e.getMessage());
+        }
+    }
+
     /**
      * Resolve merge conflicts by preferring the latest version (theirs)
      */
@@ -132,45 +415,78 @@ public class GitService {
      * Get current git status
      */
     public String getStatus(String sessionId) throws IOException {
-        String frontendPath = appConfig.getFrontendPath();
-        return executeGitCommand(sessionId, frontendPath, "git", "status", "--short");
+        String directory = getWorkingTree(sessionId);
+        return read(sessionId, reader -> reader.status(sessionId, directory));
     }
 
     /**
-     * Get diff for the current branch
+     * Write the diff of the session's branch to the stream as it is produced, without holding
+     * all of it in memory
      */
-    public String getDiff(String sessionId, String branchName) throws IOException {
-        String frontendPath = appConfig.getFrontendPath();
-        return executeGitCommand(sessionId, frontendPath, "git", "diff", "main..." + branchName);
+    public void streamDiff(String sessionId, String branchName, OutputStream out) throws IOException {
+        String directory = getWorkingTree(sessionId);
+        String baseBranch = getBaseBranch(sessionId);
+        stream(sessionId, out, (reader, target) -> reader.diff(sessionId, directory, baseBranch, branchName, null, target));
+    }
+
+    /**
+     * A page of the files changed on the session's branch, in diff order
+     */
+    public DiffPage getDiffFiles(String sessionId, String branchName, int offset, int limit) throws IOException {
+        List<ChangedFile> files = getChangedFiles(sessionId, branchName).stream()
+            .map(ChangedFile::parse)
+            .toList();
+
+        DiffPage page = new DiffPage();
+        page.total = files.size();
+        page.offset = Math.max(0, offset);
+        page.limit = Math.max(1, limit);
+        page.files = files.subList(Math.min(page.offset, files.size()),
+            (int) Math.min((long) page.offset + page.limit, files.size()));
+        return page;
+    }
+
+    /**
+     * The diff of one file changed on the session's branch, split into hunks, with a page of its
+     * hunks. Returns null if the branch did not change the file.
+     */
+    public FileDiff getFileDiff(String sessionId, String branchName, String path, int offset, int limit) throws IOException {
+        String directory = getWorkingTree(sessionId);
+        String baseBranch = getBaseBranch(sessionId);
+        ChangedFile file = changedFiles(sessionId, directory, baseBranch, branchName).stream()
+            .map(ChangedFile::parse)
+            .filter(changed -> path.equals(changed.path) || path.equals(changed.oldPath))
+            .findFirst()
+            .orElse(null);
+        if (file == null) {
+            return null;
+        }
+
+        // Both paths of a rename, so it is diffed as a rename rather than an add or delete
+        List<String> paths = file.oldPath != null ? List.of(file.oldPath, file.path) : List.of(file.path);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        stream(sessionId, output, (reader, target) -> reader.diff(sessionId, directory, baseBranch, branchName, paths, target));
+
+        return FileDiff.parse(file, output.toString(StandardCharsets.UTF_8), Math.max(0, offset), Math.max(1, limit));
     }
 
     /**
      * Get list of changed files
      */
     public List<String> getChangedFiles(String sessionId, String branchName) throws IOException {
-        String frontendPath = appConfig.getFrontendPath();
-        String output = executeGitCommand(sessionId, frontendPath, "git", "diff", "--name-status", "main..." + branchName);
-
-        return Arrays.stream(output.split("\n"))
-            .filter(line -> !line.trim().isEmpty())
-            .map(line -> {
-                String[] parts = line.split("\\s+", 2);
-                if (parts.length == 2) {
-                    return parts[0] + " " + parts[1]; // Status + filename
-                }
-                return line;
-            })
-            .collect(Collectors.toList());
+        return changedFiles(sessionId, getWorkingTree(sessionId), getBaseBranch(sessionId), branchName);
+    }
+
+    private List<String> changedFiles(String sessionId, String directory, String baseBranch, String branchName) throws IOException {
+        return read(sessionId, reader -> reader.changedFiles(sessionId, directory, baseBranch, branchName));
     }
 
     /**
      * Rollback to a specific commit
      */
     public void rollback(String sessionId, String commitHash) throws IOException {
-        String frontendPath = appConfig.getFrontendPath();
-
         logInfo(sessionId, "Rolling back to commit: " + commitHash);
-        executeGitCommand(sessionId, frontendPath, "git", "reset", "--hard", commitHash);
+        executeGitCommand(sessionId, getWorkingTree(sessionId), "git", "reset", "--hard", commitHash);
         logInfo(sessionId, "Rollback completed");
     }
 
@@ -182,8 +498,13 @@ public class GitService {
 
         logInfo(sessionId, "Deleting branch: " + branchName);
 
-        // Switch to main first
-        executeGitCommand(sessionId, frontendPath, "git", "checkout", "main");
+        if (Files.isDirectory(worktreePath(sessionId))) {
+            // The branch is only checked out in the worktree
+            removeWorktree(sessionId);
+        } else {
+            // Switch to main first
+            executeGitCommand(sessionId, frontendPath, "git", "checkout", "main");
+        }
 
         // Force delete the branch
         executeGitCommand(sessionId, frontendPath, "git", "branch", "-D", branchName);
@@ -192,17 +513,161 @@ public class GitService {
     }
 
     /**
-     * Get current branch name
+     * Branch sessions start from and merge into: main, or master in repositories without a main
+     */
+    private String getBaseBranch(String sessionId) throws IOException {
+        return branchExists(sessionId, "main") ? "main" : "master";
+    }
+
+    private boolean branchExists(String sessionId, String branchName) throws IOException {
+        String frontendPath = appConfig.getFrontendPath();
+        return read(sessionId, reader -> reader.branchExists(sessionId, frontendPath, branchName));
+    }
+
+    /**
+     * Get current branch name of the frontend checkout
      */
     public String getCurrentBranch(String sessionId) throws IOException {
         String frontendPath = appConfig.getFrontendPath();
-        return executeGitCommand(sessionId, frontendPath, "git", "rev-parse", "--abbrev-ref", "HEAD").trim();
+        return read(sessionId, reader -> reader.currentBranch(sessionId, frontendPath));
+    }
+
+    /**
+     * Answer a read-only query with the configured backend, falling back to the command line if
+     * JGit fails, e.g. on a repository format extension it does not support
+     */
+    private <T> T read(String sessionId, GitQuery<T> query) throws IOException {
+        if (!"cli".equalsIgnoreCase(appConfig.getGitBackend())) {
+            try {
+                return query.apply(jgitReader);
+            } catch (IOException | RuntimeException e) {
+                System.err.println("JGit query failed for session " + sessionId + ", using git: " + e.getMessage());
+            }
+        }
+        return query.apply(cliReader);
+    }
+
+    /**
+     * Stream a read-only query's output with the configured backend. Falls back to the command
+     * line only if JGit fails before writing anything; output already sent cannot be taken back.
+     */
+    private void stream(String sessionId, OutputStream out, GitStream query) throws IOException {
+        TrackedOutputStream tracked = new TrackedOutputStream(out);
+        if (!"cli".equalsIgnoreCase(appConfig.getGitBackend())) {
+            try {
+                query.write(jgitReader, tracked);
+                return;
+            } catch (IOException | RuntimeException e) {
+                if (tracked.written) {
+                    throw e;
+                }
+                System.err.println("JGit query failed for session " + sessionId + ", using git: " + e.getMessage());
+            }
+        }
+        query.write(cliReader, tracked);
+    }
+
+    @FunctionalInterface
+    private interface GitQuery<T> {
+        T apply(GitReader reader) throws IOException;
+    }
+
+    @FunctionalInterface
+    private interface GitStream {
+        void write(GitReader reader, OutputStream out) throws IOException;
+    }
+
+    /**
+     * Remembers whether anything was written
+     */
+    private static class TrackedOutputStream extends FilterOutputStream {
+        boolean written = false;
+
+        TrackedOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            written = true;
+            out.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            written = true;
+            out.write(b, off, len);
+        }
+    }
+
+    /**
+     * Read-only queries through the git command line
+     */
+    private class CliGitReader implements GitReader {
+
+        @Override
+        public String currentBranch(String sessionId, String directory) throws IOException {
+            return queryGitCommand(sessionId, directory, "git", "rev-parse", "--abbrev-ref", "HEAD").trim();
+        }
+
+        @Override
+        public String status(String sessionId, String directory) throws IOException {
+            return queryGitCommand(sessionId, directory, "git", "status", "--short");
+        }
+
+        @Override
+        public void diff(String sessionId, String directory, String baseBranch, String branchName,
+                         List<String> paths, OutputStream out) throws IOException {
+            List<String> command = new ArrayList<>(List.of("git", "diff", baseBranch + "..." + branchName));
+            if (paths != null) {
+                command.add("--");
+                command.addAll(paths);
+            }
+            streamGitCommand(sessionId, directory, out, command.toArray(String[]::new));
+        }
+
+        @Override
+        public boolean branchExists(String sessionId, String directory, String branchName) {
+            try {
+                queryGitCommand(sessionId, directory, "git", "rev-parse", "--verify", "--quiet", "refs/heads/" + branchName);
+                return true;
+            } catch (IOException e) {
+                return false;
+            }
+        }
+
+        @Override
+        public List<String> changedFiles(String sessionId, String directory, String baseBranch, String branchName) throws IOException {
+            String output = queryGitCommand(sessionId, directory, "git", "diff", "--name-status", baseBranch + "..." + branchName);
+
+            return Arrays.stream(output.split("\n"))
+                .filter(line -> !line.trim().isEmpty())
+                .map(line -> {
+                    String[] parts = line.split("\\s+", 2);
+                    if (parts.length == 2) {
+                        return parts[0] + " " + parts[1]; // Status + filename
+                    }
+                    return line;
+                })
+                .collect(Collectors.toList());
+        }
     }
 
     /**
      * Execute a git command and return output
      */
     private String executeGitCommand(String sessionId, String workingDir, String... command) throws IOException {
+        return runGitCommand(sessionId, workingDir, true, command);
+    }
+
+    /**
+     * Execute a read-only git command and return output, without echoing the output to the log
+     */
+    private String queryGitCommand(String sessionId, String workingDir, String... command) throws IOException {
+        return runGitCommand(sessionId, workingDir, false, command);
+    }
+
+    private String runGitCommand(String sessionId, String workingDir, boolean echo, String... command) throws IOException {
         ProcessBuilder pb = new ProcessBuilder(command);
         pb.directory(new File(workingDir));
         pb.redirectErrorStream(true);
@@ -216,7 +681,9 @@ public class GitService {
             String line;
             while ((line = reader.readLine()) != null) {
                 output.append(line).append("\n");
-                logInfo(sessionId, "  " + line);
+                if (echo) {
+                    logInfo(sessionId, "  " + line);
+                }
             }
         }
 
@@ -233,6 +700,41 @@ public class GitService {
         return output.toString();
     }
 
+    /**
+     * Execute a read-only git command, copying its output to the stream as it is produced. Error
+     * output goes to a file, so it neither mixes into the output nor blocks the command.
+     */
+    private void streamGitCommand(String sessionId, String workingDir, OutputStream out, String... command) throws IOException {
+        Path errors = Files.createTempFile("git-", ".err");
+        ProcessBuilder pb = new ProcessBuilder(command);
+        pb.directory(new File(workingDir));
+        pb.redirectError(errors.toFile());
+
+        logInfo(sessionId, "Executing: " + String.join(" ", command));
+
+        Process process = pb.start();
+        try {
+            process.getOutputStream().close();
+            try (InputStream input = process.getInputStream()) {
+                input.transferTo(out);
+            }
+            out.flush();
+
+            int exitCode = process.waitFor();
+            if (exitCode != 0) {
+                throw new IOException("Git command failed with exit code " + exitCode + ": "
+                    + Files.readString(errors, StandardCharsets.UTF_8));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Git command interrupted", e);
+        } finally {
+            // The reader of the stream may have gone away part way through
+            process.destroyForcibly();
+            Files.deleteIfExists(errors);
+        }
+    }
+
     /**
      * Generate a branch name from description
      */
@@ -254,4 +756,136 @@ public class GitService {
     private void logInfo(String sessionId, String message) {
         logWebSocket.sendLog(sessionId, "GIT", message);
     }
+
+    /**
+     * A session's branch and the directory it is checked out in
+     */
+    public static class Worktree {
+        public final String branchName;
+        public final Path directory;
+        private final Path checkout;
+
+        Worktree(String branchName, Path directory, Path checkout) {
+            this.branchName = branchName;
+            this.directory = directory;
+            this.checkout = checkout;
+        }
+
+        /**
+         * The path in this worktree that corresponds to a path in the frontend checkout
+         */
+        public String resolve(String checkoutPath) {
+            Path path = Paths.get(checkoutPath).toAbsolutePath().normalize();
+            return path.startsWith(checkout) ? directory.resolve(checkout.relativize(path)).toString() : directory.toString();
+        }
+    }
+
+    /**
+     * A file changed on a branch, from a "status path" line of {@link #getChangedFiles}
+     */
+    public static class ChangedFile {
+        // A, M, D, or R/C followed by the similarity score
+        public String status;
+        public String path;
+        // Path before a rename or copy
+        public String oldPath;
+
+        static ChangedFile parse(String line) {
+            ChangedFile file = new ChangedFile();
+            String[] parts = line.split(" ", 2);
+            file.status = parts[0];
+            String paths = parts.length > 1 ? parts[1] : "";
+            int tab = paths.indexOf('\t');
+            if (tab >= 0) {
+                file.oldPath = paths.substring(0, tab);
+                file.path = paths.substring(tab + 1);
+            } else {
+                file.path = paths;
+            }
+            return file;
+        }
+    }
+
+    public static class DiffPage {
+        // Number of files changed on the branch
+        public int total;
+        public int offset;
+        public int limit;
+        public List<ChangedFile> files;
+    }
+
+    /**
+     * The diff of one file: the lines before its first hunk (diff --git, index, ---/+++) and a page
+     * of its hunks. Binary files have no hunks.
+     */
+    public static class FileDiff {
+        public String status;
+        public String path;
+        public String oldPath;
+        public boolean binary;
+        public int additions;
+        public int deletions;
+        public List<String> header = new ArrayList<>();
+        public int totalHunks;
+        public int offset;
+        public int limit;
+        public List<Hunk> hunks;
+
+        static FileDiff parse(ChangedFile file, String diff, int offset, int limit) {
+            FileDiff fileDiff = new FileDiff();
+            fileDiff.status = file.status;
+            fileDiff.path = file.path;
+            fileDiff.oldPath = file.oldPath;
+            fileDiff.offset = offset;
+            fileDiff.limit = limit;
+
+            List<Hunk> hunks = new ArrayList<>();
+            Hunk hunk = null;
+            for (String line : diff.split("\n")) {
+                Matcher range = Hunk.RANGE.matcher(line);
+                if (range.find()) {
+                    hunk = new Hunk(line, range);
+                    hunks.add(hunk);
+                } else if (hunk != null) {
+                    hunk.lines.add(line);
+                    if (line.startsWith("+")) {
+                        fileDiff.additions++;
+                    } else if (line.startsWith("-")) {
+                        fileDiff.deletions++;
+                    }
+                } else if (!line.isEmpty()) {
+                    fileDiff.header.add(line);
+                    if (line.startsWith("Binary files ") || line.equals("GIT binary patch")) {
+                        fileDiff.binary = true;
+                    }
+                }
+            }
+
+            fileDiff.totalHunks = hunks.size();
+            fileDiff.hunks = hunks.subList(Math.min(offset, hunks.size()),
+                (int) Math.min((long) offset + limit, hunks.size()));
+            return fileDiff;
+        }
+    }
+
+    public static class Hunk {
+        static final Pattern RANGE = Pattern.compile("^@@ -(\\d+)(?:,(\\d+))? \\+(\\d+)(?:,(\\d+))? @@");
+
+        // The @@ line
+        public String header;
+        public int oldStart;
+        public int oldLines;
+        public int newStart;
+        public int newLines;
+        // Context (" "), removed ("-") and added ("+") lines, as in the diff
+        public final List<String> lines = new ArrayList<>();
+
+        Hunk(String header, Matcher range) {
+            this.header = header;
+            this.oldStart = Integer.parseInt(range.group(1));
+            this.oldLines = range.group(2) != null ? Integer.parseInt(range.group(2)) : 1;
+            this.newStart = Integer.parseInt(range.group(3));
+            this.newLines = range.group(4) != null ? Integer.parseInt(range.group(4)) : 1;
+        }
+    }
 }
@@ -0,0 +1,202 @@
+package com.snabel.service;
+
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.Status;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.diff.DiffEntry;
+import org.eclipse.jgit.diff.DiffFormatter;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.revwalk.filter.RevFilter;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+import org.eclipse.jgit.treewalk.AbstractTreeIterator;
+import org.eclipse.jgit.treewalk.CanonicalTreeParser;
+import org.eclipse.jgit.util.io.NullOutputStream;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Answers read-only git queries in-process with JGit, without starting a git process. Repository
+ * handles are opened once per directory and kept; JGit re-reads refs and the index when they
+ * change on disk, so changes made by the git command line are seen. Linked worktrees are
+ * supported: refs and objects come from the main repository, HEAD and the index from the worktree.
+ */
+@ApplicationScoped
+public class JGitReader implements GitReader {
+
+    private final Map<String, Repository> repositories = new ConcurrentHashMap<>();
+
+    @PreDestroy
+    void shutdown() {
+        repositories.values().forEach(Repository::close);
+        repositories.clear();
+    }
+
+    @Override
+    public String currentBranch(String sessionId, String directory) throws IOException {
+        Repository repository = open(directory);
+        String fullBranch = repository.getFullBranch();
+        if (fullBranch == null || !fullBranch.startsWith(Constants.R_HEADS)) {
+            return Constants.HEAD;
+        }
+        return Repository.shortenRefName(fullBranch);
+    }
+
+    @Override
+    public boolean branchExists(String sessionId, String directory, String branchName) throws IOException {
+        return open(directory).exactRef(Constants.R_HEADS + branchName) != null;
+    }
+
+    @Override
+    public String status(String sessionId, String directory) throws IOException {
+        Status status;
+        try {
+            status = Git.wrap(open(directory)).status().call();
+        } catch (GitAPIException e) {
+            throw new IOException("Git status failed: " + e.getMessage(), e);
+        }
+
+        // Index (X) and working tree (Y) columns, sorted by path like git does
+        Map<String, char[]> codes = new TreeMap<>();
+        status.getAdded().forEach(path -> code(codes, path)[0] = 'A');
+        status.getChanged().forEach(path -> code(codes, path)[0] = 'M');
+        status.getRemoved().forEach(path -> code(codes, path)[0] = 'D');
+        status.getModified().forEach(path -> code(codes, path)[1] = 'M');
+        status.getMissing().forEach(path -> code(codes, path)[1] = 'D');
+        status.getConflicting().forEach(path -> codes.put(path, new char[] {'U', 'U'}));
+        status.getUntracked().forEach(path -> codes.put(path, new char[] {'?', '?'}));
+
+        StringBuilder output = new StringBuilder();
+        codes.forEach((path, code) -> output.append(code[0]).append(code[1]).append(' ').append(path).append('\n'));
+        return output.toString();
+    }
+
+    @Override
+    public void diff(String sessionId, String directory, String baseBranch, String branchName,
+                     List<String> paths, OutputStream out) throws IOException {
+        Repository repository = open(directory);
+        // The formatter writes a line at a time; buffer so each write is not a chunk of the response
+        BufferedOutputStream buffered = new BufferedOutputStream(out, 64 * 1024);
+        try (DiffFormatter formatter = new DiffFormatter(buffered)) {
+            formatter.setRepository(repository);
+            formatter.setDetectRenames(true);
+            List<DiffEntry> entries = branchChanges(repository, formatter, baseBranch, branchName);
+            if (paths != null) {
+                // Filter after the scan rather than with a path filter, which would stop renames being detected
+                entries = entries.stream()
+                    .filter(entry -> paths.contains(entry.getOldPath()) || paths.contains(entry.getNewPath()))
+                    .toList();
+            }
+            // One file at a time, so the output streams out as it is produced
+            for (DiffEntry entry : entries) {
+                formatter.format(entry);
+            }
+            formatter.flush();
+        }
+    }
+
+    @Override
+    public List<String> changedFiles(String sessionId, String directory, String baseBranch, String branchName) throws IOException {
+        Repository repository = open(directory);
+        List<String> files = new ArrayList<>();
+        try (DiffFormatter formatter = new DiffFormatter(NullOutputStream.INSTANCE)) {
+            formatter.setRepository(repository);
+            formatter.setDetectRenames(true);
+            for (DiffEntry entry : branchChanges(repository, formatter, baseBranch, branchName)) {
+                files.add(switch (entry.getChangeType()) {
+                    case ADD -> "A " + entry.getNewPath();
+                    case MODIFY -> "M " + entry.getNewPath();
+                    case DELETE -> "D " + entry.getOldPath();
+                    case RENAME -> "R" + entry.getScore() + " " + entry.getOldPath() + "\t" + entry.getNewPath();
+                    case COPY -> "C" + entry.getScore() + " " + entry.getOldPath() + "\t" + entry.getNewPath();
+                });
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Forget the handle for a directory that is going away, e.g. a removed worktree
+     */
+    public void evict(String directory) {
+        Repository repository = repositories.remove(key(directory));
+        if (repository != null) {
+            repository.close();
+        }
+    }
+
+    /**
+     * Changes between the merge base of the two branches and the branch: `git diff base...branch`
+     */
+    private List<DiffEntry> branchChanges(Repository repository, DiffFormatter formatter,
+                                          String baseBranch, String branchName) throws IOException {
+        try (RevWalk walk = new RevWalk(repository)) {
+            RevCommit base = walk.parseCommit(resolve(repository, baseBranch));
+            RevCommit branch = walk.parseCommit(resolve(repository, branchName));
+
+            walk.setRevFilter(RevFilter.MERGE_BASE);
+            walk.markStart(base);
+            walk.markStart(branch);
+            RevCommit mergeBase = walk.next();
+            if (mergeBase == null) {
+                throw new IOException("No common ancestor of " + baseBranch + " and " + branchName);
+            }
+
+            return formatter.scan(tree(repository, mergeBase), tree(repository, branch));
+        }
+    }
+
+    private static ObjectId resolve(Repository repository, String revision) throws IOException {
+        ObjectId id = repository.resolve(revision + "^{commit}");
+        if (id == null) {
+            throw new IOException("Unknown revision: " + revision);
+        }
+        return id;
+    }
+
+    private static AbstractTreeIterator tree(Repository repository, RevCommit commit) throws IOException {
+        CanonicalTreeParser parser = new CanonicalTreeParser();
+        try (var reader = repository.newObjectReader()) {
+            parser.reset(reader, commit.getTree());
+        }
+        return parser;
+    }
+
+    private static char[] code(Map<String, char[]> codes, String path) {
+        return codes.computeIfAbsent(path, p -> new char[] {' ', ' '});
+    }
+
+    private Repository open(String directory) throws IOException {
+        String key = key(directory);
+        Repository repository = repositories.get(key);
+        if (repository != null) {
+            return repository;
+        }
+        try {
+            return repositories.computeIfAbsent(key, k -> {
+                try {
+                    return new FileRepositoryBuilder().findGitDir(new File(k)).setMustExist(true).build();
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            throw new IOException("Not a git repository: " + directory, e);
+        }
+    }
+
+    private static String key(String directory) {
+        return Paths.get(directory).toAbsolutePath().normalize().toString();
+    }
+}
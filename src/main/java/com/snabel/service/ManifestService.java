@@ -0,0 +1,355 @@
+package com.snabel.service;
+
+import com.snabel.config.AppConfig;
+import com.snabel.websocket.LogWebSocket;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Builds a compact code map of an unpacked upload (file tree, exports per module, import graph,
+ * routes and API calls) so Claude does not have to spend turns exploring the tree itself.
+ * Maps are cached per unpacked tree, in memory and next to the tree in the upload store. They can
+ * also be built from the archive mounted as a zip file system, before the tree is extracted.
+ */
+@ApplicationScoped
+public class ManifestService {
+
+    private static final Set<String> SOURCE_EXTENSIONS = Set.of("ts", "tsx", "js", "jsx");
+    private static final List<String> RESOLVE_SUFFIXES = List.of(
+        "", ".ts", ".tsx", ".js", ".jsx", "/index.ts", "/index.tsx", "/index.js", "/index.jsx");
+
+    // Skip minified bundles and generated files that would only add noise
+    private static final long MAX_SOURCE_BYTES = 512 * 1024;
+
+    private static final Pattern EXPORT_DECLARATION = Pattern.compile(
+        "export\\s+(?:default\\s+)?(?:declare\\s+)?(?:abstract\\s+)?(?:async\\s+)?" +
+        "(?:function\\*?|class|const|let|var|interface|type|enum)\\s+([A-Za-z_$][\\w$]*)");
+    private static final Pattern EXPORT_DEFAULT = Pattern.compile("export\\s+default\\s+([A-Za-z_$][\\w$]*)\\s*;");
+    private static final Pattern EXPORT_LIST = Pattern.compile("export\\s*\\{([^}]*)\\}");
+    private static final Pattern IMPORT = Pattern.compile(
+        "(?:import|export)\\s+(?:type\\s+)?(?:[^'\";]*?\\s+from\\s+)?['\"]([^'\"]+)['\"]");
+    private static final Pattern ROUTE = Pattern.compile(
+        "<Route\\b[^>]*?\\bpath\\s*=\\s*[{]?['\"`]([^'\"`]+)['\"`]|\\bpath\\s*:\\s*['\"`](/[^'\"`]*)['\"`]");
+    private static final Pattern API_CALL = Pattern.compile(
+        "(?:fetch|axios(?:\\.(get|post|put|patch|delete))?|\\.(get|post|put|patch|delete))\\s*(?:<[^>()]*>)?\\(\\s*['\"`]([^'\"`]+)['\"`]");
+
+    @Inject
+    AppConfig appConfig;
+
+    @Inject
+    LogWebSocket logWebSocket;
+
+    @Inject
+    UploadStore uploadStore;
+
+    private final Map<String, String> cache = new ConcurrentHashMap<>();
+    private ForkJoinPool manifestPool;
+
+    @PostConstruct
+    void init() {
+        manifestPool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+    }
+
+    @PreDestroy
+    void shutdown() {
+        manifestPool.shutdownNow();
+    }
+
+    /**
+     * Get the code map for an unpacked upload, building and caching it on first use.
+     * Returns null if the map could not be built.
+     */
+    public String getManifest(String sessionId, Path unpackedDir) {
+        return getManifest(sessionId, unpackedDir, unpackedDir, null);
+    }
+
+    /**
+     * Get the code map for an unpacked tree, reading the files from sourceRoot instead. This lets
+     * the map be built from a zip file system before the tree is extracted; the filter (if any)
+     * drops the entries extraction would skip.
+     */
+    public String getManifest(String sessionId, Path sourceRoot, Path tree, ExtractionFilter filter) {
+        int budget = appConfig.getManifestMaxChars();
+        String key = tree.getFileName() + "-" + budget;
+
+        String cached = cache.get(key);
+        if (cached != null) {
+            return cached;
+        }
+
+        Path cacheFile = uploadStore.manifestPath(tree, budget);
+        try {
+            if (Files.exists(cacheFile)) {
+                String manifest = Files.readString(cacheFile);
+                cache.put(key, manifest);
+                return manifest;
+            }
+
+            long start = System.nanoTime();
+            String manifest = render(tree, scan(sourceRoot, filter), budget);
+            logInfo(sessionId, String.format("Code map built: %d chars in %d ms",
+                manifest.length(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+
+            Files.createDirectories(cacheFile.getParent());
+            Files.writeString(cacheFile, manifest);
+            cache.put(key, manifest);
+            return manifest;
+        } catch (IOException e) {
+            logInfo(sessionId, "Could not build code map: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * URLs of the backend API calls listed in the code map of an unpacked upload
+     */
+    public List<String> getApiCalls(String sessionId, Path unpackedDir) {
+        String manifest = getManifest(sessionId, unpackedDir);
+        if (manifest == null) {
+            return List.of();
+        }
+
+        List<String> urls = new ArrayList<>();
+        boolean inSection = false;
+        for (String line : manifest.split("\n")) {
+            if (line.equals("API CALLS:")) {
+                inSection = true;
+            } else if (inSection && line.startsWith("- ")) {
+                // "- VERB url  (file)"
+                String[] parts = line.substring(2).split("\\s+");
+                if (parts.length > 1) {
+                    urls.add(parts[1]);
+                }
+            } else if (inSection) {
+                break;
+            }
+        }
+        return urls;
+    }
+
+    /**
+     * Drop cached maps whose archive is no longer in the upload store
+     */
+    public void evictStale() {
+        cache.keySet().removeIf(key -> !Files.exists(uploadStore.archivePath(key.substring(0, key.indexOf('-')))));
+    }
+
+    private List<ModuleInfo> scan(Path root, ExtractionFilter filter) throws IOException {
+        List<Path> files = new ArrayList<>();
+        Files.walkFileTree(root, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                if (filter != null && !dir.equals(root) && !filter.accepts(relativePath(root, dir) + "/")) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (attrs.isRegularFile() && (filter == null || filter.accepts(relativePath(root, file)))) {
+                    files.add(file);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        files.sort(Comparator.comparing(file -> relativePath(root, file)));
+        Set<String> allFiles = files.stream()
+            .map(file -> relativePath(root, file))
+            .collect(Collectors.toCollection(LinkedHashSet::new));
+
+        try {
+            return manifestPool.submit(() -> files.parallelStream()
+                .map(file -> parse(root, file, allFiles))
+                .toList()).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Code map interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Code map failed: " + e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    private ModuleInfo parse(Path root, Path file, Set<String> allFiles) {
+        ModuleInfo module = new ModuleInfo();
+        module.path = relativePath(root, file);
+
+        String name = file.getFileName().toString();
+        String extension = name.substring(name.lastIndexOf('.') + 1).toLowerCase();
+        module.source = SOURCE_EXTENSIONS.contains(extension) && !name.endsWith(".d.ts");
+        if (!module.source) {
+            return module;
+        }
+
+        String content;
+        try {
+            if (Files.size(file) > MAX_SOURCE_BYTES) {
+                return module;
+            }
+            content = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            return module;
+        }
+
+        Matcher matcher = EXPORT_DECLARATION.matcher(content);
+        while (matcher.find()) {
+            module.exports.add(matcher.group(1));
+        }
+        matcher = EXPORT_DEFAULT.matcher(content);
+        while (matcher.find()) {
+            module.exports.add(matcher.group(1));
+        }
+        matcher = EXPORT_LIST.matcher(content);
+        while (matcher.find()) {
+            for (String exported : matcher.group(1).split(",")) {
+                String[] parts = exported.trim().split("\\s+as\\s+");
+                String symbol = parts[parts.length - 1].trim();
+                if (!symbol.isEmpty()) {
+                    module.exports.add(symbol);
+                }
+            }
+        }
+
+        matcher = IMPORT.matcher(content);
+        while (matcher.find()) {
+            String specifier = matcher.group(1);
+            if (specifier.startsWith(".")) {
+                String resolved = resolveImport(module.path, specifier, allFiles);
+                module.imports.add(resolved != null ? resolved : specifier);
+            } else {
+                module.packages.add(packageName(specifier));
+            }
+        }
+
+        matcher = ROUTE.matcher(content);
+        while (matcher.find()) {
+            module.routes.add(matcher.group(1) != null ? matcher.group(1) : matcher.group(2));
+        }
+
+        matcher = API_CALL.matcher(content);
+        while (matcher.find()) {
+            String url = matcher.group(3);
+            if (url.contains("/api/") || url.startsWith("http")) {
+                String verb = matcher.group(1) != null ? matcher.group(1) : matcher.group(2);
+                module.apiCalls.add((verb != null ? verb.toUpperCase() : "FETCH") + " " + url);
+            }
+        }
+
+        return module;
+    }
+
+    private String render(Path root, List<ModuleInfo> modules, int budget) {
+        StringBuilder out = new StringBuilder();
+        out.append("=== UPLOADED CODE MAP ===\n");
+        out.append("Location: ").append(root).append("\n\n");
+
+        List<ModuleInfo> sources = modules.stream().filter(m -> m.source).toList();
+
+        List<String> routes = sources.stream()
+            .flatMap(m -> m.routes.stream().map(route -> route + "  (" + m.path + ")"))
+            .toList();
+        appendSection(out, "ROUTES", routes, budget);
+
+        List<String> apiCalls = sources.stream()
+            .flatMap(m -> m.apiCalls.stream().map(call -> call + "  (" + m.path + ")"))
+            .toList();
+        appendSection(out, "API CALLS", apiCalls, budget);
+
+        List<String> moduleLines = sources.stream()
+            .map(m -> {
+                StringBuilder line = new StringBuilder(m.path);
+                if (!m.exports.isEmpty()) {
+                    line.append(": ").append(String.join(", ", m.exports));
+                }
+                if (!m.imports.isEmpty()) {
+                    line.append("  <- ").append(String.join(", ", m.imports));
+                }
+                return line.toString();
+            })
+            .toList();
+        appendSection(out, "MODULES (exports <- local imports)", moduleLines, budget);
+
+        List<String> packages = sources.stream()
+            .flatMap(m -> m.packages.stream())
+            .distinct()
+            .sorted()
+            .toList();
+        if (!packages.isEmpty()) {
+            appendSection(out, "PACKAGES", List.of(String.join(", ", packages)), budget);
+        }
+
+        List<String> otherFiles = modules.stream().filter(m -> !m.source).map(m -> m.path).toList();
+        appendSection(out, "OTHER FILES", otherFiles, budget);
+
+        out.append("=== END OF CODE MAP ===\n");
+        return out.toString();
+    }
+
+    /**
+     * Append a section line by line until the size budget is used up
+     */
+    private void appendSection(StringBuilder out, String title, List<String> lines, int budget) {
+        if (lines.isEmpty() || out.length() + title.length() + 2 > budget) {
+            return;
+        }
+
+        out.append(title).append(":\n");
+        for (int i = 0; i < lines.size(); i++) {
+            String line = lines.get(i);
+            if (out.length() + line.length() + 3 > budget) {
+                out.append("- ... (").append(lines.size() - i).append(" more)\n");
+                break;
+            }
+            out.append("- ").append(line).append("\n");
+        }
+        out.append("\n");
+    }
+
+    private String resolveImport(String fromPath, String specifier, Set<String> allFiles) {
+        int slash = fromPath.lastIndexOf('/');
+        Path base = Path.of(slash < 0 ? "" : fromPath.substring(0, slash));
+        String target = base.resolve(specifier).normalize().toString().replace(File.separatorChar, '/');
+
+        for (String suffix : RESOLVE_SUFFIXES) {
+            if (allFiles.contains(target + suffix)) {
+                return target + suffix;
+            }
+        }
+        return null;
+    }
+
+    private String packageName(String specifier) {
+        String[] parts = specifier.split("/");
+        return specifier.startsWith("@") && parts.length > 1 ? parts[0] + "/" + parts[1] : parts[0];
+    }
+
+    private static String relativePath(Path root, Path path) {
+        return root.relativize(path).toString().replace(root.getFileSystem().getSeparator(), "/");
+    }
+
+    private void logInfo(String sessionId, String message) {
+        logWebSocket.sendLog(sessionId, "FILE", message);
+    }
+
+    private static class ModuleInfo {
+        String path;
+        boolean source;
+        final Set<String> exports = new LinkedHashSet<>();
+        final Set<String> imports = new LinkedHashSet<>();
+        final Set<String> packages = new TreeSet<>();
+        final Set<String> routes = new LinkedHashSet<>();
+        final Set<String> apiCalls = new LinkedHashSet<>();
+    }
+}
@@ -0,0 +1,70 @@
+package com.snabel.service;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * A process and everything it started. The descendants are listed up front, because once a
+ * process exits its children are re-parented and can no longer be found from it.
+ */
+final class ProcessTree {
+
+    private final List<ProcessHandle> processes = new ArrayList<>();
+
+    private ProcessTree(ProcessHandle root) {
+        processes.add(root);
+        root.descendants().forEach(processes::add);
+    }
+
+    static ProcessTree of(ProcessHandle root) {
+        return new ProcessTree(root);
+    }
+
+    /**
+     * Ask every process still alive to terminate, wait up to the grace period, then kill whatever
+     * is left. Returns how many processes were still alive and how many had to be killed.
+     */
+    Reclaimed terminate(Duration grace) {
+        Reclaimed reclaimed = new Reclaimed();
+        List<CompletableFuture<ProcessHandle>> exits = new ArrayList<>();
+        for (ProcessHandle process : processes) {
+            if (process.isAlive()) {
+                reclaimed.terminated++;
+                process.destroy();
+                exits.add(process.onExit());
+            }
+        }
+        if (exits.isEmpty()) {
+            return reclaimed;
+        }
+
+        try {
+            CompletableFuture.allOf(exits.toArray(CompletableFuture[]::new))
+                .get(grace.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | TimeoutException e) {
+            // Killed below
+        }
+
+        for (ProcessHandle process : processes) {
+            if (process.isAlive()) {
+                reclaimed.killed++;
+                process.destroyForcibly();
+            }
+        }
+        return reclaimed;
+    }
+
+    static class Reclaimed {
+        // Processes still alive when termination started
+        int terminated = 0;
+        // Processes that ignored the grace period and were killed
+        int killed = 0;
+    }
+}
@@ -0,0 +1,149 @@
+package com.snabel.service;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * FIFO queue of the commands sent to one session. Commands run one at a time, since every
+ * command is a `claude --continue` in the same working directory; whoever enqueues into an idle
+ * queue starts the drain loop (see {@link ClaudeCodeService#sendCommandToProcess}), which takes
+ * one command per slot from the {@link AdmissionController}.
+ */
+public class SessionCommandQueue {
+
+    private final Deque<QueuedCommand> pending = new ArrayDeque<>();
+    private QueuedCommand inFlight;
+    private boolean draining = false;
+    private long completed = 0;
+
+    /**
+     * Add a command and return its position: 0 if the queue was idle, in which case the caller
+     * must start the drain loop, otherwise the number of commands ahead of it including the one
+     * in flight
+     */
+    synchronized int add(long id, String command, boolean instructions, long queuedAt) {
+        pending.addLast(new QueuedCommand(id, command, instructions, queuedAt));
+        if (!draining) {
+            draining = true;
+            return 0;
+        }
+        return (inFlight != null ? 1 : 0) + pending.size() - 1;
+    }
+
+    /**
+     * Release the drain loop when it could not be started, dropping everything queued in the
+     * meantime. Returns the number of commands dropped.
+     */
+    synchronized int abort() {
+        int dropped = pending.size();
+        pending.clear();
+        draining = false;
+        return dropped;
+    }
+
+    /**
+     * Take the next command, or every pending command if coalescing. A session's instructions
+     * are never coalesced: they run alone and end a batch. Returns null, and releases the drain
+     * loop, if the queue was cleared in the meantime.
+     */
+    synchronized List<QueuedCommand> next(boolean coalesce) {
+        if (pending.isEmpty()) {
+            draining = false;
+            return null;
+        }
+
+        List<QueuedCommand> batch = new ArrayList<>();
+        batch.add(pending.pollFirst());
+        while (coalesce && !batch.get(0).instructions && !pending.isEmpty() && !pending.peekFirst().instructions) {
+            batch.add(pending.pollFirst());
+        }
+        inFlight = batch.get(0);
+        inFlight.startedAt = System.currentTimeMillis();
+        return batch;
+    }
+
+    /**
+     * Mark the command in flight as done. Returns true if more commands are pending, otherwise
+     * releases the drain loop.
+     */
+    synchronized boolean finish() {
+        if (inFlight != null) {
+            completed++;
+            inFlight = null;
+        }
+        if (pending.isEmpty()) {
+            draining = false;
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Drop every pending command and return how many there were. The command in flight is not affected.
+     */
+    synchronized int clear() {
+        int dropped = pending.size();
+        pending.clear();
+        return dropped;
+    }
+
+    synchronized boolean isBusy() {
+        return draining;
+    }
+
+    synchronized Status status() {
+        Status status = new Status();
+        status.inFlight = inFlight != null;
+        status.inFlightSince = inFlight != null ? inFlight.startedAt : null;
+        status.pending = pending.size();
+        status.completed = completed;
+        int position = 1;
+        for (QueuedCommand queued : pending) {
+            status.commands.add(new PendingCommand(position++, queued.command, queued.queuedAt));
+        }
+        return status;
+    }
+
+    static class QueuedCommand {
+        // Id of the command's CommandQueueEntry
+        final long id;
+        final String command;
+        final boolean instructions;
+        final long queuedAt;
+        Long startedAt;
+
+        QueuedCommand(long id, String command, boolean instructions, long queuedAt) {
+            this.id = id;
+            this.command = command;
+            this.instructions = instructions;
+            this.queuedAt = queuedAt;
+        }
+    }
+
+    /**
+     * Queue state as reported by GET /api/import/session/{sessionId}
+     */
+    public static class Status {
+        public boolean inFlight;
+        public Long inFlightSince;
+        public int pending;
+        public long completed;
+        // Position among the sessions waiting for a free Claude slot, null if not waiting
+        public Integer waitingForSlot;
+        public final List<PendingCommand> commands = new ArrayList<>();
+    }
+
+    public static class PendingCommand {
+        public final int position;
+        public final String command;
+        public final long queuedAt;
+
+        PendingCommand(int position, String command, long queuedAt) {
+            this.position = position;
+            this.command = command;
+            this.queuedAt = queuedAt;
+        }
+    }
+}
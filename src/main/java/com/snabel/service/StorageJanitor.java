@@ -0,0 +1,263 @@
+package com.snabel.service;
+
+import com.snabel.config.AppConfig;
+import io.quarkus.runtime.Startup;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Background janitor for the temp directory. Every janitor.interval.minutes it expires old sessions
+ * (see {@link FileService#cleanupOldSessions}), and if usage is still above storage.quota.mb it
+ * evicts unpacked trees in least-recently-used order, skipping trees of sessions whose Claude
+ * commands are running. Evicted trees are extracted again from
+ * their archive when a session needs them (see {@link FileService#prepareWorkingCopy}).
+ */
+@ApplicationScoped
+@Startup
+public class StorageJanitor {
+
+    private static final long MB = 1024 * 1024;
+
+    @Inject
+    AppConfig appConfig;
+
+    @Inject
+    FileService fileService;
+
+    @Inject
+    UploadStore uploadStore;
+
+    @Inject
+    DirectoryDeleter directoryDeleter;
+
+    private ScheduledExecutorService scheduler;
+
+    private volatile StorageUsage lastUsage;
+    private volatile long lastRunAt = 0;
+    private volatile long lastRunMillis = 0;
+    private volatile long evictedTrees = 0;
+    private volatile long deletedFiles = 0;
+
+    @PostConstruct
+    void init() {
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "storage-janitor");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        long interval = Math.max(appConfig.getJanitorIntervalMinutes(), 1);
+        scheduler.scheduleWithFixedDelay(this::run, 1, interval, TimeUnit.MINUTES);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * Run one janitor pass: expire old sessions, delete evicted trees left in the trash and
+     * enforce the disk quota
+     */
+    public synchronized void run() {
+        long start = System.currentTimeMillis();
+        try {
+            fileService.cleanupOldSessions();
+            emptyTrash();
+
+            StorageUsage usage = measure();
+            long quota = appConfig.getStorageQuotaMb() * MB;
+            if (quota > 0 && usage.totalBytes > quota) {
+                usage = enforceQuota(usage, quota);
+            }
+            lastUsage = usage;
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Storage janitor failed: " + e.getMessage());
+        } finally {
+            lastRunAt = start;
+            lastRunMillis = System.currentTimeMillis() - start;
+        }
+    }
+
+    /**
+     * Usage of the temp directory as of the last janitor run, measuring now if it has not run yet
+     */
+    public StorageUsage getUsage() throws IOException {
+        StorageUsage usage = lastUsage;
+        if (usage == null) {
+            usage = measure();
+            lastUsage = usage;
+        }
+        return usage;
+    }
+
+    public long getLastRunAt() {
+        return lastRunAt;
+    }
+
+    public long getLastRunMillis() {
+        return lastRunMillis;
+    }
+
+    public long getEvictedTrees() {
+        return evictedTrees;
+    }
+
+    public long getDeletedFiles() {
+        return deletedFiles;
+    }
+
+    private StorageUsage enforceQuota(StorageUsage usage, long quota) throws IOException {
+        long idleCutoff = System.currentTimeMillis() - appConfig.getStorageTreeMinIdleMinutes() * 60_000L;
+        Set<Path> inUse = fileService.getTreesInUse();
+
+        for (UploadStore.TreeUsage candidate : uploadStore.listTreesByLastUse()) {
+            if (usage.totalBytes <= quota || candidate.lastUsedAt > idleCutoff) {
+                // Sorted by last use, so every remaining tree is in active use
+                break;
+            }
+            if (inUse.contains(candidate.tree.toAbsolutePath().normalize())) {
+                // Not touched since its session started, but Claude may be reading it right now
+                continue;
+            }
+
+            Path trash = uploadStore.evictTree(candidate.tree);
+            if (trash == null) {
+                continue;
+            }
+            evictedTrees++;
+            deletedFiles += directoryDeleter.deleteThrottled(trash);
+            uploadStore.sweepBlobs();
+
+            long before = usage.totalBytes;
+            usage = measure();
+            System.out.println(String.format("Storage janitor evicted %s, freed %.1f MB",
+                candidate.tree.getFileName(), (before - usage.totalBytes) / (double) MB));
+        }
+
+        if (usage.totalBytes > quota) {
+            System.out.println(String.format("Storage usage %.1f MB is still over the %.1f MB quota",
+                usage.totalBytes / (double) MB, quota / (double) MB));
+        }
+        return usage;
+    }
+
+    private void emptyTrash() throws IOException {
+        for (Path trash : uploadStore.listTrash()) {
+            deletedFiles += directoryDeleter.deleteThrottled(trash);
+        }
+    }
+
+    /**
+     * Measure disk usage under the temp directory. Hard-linked files are counted once, under
+     * the blob store, so the total reflects the space actually used.
+     */
+    StorageUsage measure() throws IOException {
+        StorageUsage usage = new StorageUsage();
+        usage.measuredAt = System.currentTimeMillis();
+
+        Path tempDir = Paths.get(appConfig.getTempDirectory());
+        if (!Files.isDirectory(tempDir)) {
+            return usage;
+        }
+
+        Path store = tempDir.resolve("store");
+        Path blobs = store.resolve("blobs");
+        Set<Object> seen = new HashSet<>();
+
+        // Blobs first, so files linked into trees are attributed to the blob store
+        if (Files.isDirectory(blobs)) {
+            measureTree(blobs, blobs, tempDir, store, seen, usage);
+        }
+        measureTree(tempDir, blobs, tempDir, store, seen, usage);
+
+        if (Files.isDirectory(store.resolve("trees"))) {
+            try (var trees = Files.list(store.resolve("trees"))) {
+                usage.trees = (int) trees.count();
+            }
+        }
+        return usage;
+    }
+
+    private void measureTree(Path start, Path skip, Path tempDir, Path store, Set<Object> seen,
+                             StorageUsage usage) throws IOException {
+        Files.walkFileTree(start, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                return dir.equals(skip) && !start.equals(skip) ? FileVisitResult.SKIP_SUBTREE : FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                Object key = attrs.fileKey();
+                if (key != null && !seen.add(key)) {
+                    return FileVisitResult.CONTINUE;
+                }
+                usage.add(category(file, tempDir, store), attrs.size());
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                // Deleted while walking
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private static String category(Path file, Path tempDir, Path store) {
+        if (file.startsWith(store)) {
+            Path relative = store.relativize(file);
+            return relative.getNameCount() > 1 ? relative.getName(0).toString() : "other";
+        }
+        Path relative = tempDir.relativize(file);
+        String top = relative.getNameCount() > 1 ? relative.getName(0).toString() : "";
+        if (top.equals("worktrees")) {
+            return top;
+        }
+        return top.equals("uploads") || top.equals("unpacked") ? "legacy" : "other";
+    }
+
+    /**
+     * Bytes used under the temp directory, by area
+     */
+    public static class StorageUsage {
+        public long totalBytes = 0;
+        public long archiveBytes = 0;
+        public long treeBytes = 0;
+        public long blobBytes = 0;
+        public long manifestBytes = 0;
+        public long trashBytes = 0;
+        public long legacyBytes = 0;
+        // Session worktrees (see GitService), without the node_modules they link to
+        public long worktreeBytes = 0;
+        public long otherBytes = 0;
+        public int trees = 0;
+        public long measuredAt = 0;
+
+        void add(String category, long bytes) {
+            totalBytes += bytes;
+            switch (category) {
+                case "zips" -> archiveBytes += bytes;
+                case "trees" -> treeBytes += bytes;
+                case "blobs" -> blobBytes += bytes;
+                case "manifests" -> manifestBytes += bytes;
+                case "trash", "tmp" -> trashBytes += bytes;
+                case "legacy" -> legacyBytes += bytes;
+                case "worktrees" -> worktreeBytes += bytes;
+                default -> otherBytes += bytes;
+            }
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package com.snabel.service;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * Decodes Claude's stream-json output into {@link ClaudeEvent}s with a streaming parser, without
+ * building a tree for the line. Tool inputs and tool outputs, which can be hundreds of KB, are
+ * skipped without being decoded; only the tool's target is read from its input. Thread-safe.
+ */
+public class StreamJsonDecoder {
+
+    // Longest tool target kept in TOOL_USE events
+    private static final int TARGET_CHARS = 200;
+    // Tool input fields that say what the tool acts on
+    private static final Set<String> TARGET_FIELDS = Set.of(
+        "file_path", "notebook_path", "path", "command", "pattern", "url");
+
+    private final JsonFactory factory = new JsonFactory();
+
+    /**
+     * Decode one output line and pass its events to the sink, in order. Returns the message
+     * type ("system", "assistant", "user", "result"), or null if the line is not JSON.
+     */
+    public String decode(String line, Consumer<ClaudeEvent> sink) {
+        if (line.isEmpty() || line.charAt(0) != '{') {
+            // stderr is merged into stdout
+            return null;
+        }
+
+        String type = null;
+        List<ClaudeEvent> blocks = new ArrayList<>(2);
+        ClaudeEvent result = new ClaudeEvent(ClaudeEvent.Kind.RESULT);
+
+        try (JsonParser p = factory.createParser(line)) {
+            if (p.nextToken() != JsonToken.START_OBJECT) {
+                return null;
+            }
+            while (p.nextToken() == JsonToken.FIELD_NAME) {
+                String field = p.currentName();
+                JsonToken value = p.nextToken();
+                switch (field) {
+                    case "type" -> type = p.getText();
+                    case "message" -> readMessage(p, value, blocks);
+                    case "subtype" -> result.subtype = p.getText();
+                    case "is_error" -> result.isError = value == JsonToken.VALUE_TRUE;
+                    case "result" -> result.text = value == JsonToken.VALUE_STRING ? p.getText() : skip(p);
+                    case "duration_ms" -> result.durationMs = longValue(p, value);
+                    case "duration_api_ms" -> result.apiDurationMs = longValue(p, value);
+                    case "num_turns" -> result.numTurns = value.isNumeric() ? p.getIntValue() : null;
+                    case "total_cost_usd", "cost_usd" -> result.costUsd = value.isNumeric() ? p.getDoubleValue() : null;
+                    case "usage" -> readUsage(p, value, result);
+                    default -> p.skipChildren();
+                }
+            }
+        } catch (IOException e) {
+            // Malformed or truncated JSON
+            return null;
+        }
+
+        if (type == null) {
+            return null;
+        }
+        switch (type) {
+            case "assistant" -> blocks.stream()
+                .filter(event -> event.kind == ClaudeEvent.Kind.TEXT || event.kind == ClaudeEvent.Kind.TOOL_USE)
+                .forEach(sink);
+            case "user" -> blocks.stream()
+                .filter(event -> event.kind == ClaudeEvent.Kind.TOOL_RESULT)
+                .forEach(sink);
+            case "result" -> sink.accept(result);
+            default -> {
+                // system messages carry nothing of interest
+            }
+        }
+        return type;
+    }
+
+    private void readMessage(JsonParser p, JsonToken value, List<ClaudeEvent> blocks) throws IOException {
+        if (value != JsonToken.START_OBJECT) {
+            p.skipChildren();
+            return;
+        }
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            String field = p.currentName();
+            JsonToken fieldValue = p.nextToken();
+            if (field.equals("content") && fieldValue == JsonToken.START_ARRAY) {
+                while (p.nextToken() != JsonToken.END_ARRAY) {
+                    if (p.currentToken() == JsonToken.START_OBJECT) {
+                        ClaudeEvent block = readBlock(p);
+                        if (block != null) {
+                            blocks.add(block);
+                        }
+                    } else {
+                        p.skipChildren();
+                    }
+                }
+            } else {
+                p.skipChildren();
+            }
+        }
+    }
+
+    /**
+     * Read one content block, or return null if it is of a kind we do not report (e.g. thinking)
+     */
+    private ClaudeEvent readBlock(JsonParser p) throws IOException {
+        ClaudeEvent event = new ClaudeEvent(null);
+        String blockType = null;
+
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            String field = p.currentName();
+            JsonToken value = p.nextToken();
+            switch (field) {
+                case "type" -> blockType = p.getText();
+                case "text" -> event.text = value == JsonToken.VALUE_STRING ? p.getText() : skip(p);
+                case "id", "tool_use_id" -> event.toolUseId = p.getText();
+                case "name" -> event.toolName = p.getText();
+                case "is_error" -> event.isError = value == JsonToken.VALUE_TRUE;
+                case "input" -> event.toolTarget = value == JsonToken.START_OBJECT ? readToolTarget(p) : skip(p);
+                // Everything else, including tool output ("content"), is skipped
+                default -> p.skipChildren();
+            }
+        }
+
+        if (blockType == null) {
+            return null;
+        }
+        event.kind = switch (blockType) {
+            case "text" -> ClaudeEvent.Kind.TEXT;
+            case "tool_use" -> ClaudeEvent.Kind.TOOL_USE;
+            case "tool_result" -> ClaudeEvent.Kind.TOOL_RESULT;
+            default -> null;
+        };
+        return event.kind != null ? event : null;
+    }
+
+    private String readToolTarget(JsonParser p) throws IOException {
+        String target = null;
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            String field = p.currentName();
+            JsonToken value = p.nextToken();
+            if (target == null && value == JsonToken.VALUE_STRING && TARGET_FIELDS.contains(field)) {
+                int length = Math.min(p.getTextLength(), TARGET_CHARS);
+                target = new String(p.getTextCharacters(), p.getTextOffset(), length);
+            } else {
+                // Unread strings are skipped without being decoded
+                p.skipChildren();
+            }
+        }
+        return target;
+    }
+
+    private void readUsage(JsonParser p, JsonToken value, ClaudeEvent result) throws IOException {
+        if (value != JsonToken.START_OBJECT) {
+            p.skipChildren();
+            return;
+        }
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            String field = p.currentName();
+            JsonToken fieldValue = p.nextToken();
+            switch (field) {
+                case "input_tokens" -> result.inputTokens = longValue(p, fieldValue);
+                case "output_tokens" -> result.outputTokens = longValue(p, fieldValue);
+                case "cache_creation_input_tokens" -> result.cacheCreationTokens = longValue(p, fieldValue);
+                case "cache_read_input_tokens" -> result.cacheReadTokens = longValue(p, fieldValue);
+                default -> p.skipChildren();
+            }
+        }
+    }
+
+    private static Long longValue(JsonParser p, JsonToken value) throws IOException {
+        if (!value.isNumeric()) {
+            p.skipChildren();
+            return null;
+        }
+        return p.getLongValue();
+    }
+
+    private static String skip(JsonParser p) throws IOException {
+        p.skipChildren();
+        return null;
+    }
+}
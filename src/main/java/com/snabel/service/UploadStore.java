@@ -0,0 +1,451 @@
+package com.snabel.service;
+
+import com.snabel.config.AppConfig;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+
+import java.io.*;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+
+/**
+ * Content-addressed store for uploaded archives, shared across sessions.
+ *
+ * Layout under {temp.directory}/store:
+ *   zips/{sha256}.{ext}                - uploaded archives (zip, tar.gz, tar.zst), one copy per distinct content
+ *   trees/{sha256}-{filter}/           - unpacked archive, reused for identical uploads
+ *   blobs/{ab}/{sha256}                - file contents; tree files are hard links to these
+ *   refs/{sha256}/{sessionId}          - marker per session using an archive
+ *   manifests/{tree}-{budget}.txt      - code maps built from a tree (see ManifestService)
+ *   access/{tree}                      - marker whose modification time is the tree's last use
+ *   trash/                             - evicted trees and other deleted directories waiting to be deleted (see DirectoryDeleter)
+ *
+ * Archives and trees are kept while at least one session references them; blobs are kept
+ * while at least one tree links to them (link count above one). Trees can also be evicted
+ * early to meet the disk quota, since they can always be extracted again from their archive.
+ *
+ * Trees are read-only. Their files are hard links to blobs, which are made r--r--r--: a file
+ * shares its inode with every other tree holding the same content, so writing it in place would
+ * change all of them (root ignores the permission bits). Nothing writes into a tree once it is
+ * materialized; anything that needs to change uploaded files must copy them out first.
+ */
+@ApplicationScoped
+public class UploadStore {
+
+    @Inject
+    AppConfig appConfig;
+
+    @Inject
+    DirectoryDeleter directoryDeleter;
+
+    // Store operations share the lock, garbage collection takes it exclusively
+    private final ReadWriteLock gcLock = new ReentrantReadWriteLock();
+
+    /**
+     * Hash an uploaded archive and move it into the store, registering the session as a user of it
+     */
+    public Path storeArchive(String sessionId, Path uploadedFile) throws IOException {
+        ArchiveFormat format = ArchiveFormat.detect(uploadedFile);
+        String hash = sha256(uploadedFile);
+        Path archive = archivePath(hash, format);
+
+        gcLock.readLock().lock();
+        try {
+            addReference(hash, sessionId);
+
+            if (Files.exists(archive)) {
+                Files.deleteIfExists(uploadedFile);
+                return archive;
+            }
+
+            Files.createDirectories(archive.getParent());
+            try {
+                Files.move(uploadedFile, archive, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(uploadedFile, archive);
+            } catch (FileAlreadyExistsException e) {
+                // Same archive stored concurrently by another upload
+                Files.deleteIfExists(uploadedFile);
+            }
+            return archive;
+        } finally {
+            gcLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Content hash of an archive stored by {@link #storeArchive}
+     */
+    public String archiveHash(Path archive) {
+        String fileName = archive.getFileName().toString();
+        return fileName.substring(0, fileName.indexOf('.'));
+    }
+
+    /**
+     * Location of a stored archive by content hash (the file may no longer exist)
+     */
+    public Path archivePath(String hash) {
+        for (ArchiveFormat format : ArchiveFormat.values()) {
+            Path archive = archivePath(hash, format);
+            if (Files.exists(archive)) {
+                return archive;
+            }
+        }
+        return archivePath(hash, ArchiveFormat.ZIP);
+    }
+
+    private Path archivePath(String hash, ArchiveFormat format) {
+        return storeRoot().resolve("zips").resolve(hash + format.extension);
+    }
+
+    /**
+     * Location of the unpacked tree for an archive extracted with the given filter
+     */
+    public Path treePath(String archiveHash, ExtractionFilter filter) {
+        return storeRoot().resolve("trees").resolve(archiveHash + "-" + filter.fingerprint());
+    }
+
+    /**
+     * Check whether an unpacked tree with the given directory name is still in the store
+     */
+    public boolean treeExists(String treeName) {
+        return Files.isDirectory(storeRoot().resolve("trees").resolve(treeName));
+    }
+
+    /**
+     * Cache location for the code map of an unpacked tree rendered with the given size budget
+     */
+    public Path manifestPath(Path tree, int budget) {
+        return storeRoot().resolve("manifests").resolve(tree.getFileName() + "-" + budget + ".txt");
+    }
+
+    /**
+     * Extract an archive into a staging directory and atomically publish it as the given tree.
+     * If an identical upload published the tree first, the staged copy is discarded.
+     */
+    public Path materializeTree(Path tree, TreeWriter writer) throws IOException {
+        gcLock.readLock().lock();
+        try {
+            Path stagingRoot = storeRoot().resolve("tmp");
+            Files.createDirectories(stagingRoot);
+            Path staging = Files.createTempDirectory(stagingRoot, "tree-");
+
+            try {
+                writer.write(staging);
+                Files.createDirectories(tree.getParent());
+                Files.move(staging, tree, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException | RuntimeException e) {
+                directoryDeleter.delete(staging);
+                if (e instanceof IOException && Files.isDirectory(tree)) {
+                    // An identical upload published the tree first (rename fails with ENOTEMPTY)
+                    return tree;
+                }
+                throw e;
+            }
+            return tree;
+        } finally {
+            gcLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Record that a tree is in use, for least-recently-used eviction
+     */
+    public void touchTree(Path tree) {
+        Path marker = storeRoot().resolve("access").resolve(tree.getFileName().toString());
+        try {
+            Files.createDirectories(marker.getParent());
+            if (Files.exists(marker)) {
+                Files.setLastModifiedTime(marker, FileTime.fromMillis(System.currentTimeMillis()));
+            } else {
+                Files.createFile(marker);
+            }
+        } catch (IOException e) {
+            System.err.println("Failed to record tree access: " + tree + " - " + e.getMessage());
+        }
+    }
+
+    /**
+     * Unpacked trees ordered from least to most recently used
+     */
+    public List<TreeUsage> listTreesByLastUse() throws IOException {
+        List<TreeUsage> trees = new ArrayList<>();
+        for (Path tree : list(storeRoot().resolve("trees"))) {
+            Path marker = storeRoot().resolve("access").resolve(tree.getFileName().toString());
+            Path stamp = Files.exists(marker) ? marker : tree;
+            try {
+                trees.add(new TreeUsage(tree, Files.getLastModifiedTime(stamp).toMillis()));
+            } catch (NoSuchFileException e) {
+                // Removed concurrently
+            }
+        }
+        trees.sort(Comparator.comparingLong(t -> t.lastUsedAt));
+        return trees;
+    }
+
+    /**
+     * Take an unpacked tree out of the store by moving it to the trash, where it can be deleted
+     * at leisure. Returns the trash location, or null if the tree no longer exists.
+     */
+    public Path evictTree(Path tree) throws IOException {
+        gcLock.writeLock().lock();
+        try {
+            if (!Files.isDirectory(tree)) {
+                return null;
+            }
+
+            String name = tree.getFileName().toString();
+            Path trash = directoryDeleter.moveToTrash(tree);
+
+            Files.deleteIfExists(storeRoot().resolve("access").resolve(name));
+            for (Path manifest : list(storeRoot().resolve("manifests"))) {
+                if (manifest.getFileName().toString().startsWith(name + "-")) {
+                    Files.deleteIfExists(manifest);
+                }
+            }
+            return trash;
+        } finally {
+            gcLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Evicted trees that have not been deleted yet
+     */
+    public List<Path> listTrash() throws IOException {
+        return list(directoryDeleter.getTrashRoot());
+    }
+
+    /**
+     * Delete blobs no tree links to any more, e.g. after evicted trees were deleted
+     */
+    public int sweepBlobs() {
+        gcLock.writeLock().lock();
+        try {
+            return sweepBlobs(storeRoot().resolve("blobs"));
+        } catch (IOException e) {
+            System.err.println("Upload store blob sweep failed: " + e.getMessage());
+            return 0;
+        } finally {
+            gcLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Replace a freshly extracted file with a hard link to the shared blob holding the same content.
+     * The first file seen with a given content becomes the blob itself.
+     */
+    public void intern(Path file, byte[] sha256) throws IOException {
+        Path blob = blobPath(HexFormat.of().formatHex(sha256));
+        Files.createDirectories(blob.getParent());
+
+        try {
+            Files.createLink(blob, file);
+            makeReadOnly(blob);
+        } catch (FileAlreadyExistsException e) {
+            Files.delete(file);
+            Files.createLink(file, blob);
+        } catch (UnsupportedOperationException | FileSystemException e) {
+            // No hard links here (or link limit reached) - keep the private copy
+        }
+    }
+
+    /**
+     * Register a session as a user of an archive, refreshing the reference if it already exists
+     */
+    public void addReference(String archiveHash, String sessionId) throws IOException {
+        Path marker = storeRoot().resolve("refs").resolve(archiveHash).resolve(sessionId);
+        Files.createDirectories(marker.getParent());
+        if (Files.exists(marker)) {
+            Files.setLastModifiedTime(marker, FileTime.fromMillis(System.currentTimeMillis()));
+        } else {
+            Files.createFile(marker);
+        }
+    }
+
+    /**
+     * Drop a session's reference to an archive
+     */
+    public void removeReference(String archiveHash, String sessionId) throws IOException {
+        Files.deleteIfExists(storeRoot().resolve("refs").resolve(archiveHash).resolve(sessionId));
+    }
+
+    /**
+     * Reference-counted garbage collection: expire stale session references, then remove
+     * archives and trees nobody references and blobs no tree links to any more.
+     */
+    public void collectGarbage(Duration maxReferenceAge) {
+        Path root = storeRoot();
+        if (!Files.exists(root)) {
+            return;
+        }
+
+        gcLock.writeLock().lock();
+        try {
+            long cutoff = System.currentTimeMillis() - maxReferenceAge.toMillis();
+            Set<String> referenced = expireReferences(root.resolve("refs"), cutoff);
+
+            int archives = 0;
+            for (Path archive : list(root.resolve("zips"))) {
+                if (!referenced.contains(archiveHash(archive))) {
+                    Files.deleteIfExists(archive);
+                    archives++;
+                }
+            }
+
+            int trees = 0;
+            for (Path tree : list(root.resolve("trees"))) {
+                String name = tree.getFileName().toString();
+                if (!referenced.contains(name.substring(0, name.lastIndexOf('-')))) {
+                    // Renamed away now, deleted after the lock is released; its blobs go in the next sweep
+                    directoryDeleter.deleteInBackground(tree);
+                    trees++;
+                }
+            }
+
+            for (Path marker : list(root.resolve("access"))) {
+                if (!Files.isDirectory(root.resolve("trees").resolve(marker.getFileName().toString()))) {
+                    Files.deleteIfExists(marker);
+                }
+            }
+
+            for (Path manifest : list(root.resolve("manifests"))) {
+                String name = manifest.getFileName().toString();
+                if (!referenced.contains(name.substring(0, Math.max(name.indexOf('-'), 0)))) {
+                    Files.deleteIfExists(manifest);
+                }
+            }
+
+            // Nothing is being extracted while we hold the write lock, so staging leftovers are garbage
+            for (Path staging : list(root.resolve("tmp"))) {
+                directoryDeleter.delete(staging);
+            }
+
+            int blobs = sweepBlobs(root.resolve("blobs"));
+
+            if (archives + trees + blobs > 0) {
+                System.out.println("Upload store GC removed " + archives + " archives, " +
+                    trees + " trees, " + blobs + " blobs");
+            }
+        } catch (IOException e) {
+            System.err.println("Upload store GC failed: " + e.getMessage());
+        } finally {
+            gcLock.writeLock().unlock();
+        }
+    }
+
+    private Set<String> expireReferences(Path refsDir, long cutoff) throws IOException {
+        Set<String> referenced = new HashSet<>();
+        for (Path archiveRefs : list(refsDir)) {
+            boolean live = false;
+            for (Path marker : list(archiveRefs)) {
+                if (Files.getLastModifiedTime(marker).toMillis() < cutoff) {
+                    Files.deleteIfExists(marker);
+                } else {
+                    live = true;
+                }
+            }
+
+            if (live) {
+                referenced.add(archiveRefs.getFileName().toString());
+            } else {
+                Files.deleteIfExists(archiveRefs);
+            }
+        }
+        return referenced;
+    }
+
+    private int sweepBlobs(Path blobsDir) throws IOException {
+        int removed = 0;
+        for (Path shard : list(blobsDir)) {
+            for (Path blob : list(shard)) {
+                try {
+                    int links = (Integer) Files.getAttribute(blob, "unix:nlink");
+                    if (links <= 1) {
+                        Files.delete(blob);
+                        removed++;
+                    }
+                } catch (UnsupportedOperationException | IllegalArgumentException e) {
+                    // Link counts not available on this platform - keep blobs
+                    return removed;
+                }
+            }
+            if (list(shard).isEmpty()) {
+                Files.deleteIfExists(shard);
+            }
+        }
+        return removed;
+    }
+
+    private List<Path> list(Path dir) throws IOException {
+        if (!Files.isDirectory(dir)) {
+            return List.of();
+        }
+        try (Stream<Path> children = Files.list(dir)) {
+            return children.toList();
+        }
+    }
+
+    private void makeReadOnly(Path blob) {
+        try {
+            // Shared inode: protects every tree linking to this blob from in-place edits
+            Files.setPosixFilePermissions(blob, PosixFilePermissions.fromString("r--r--r--"));
+        } catch (UnsupportedOperationException | IOException e) {
+            // Not a POSIX filesystem
+        }
+    }
+
+    private Path blobPath(String hash) {
+        return storeRoot().resolve("blobs").resolve(hash.substring(0, 2)).resolve(hash);
+    }
+
+    private Path storeRoot() {
+        return Paths.get(appConfig.getTempDirectory(), "store");
+    }
+
+    private static String sha256(Path file) throws IOException {
+        MessageDigest digest = newSha256();
+        byte[] buffer = new byte[1024 * 1024];
+        try (InputStream in = Files.newInputStream(file)) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * An unpacked tree and when it was last used
+     */
+    public static class TreeUsage {
+        public final Path tree;
+        public final long lastUsedAt;
+
+        public TreeUsage(Path tree, long lastUsedAt) {
+            this.tree = tree;
+            this.lastUsedAt = lastUsedAt;
+        }
+    }
+
+    @FunctionalInterface
+    public interface TreeWriter {
+        void write(Path directory) throws IOException;
+    }
+
+    static MessageDigest newSha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+}
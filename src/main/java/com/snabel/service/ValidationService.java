@@ -20,8 +20,14 @@ public class ValidationService {
     @Inject
     LogWebSocket logWebSocket;
 
+    @Inject
+    ApiDocsService apiDocsService;
+
+    @Inject
+    GitService gitService;
+
     /**
-     * Validate the transformed code
+     * Validate the transformed code, in the session's worktree
      */
     public ValidationResult validate(String sessionId) {
         logInfo(sessionId, "Starting validation...");
@@ -66,7 +72,7 @@ public class ValidationService {
         logInfo(sessionId, "Checking TypeScript compilation...");
 
         try {
-            String frontendPath = appConfig.getFrontendPath();
+            String frontendPath = gitService.getWorkingTree(sessionId);
 
             ProcessBuilder pb = new ProcessBuilder("npx", "tsc", "--noEmit");
             pb.directory(new File(frontendPath));
@@ -105,7 +111,7 @@ public class ValidationService {
         logInfo(sessionId, "Checking API compatibility...");
 
         try {
-            String frontendPath = appConfig.getFrontendPath();
+            String frontendPath = gitService.getWorkingTree(sessionId);
             Path srcPath = Paths.get(frontendPath, "apps");
 
             if (!Files.exists(srcPath)) {
@@ -114,11 +120,15 @@ public class ValidationService {
             }
 
             // Allowed API endpoints from backend documentation
-            Set<String> allowedEndpoints = Set.of(
-                "/api/auth/login",
-                "/api/accounts",
-                "/api/invoices"
-            );
+            Set<String> allowedEndpoints = new HashSet<>();
+            apiDocsService.getEndpoints().forEach(endpoint -> allowedEndpoints.add(endpoint.basePath()));
+            if (allowedEndpoints.isEmpty()) {
+                allowedEndpoints.addAll(Set.of(
+                    "/api/auth/login",
+                    "/api/accounts",
+                    "/api/invoices"
+                ));
+            }
 
             // Patterns to find API calls
             Pattern apiCallPattern = Pattern.compile("(?:fetch|axios\\.(?:get|post|put|delete))\\s*\\(['\"]([^'\"]+)['\"]");
@@ -174,7 +184,7 @@ public class ValidationService {
         logInfo(sessionId, "Running tests...");
 
         try {
-            String frontendPath = appConfig.getFrontendPath();
+            String frontendPath = gitService.getWorkingTree(sessionId);
 
             // Check if tests exist
             Path testPath = Paths.get(frontendPath, "apps");
@@ -224,7 +234,7 @@ public class ValidationService {
         logInfo(sessionId, "Running build...");
 
         try {
-            String frontendPath = appConfig.getFrontendPath();
+            String frontendPath = gitService.getWorkingTree(sessionId);
 
             ProcessBuilder pb = new ProcessBuilder("npm", "run", "build");
             pb.directory(new File(frontendPath));
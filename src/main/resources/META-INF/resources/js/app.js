@@ -139,7 +139,8 @@ async function uploadZip() {
             - Total files: ${data.analysis.totalFiles}<br>
             - TypeScript files: ${data.analysis.typescriptFiles}<br>
             - JavaScript files: ${data.analysis.javascriptFiles}<br>
-            - Size: ${data.analysis.totalSizeMB.toFixed(2)} MB
+            - Size: ${data.analysis.totalSizeMB.toFixed(2)} MB<br>
+            - Skipped (excluded): ${data.analysis.skippedFiles} files, ${data.analysis.skippedSizeMB.toFixed(2)} MB
         `;
 
         // Show start step
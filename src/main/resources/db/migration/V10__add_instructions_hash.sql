@@ -0,0 +1,2 @@
+-- Hash of the instructions last sent to Claude, so they are sent again when they change
+ALTER TABLE import_sessions ADD COLUMN IF NOT EXISTS instructionshash VARCHAR(80);
@@ -0,0 +1,2 @@
+-- Who created the session, so Claude slots are shared out per owner and target MFE
+ALTER TABLE import_sessions ADD COLUMN IF NOT EXISTS owner VARCHAR(255);
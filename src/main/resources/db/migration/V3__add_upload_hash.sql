@@ -0,0 +1,2 @@
+-- Content hash of the uploaded archive in the shared upload store
+ALTER TABLE import_sessions ADD COLUMN IF NOT EXISTS uploadhash VARCHAR(64);
@@ -0,0 +1,2 @@
+-- File analysis computed at upload time (JSON), reused when the session is started
+ALTER TABLE import_sessions ADD COLUMN IF NOT EXISTS fileanalysis TEXT;
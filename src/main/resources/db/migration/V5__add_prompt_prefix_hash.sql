@@ -0,0 +1,2 @@
+-- Hash of the static instruction prefix sent to Claude (template version + SHA-256)
+ALTER TABLE import_sessions ADD COLUMN IF NOT EXISTS promptprefixhash VARCHAR(80);
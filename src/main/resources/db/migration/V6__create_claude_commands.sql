@@ -0,0 +1,35 @@
+-- One row per command sent to Claude, with the timing, usage and cost reported by the CLI
+
+CREATE TABLE IF NOT EXISTS claude_commands (
+    id BIGINT PRIMARY KEY,
+    sessionid VARCHAR(255) NOT NULL REFERENCES import_sessions(sessionid) ON DELETE CASCADE,
+    targetmfe VARCHAR(255),
+    command VARCHAR(2000),
+    mode VARCHAR(20),
+    startedat TIMESTAMP(6) WITHOUT TIME ZONE NOT NULL,
+    completedat TIMESTAMP(6) WITHOUT TIME ZONE,
+
+    -- Latency
+    firsttokenmillis BIGINT,
+    durationmillis BIGINT,
+    apidurationmillis BIGINT,
+    numturns INTEGER,
+    toolcalls INTEGER,
+
+    -- Usage
+    inputtokens BIGINT,
+    outputtokens BIGINT,
+    cachecreationtokens BIGINT,
+    cachereadtokens BIGINT,
+    costusd DOUBLE PRECISION,
+
+    -- Outcome
+    outcome VARCHAR(50),
+    exitcode INTEGER
+);
+
+CREATE INDEX IF NOT EXISTS idx_claude_commands_sessionid ON claude_commands(sessionid);
+CREATE INDEX IF NOT EXISTS idx_claude_commands_startedat ON claude_commands(startedat);
+
+-- Hibernate sequence for PanacheEntity (allocationSize=50)
+CREATE SEQUENCE IF NOT EXISTS claude_commands_SEQ START WITH 1 INCREMENT BY 50;
@@ -0,0 +1,13 @@
+-- Commands waiting to run, so queued work survives a restart. A row is deleted when its command starts.
+
+CREATE TABLE IF NOT EXISTS command_queue_entries (
+    id BIGINT PRIMARY KEY,
+    sessionid VARCHAR(255) NOT NULL REFERENCES import_sessions(sessionid) ON DELETE CASCADE,
+    command TEXT NOT NULL,
+    queuedat TIMESTAMP(6) WITHOUT TIME ZONE NOT NULL
+);
+
+CREATE INDEX IF NOT EXISTS idx_command_queue_entries_sessionid ON command_queue_entries(sessionid);
+
+-- Hibernate sequence for PanacheEntity (allocationSize=50)
+CREATE SEQUENCE IF NOT EXISTS command_queue_entries_SEQ START WITH 1 INCREMENT BY 50;
@@ -0,0 +1,2 @@
+-- Marks the queued command carrying a session's instructions, which never merges with follow-ups
+ALTER TABLE command_queue_entries ADD COLUMN IF NOT EXISTS instructions BOOLEAN NOT NULL DEFAULT FALSE;
@@ -0,0 +1,2 @@
+-- Time a command waited before it started: behind the session's earlier commands and for a free slot
+ALTER TABLE claude_commands ADD COLUMN IF NOT EXISTS queuewaitmillis BIGINT;
@@ -0,0 +1,38 @@
+package com.snabel.resource;
+
+import io.quarkus.test.common.http.TestHTTPResource;
+import io.quarkus.test.junit.QuarkusTest;
+import org.junit.jupiter.api.Test;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@QuarkusTest
+public class ImportResourceTest {
+
+    @TestHTTPResource("/api/import/session")
+    URI sessions;
+
+    private final HttpClient client = HttpClient.newHttpClient();
+
+    @Test
+    public void testStartEndpointExists() throws Exception {
+        // Answered by startTransformation, not by a missing route: the body names the session
+        HttpResponse<String> response = post("/unknown-session/start", "{}");
+
+        assertEquals(404, response.statusCode());
+        assertTrue(response.body().contains("Session not found"), response.body());
+    }
+
+    private HttpResponse<String> post(String path, String body) throws Exception {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(sessions + path))
+            .header("Content-Type", "application/json")
+            .POST(HttpRequest.BodyPublishers.ofString(body))
+            .build();
+        return client.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+}
@@ -0,0 +1,220 @@
+package com.snabel.service;
+
+import com.snabel.config.AppConfig;
+import com.snabel.websocket.LogWebSocket;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AdmissionControllerTest {
+
+    private AdmissionController admission;
+    // Admitted commands, run by the test one at a time
+    private final Deque<Runnable> admitted = new ArrayDeque<>();
+    private final List<String> ran = new ArrayList<>();
+
+    @BeforeEach
+    public void setUp() {
+        admission = new AdmissionController();
+        admission.appConfig = new AppConfig() {
+            @Override
+            public int getClaudeCommandConcurrency() {
+                return 2;
+            }
+
+            @Override
+            public int getClaudeCommandQueueCapacity() {
+                return 4;
+            }
+        };
+        admission.commandExecutor = new CommandExecutor() {
+            @Override
+            public void execute(Runnable command) {
+                admitted.add(command);
+            }
+        };
+        admission.logWebSocket = new LogWebSocket();
+    }
+
+    @Test
+    public void testAdmitsUpToConcurrency() {
+        assertEquals(0, submit("s1", "invoices"));
+        assertEquals(0, submit("s2", "invoices"));
+        assertEquals(1, submit("s3", "invoices"));
+
+        AdmissionController.Status status = admission.getStatus();
+        assertEquals(2, status.running);
+        assertEquals(1, status.waiting);
+        assertEquals(1, admission.getPosition("s3"));
+        assertNull(admission.getPosition("s1"));
+    }
+
+    @Test
+    public void testFreeSlotGoesToMfeWithFewestRunning() {
+        submit("a1", "invoices");
+        submit("a2", "invoices");
+        submit("a3", "invoices");
+        submit("a4", "invoices");
+        // Queued behind a burst on invoices, but nothing of theirs is running
+        assertEquals(1, submit("b1", "orders"));
+        assertEquals(2, submit("c1", null));
+        assertEquals(3, admission.getPosition("a3"));
+        assertEquals(4, admission.getPosition("a4"));
+
+        // a2 still runs on invoices: the slot goes to orders although a3 waited longer
+        finishOldest();
+        assertNull(admission.getPosition("b1"));
+        assertEquals(1, admission.getPosition("c1"));
+        assertEquals(2, admission.getPosition("a3"));
+
+        // Nothing runs on invoices or the frontend root now: the oldest waiter of the two
+        finishOldest();
+        assertNull(admission.getPosition("a3"));
+        assertEquals(1, admission.getPosition("c1"));
+        assertEquals(2, admission.getPosition("a4"));
+
+        runAll();
+        assertEquals(List.of("a1", "a2", "b1", "a3", "c1", "a4"), ran);
+    }
+
+    @Test
+    public void testOldestWaiterFirstOnTie() {
+        submit("a1", "invoices");
+        submit("b1", "orders");
+        submit("b2", "orders");
+        submit("a2", "invoices");
+        submit("c1", "customers");
+
+        // c1 has nothing running, then a2 and b2 one running each, b2 waiting longest
+        assertEquals(1, admission.getPosition("c1"));
+        assertEquals(2, admission.getPosition("b2"));
+        assertEquals(3, admission.getPosition("a2"));
+
+        // Finishing a1 leaves invoices and customers with nothing running: a2 queued first
+        finishOldest();
+        assertNull(admission.getPosition("a2"));
+        assertEquals(1, admission.getPosition("c1"));
+        assertEquals(2, admission.getPosition("b2"));
+    }
+
+    @Test
+    public void testSessionsOnSameMfeTakeTurns() {
+        // s1 queues again for its next command as soon as one finishes
+        int[] turns = {0};
+        Runnable s1 = new Runnable() {
+            @Override
+            public void run() {
+                ran.add("s1");
+                if (++turns[0] < 3) {
+                    admission.submit("s1", AdmissionController.shareOf(null, "invoices"), this, true);
+                }
+            }
+        };
+        admission.submit("s1", AdmissionController.shareOf(null, "invoices"), s1, false);
+        submit("busy", "orders");
+        submit("s2", "invoices");
+        submit("s3", "invoices");
+
+        runAll();
+        assertEquals(List.of("s1", "busy", "s2", "s3", "s1", "s1"), ran);
+    }
+
+    @Test
+    public void testUsersOnSameMfeShareSlots() {
+        submit("a1", "alice", "invoices");
+        submit("a2", "alice", "invoices");
+        submit("a3", "alice", "invoices");
+        submit("a4", "alice", "invoices");
+        // Same MFE, but nothing of bob's is running: ahead of alice's burst
+        assertEquals(1, submit("b1", "bob", "invoices"));
+        assertEquals(2, admission.getPosition("a3"));
+
+        AdmissionController.Status status = admission.getStatus();
+        assertEquals(2, status.shares.size());
+        AdmissionController.Share alice = status.shares.get(0);
+        assertEquals("alice", alice.owner);
+        assertEquals("invoices", alice.targetMfe);
+        assertEquals(2, alice.running);
+        assertEquals(2, alice.waiting);
+        assertEquals("bob", status.shares.get(1).owner);
+        assertEquals(1, status.shares.get(1).waiting);
+
+        finishOldest();
+        assertNull(admission.getPosition("b1"));
+
+        runAll();
+        assertEquals(List.of("a1", "a2", "b1", "a3", "a4"), ran);
+    }
+
+    @Test
+    public void testSessionsWithoutOwnerShareOneOwner() {
+        assertEquals(AdmissionController.shareOf(null, "invoices"), AdmissionController.shareOf("", "invoices"));
+        assertEquals(AdmissionController.NO_OWNER, AdmissionController.shareOf(null, null).owner);
+        assertEquals(AdmissionController.NO_MFE, AdmissionController.shareOf("alice", "").targetMfe);
+        assertNotEquals(AdmissionController.shareOf("alice", "invoices"), AdmissionController.shareOf("bob", "invoices"));
+    }
+
+    @Test
+    public void testRejectsBeyondCapacityUnlessRequeueing() {
+        submit("r1", "invoices");
+        submit("r2", "invoices");
+        for (int i = 0; i < 4; i++) {
+            submit("w" + i, "invoices");
+        }
+
+        assertThrows(RejectedExecutionException.class, () -> submit("w4", "orders"));
+        assertEquals(5, admission.submit("r1", AdmissionController.shareOf(null, "invoices"), () -> ran.add("r1"), true));
+
+        AdmissionController.Status status = admission.getStatus();
+        assertEquals(1, status.rejected);
+        assertEquals(5, status.waiting);
+    }
+
+    @Test
+    public void testCancelMovesWaitersUp() {
+        submit("s1", "invoices");
+        submit("s2", "invoices");
+        submit("s3", "invoices");
+        submit("s4", "invoices");
+
+        assertTrue(admission.cancel("s3"));
+        assertFalse(admission.cancel("s3"));
+        assertEquals(1, admission.getPosition("s4"));
+
+        runAll();
+        assertEquals(List.of("s1", "s2", "s4"), ran);
+        AdmissionController.Status status = admission.getStatus();
+        assertEquals(0, status.running);
+        assertEquals(3, status.admitted);
+        assertTrue(status.shares.isEmpty());
+    }
+
+    private int submit(String sessionId, String targetMfe) {
+        return submit(sessionId, null, targetMfe);
+    }
+
+    private int submit(String sessionId, String owner, String targetMfe) {
+        return admission.submit(sessionId, AdmissionController.shareOf(owner, targetMfe), () -> ran.add(sessionId), false);
+    }
+
+    private void finishOldest() {
+        admitted.poll().run();
+    }
+
+    /**
+     * Run admitted commands oldest first, each releasing its slot to the next waiter
+     */
+    private void runAll() {
+        Runnable next;
+        while ((next = admitted.poll()) != null) {
+            next.run();
+        }
+    }
+}
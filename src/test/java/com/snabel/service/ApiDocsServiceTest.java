@@ -0,0 +1,81 @@
+package com.snabel.service;
+
+import com.snabel.config.AppConfig;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ApiDocsServiceTest {
+
+    @TempDir
+    Path tmp;
+
+    private ApiDocsService apiDocs;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        apiDocs = new ApiDocsService();
+        apiDocs.appConfig = new AppConfig() {
+            @Override
+            public String getBackendPath() {
+                return tmp.toString();
+            }
+
+            @Override
+            public int getApiDocsMaxTokens() {
+                return 300;
+            }
+        };
+
+        String filler = "Lorem ipsum dolor sit amet. ".repeat(20) + "\n";
+        Files.createDirectories(tmp.resolve("docs"));
+        Files.writeString(tmp.resolve("docs/API.md"), "# Backend API\n\n"
+            + "## GET /api/users/{id}\n\nReturns a user.\n" + filler
+            + "## GET /api/invoices\n\nLists invoices.\n" + filler
+            + "## POST /api/payments\n\nCreates a payment.\n" + filler
+            + "## GET /api/reports\n\nLists reports.\n" + filler);
+    }
+
+    @Test
+    public void testNormalizePath() {
+        assertEquals("/api/users", ApiDocsService.normalizePath("${API_URL}/api/users"));
+        assertEquals("/api/users", ApiDocsService.normalizePath("/api/users/${id}"));
+        assertEquals("/api/invoices", ApiDocsService.normalizePath("https://api.example.com/api/invoices/42?full=1"));
+        assertEquals("/api/invoices", ApiDocsService.normalizePath("api/invoices/"));
+        assertEquals("", ApiDocsService.normalizePath("http://localhost:8080"));
+        assertEquals("", ApiDocsService.normalizePath("${API_URL}"));
+    }
+
+    @Test
+    public void testTemplatedReferenceSelectsItsSection() {
+        String docs = apiDocs.renderForSession(null, "", List.of("${API_URL}/api/users/${userId}"));
+
+        assertTrue(docs.contains("## GET /api/users/{id}"), docs);
+        assertFalse(docs.contains("## GET /api/invoices"), docs);
+        assertFalse(docs.contains("## POST /api/payments"), docs);
+    }
+
+    @Test
+    public void testHostOnlyReferenceMatchesNothing() {
+        String docs = apiDocs.renderForSession(null, "", List.of("http://localhost:8080", "/api/invoices"));
+
+        assertTrue(docs.contains("## GET /api/invoices"), docs);
+        assertFalse(docs.contains("## GET /api/users/{id}"), docs);
+        assertFalse(docs.contains("## GET /api/reports"), docs);
+    }
+
+    @Test
+    public void testFullDocsWhenNothingMatches() {
+        String docs = apiDocs.renderForSession(null, "", List.of("${API_URL}"));
+
+        assertTrue(docs.startsWith("=== BACKEND API DOCUMENTATION ==="), docs);
+        assertTrue(docs.contains("## GET /api/reports"), docs);
+    }
+}
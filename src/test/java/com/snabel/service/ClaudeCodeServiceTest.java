@@ -0,0 +1,89 @@
+package com.snabel.service;
+
+import com.snabel.model.ImportSession;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ClaudeCodeServiceTest {
+
+    private FileService fileService;
+    private ImportSession session;
+
+    @BeforeEach
+    public void setUp() {
+        fileService = new FileService();
+        fileService.apiDocsService = new ApiDocsService() {
+            @Override
+            public String renderForSession(String targetMfe, String description, Collection<String> referencedPaths) {
+                return "BACKEND API:\n- GET /api/invoices\n\n";
+            }
+
+            @Override
+            public Path getDocsPath() {
+                return Path.of("api-docs.md");
+            }
+        };
+
+        session = new ImportSession();
+        session.description = "Invoice list";
+        session.originalInstructions = "Show overdue invoices first";
+        session.targetMfe = "invoicing";
+    }
+
+    @Test
+    public void testInstructionsSentOnFirstStartOnly() {
+        FileService.Instructions instructions = direct();
+
+        assertTrue(ClaudeCodeService.instructionsChanged(session, instructions));
+        sent(instructions);
+
+        // Started again with nothing new: built the same, so not sent again
+        assertFalse(ClaudeCodeService.instructionsChanged(session, direct()));
+    }
+
+    @Test
+    public void testInstructionsSentAgainAfterUpload() {
+        // The UI starts a new session right away, before anything is uploaded
+        sent(direct());
+
+        // Upload, then start again: the instructions now carry the analysis and code map
+        FileService.FileAnalysis analysis = new FileService.FileAnalysis();
+        analysis.totalFiles = 12;
+        analysis.typescriptFiles = 9;
+        FileService.Instructions upload = fileService.buildClaudeInstructions(session.description, analysis,
+            "src/InvoiceList.tsx: InvoiceList", List.of("/api/invoices"), session.originalInstructions, session.targetMfe);
+
+        assertTrue(ClaudeCodeService.instructionsChanged(session, upload));
+        assertTrue(upload.text().contains("src/InvoiceList.tsx"));
+        sent(upload);
+
+        assertFalse(ClaudeCodeService.instructionsChanged(session, fileService.buildClaudeInstructions(session.description,
+            analysis, "src/InvoiceList.tsx: InvoiceList", List.of("/api/invoices"), session.originalInstructions, session.targetMfe)));
+    }
+
+    @Test
+    public void testSessionStartedBeforeInstructionsHashIsSentInstructions() {
+        // Started when only the prefix hash was stored
+        session.promptPrefixHash = direct().prefixHash;
+
+        assertTrue(ClaudeCodeService.instructionsChanged(session, direct()));
+    }
+
+    private FileService.Instructions direct() {
+        return fileService.buildDirectInstructions(session.description, session.originalInstructions, session.targetMfe);
+    }
+
+    /**
+     * Record the instructions as startClaudeProcess does once they are queued
+     */
+    private void sent(FileService.Instructions instructions) {
+        session.promptPrefixHash = instructions.prefixHash;
+        session.instructionsHash = instructions.hash;
+    }
+}
@@ -0,0 +1,191 @@
+package com.snabel.service;
+
+import com.snabel.config.AppConfig;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ClaudeProcessManagerTest {
+
+    @TempDir
+    Path tmp;
+
+    private ClaudeProcessManager manager;
+    private int idleMinutes = 10;
+    private Path claude;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        // Stands in for the CLI: reads commands until stdin closes
+        claude = script("claude", "exec cat > /dev/null");
+
+        manager = new ClaudeProcessManager();
+        manager.appConfig = new AppConfig() {
+            @Override
+            public String getClaudeExecutable() {
+                return claude.toString();
+            }
+
+            @Override
+            public boolean getClaudeUnsafeMode() {
+                return false;
+            }
+
+            @Override
+            public String getFrontendPath() {
+                return tmp.toString();
+            }
+
+            @Override
+            public boolean getGitWorktrees() {
+                return true;
+            }
+
+            @Override
+            public boolean getClaudePersistentProcess() {
+                return true;
+            }
+
+            @Override
+            public List<String> getClaudePoolMfes() {
+                return List.of();
+            }
+
+            @Override
+            public int getClaudePersistentIdleMinutes() {
+                return idleMinutes;
+            }
+
+            @Override
+            public int getClaudeKillGraceSeconds() {
+                return 1;
+            }
+
+            @Override
+            public int getClaudeCommandTimeoutMinutes() {
+                return 0;
+            }
+
+            @Override
+            public int getClaudeCommandIdleTimeoutMinutes() {
+                return 0;
+            }
+        };
+        manager.init();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        manager.shutdown();
+    }
+
+    @Test
+    public void testNoCheckoutPoolWithWorktrees() throws Exception {
+        Thread.sleep(200);
+
+        assertEquals(0, manager.getWarmCount());
+        assertEquals(0, manager.getStartedCount());
+    }
+
+    @Test
+    public void testSessionClaimsProcessPrestartedInItsWorktree() throws Exception {
+        String worktree = Files.createDirectories(tmp.resolve("worktrees/s1/apps/invoices")).toString();
+
+        manager.prestart("s1", worktree);
+        await(() -> manager.getWarmCount() == 1);
+
+        assertTrue(manager.prepare("s1", worktree));
+        assertEquals(0, manager.getWarmCount());
+        assertEquals(1, manager.getProcessCount());
+        assertEquals(1, manager.getPoolHits());
+        assertEquals(1, manager.getStartedCount());
+    }
+
+    @Test
+    public void testOtherSessionDoesNotClaimPrestartedProcess() throws Exception {
+        String first = Files.createDirectories(tmp.resolve("worktrees/s1")).toString();
+        String second = Files.createDirectories(tmp.resolve("worktrees/s2")).toString();
+
+        manager.prestart("s1", first);
+        await(() -> manager.getWarmCount() == 1);
+
+        assertFalse(manager.prepare("s2", second));
+        assertEquals(1, manager.getWarmCount());
+        assertEquals(1, manager.getPoolMisses());
+    }
+
+    @Test
+    public void testStopDiscardsPrestartedProcess() throws Exception {
+        String worktree = Files.createDirectories(tmp.resolve("worktrees/s1")).toString();
+
+        manager.prestart("s1", worktree);
+        await(() -> manager.getWarmCount() == 1);
+        manager.close("s1");
+
+        assertEquals(0, manager.getWarmCount());
+        assertFalse(manager.prepare("s1", worktree));
+    }
+
+    @Test
+    public void testReapClosesPrestartedProcessOfSessionThatNeverStarted() throws Exception {
+        String worktree = Files.createDirectories(tmp.resolve("worktrees/s1")).toString();
+
+        manager.prestart("s1", worktree);
+        await(() -> manager.getWarmCount() == 1);
+        manager.reap();
+        assertEquals(1, manager.getWarmCount());
+
+        idleMinutes = -1;
+        manager.reap();
+        assertEquals(0, manager.getWarmCount());
+        assertFalse(manager.prepare("s1", worktree));
+    }
+
+    @Test
+    public void testStoppingSessionsWaitsOneGracePeriodInParallel() throws Exception {
+        // Ignores both the end of its input and SIGTERM, so it has to be killed
+        claude = script("stubborn", "trap '' TERM\nwhile :; do sleep 1; done");
+        for (int i = 0; i < 4; i++) {
+            String worktree = Files.createDirectories(tmp.resolve("worktrees/s" + i)).toString();
+            manager.prepare("s" + i, worktree);
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < 4; i++) {
+            manager.close("s" + i);
+        }
+        // Closing returns at once; the watchdog is not held up either
+        assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(200));
+        manager.enforceTimeouts();
+
+        await(() -> manager.getKilledCount() >= 4);
+        // Grace period of 1 second for all four, rather than 2 seconds each one after the other
+        assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(2500));
+    }
+
+    private Path script(String name, String body) throws IOException {
+        Path script = tmp.resolve(name);
+        Files.writeString(script, "#!/bin/sh\n" + body + "\n");
+        Files.setPosixFilePermissions(script, PosixFilePermissions.fromString("rwxr-xr-x"));
+        return script;
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(condition.getAsBoolean());
+    }
+}
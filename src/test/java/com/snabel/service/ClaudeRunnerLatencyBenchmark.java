@@ -0,0 +1,141 @@
+package com.snabel.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.snabel.websocket.LogWebSocket;
+import jakarta.websocket.RemoteEndpoint;
+import jakarta.websocket.Session;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Latency from a line written by a one-off Claude process to its WebSocket frame, for each
+ * {@link ClaudeRunner}. A stub stands in for the CLI: it writes stream-json text messages
+ * carrying the time they were written, pausing between them as the CLI does during a turn.
+ * Each line takes the path of a command's output: read line by line, decoded, and sent by
+ * LogWebSocket to a connected client, where the frame is timed.
+ *
+ * The default stub is a node script, as the CLI is a node application. Pass another command
+ * to compare, e.g. a C program writing through stdio, which is what stdbuf is for; it must
+ * print LINES lines with the epoch time in microseconds as the text.
+ *
+ * Run with: mvn test-compile exec:java -Dexec.classpathScope=test
+ *   -Dexec.mainClass=com.snabel.service.ClaudeRunnerLatencyBenchmark [-Dexec.args="stub command"]
+ */
+public class ClaudeRunnerLatencyBenchmark {
+
+    static final int LINES = 200;
+    static final int PAUSE_MILLIS = 20;
+
+    private static final String SESSION_ID = "latency";
+
+    private static final String NODE_STUB = """
+        const lines = %d;
+        let i = 0;
+        const emit = () => {
+          const micros = Math.round((performance.timeOrigin + performance.now()) * 1000);
+          process.stdout.write('{"type":"assistant","message":{"content":[{"type":"text","text":"' + micros + '"}]}}\\n');
+          if (++i < lines) setTimeout(emit, %d);
+        };
+        emit();
+        """.formatted(LINES, PAUSE_MILLIS);
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final StreamJsonDecoder decoder = new StreamJsonDecoder();
+    private final LogWebSocket logWebSocket = new LogWebSocket();
+    private final List<Long> latencies = new ArrayList<>();
+
+    public static void main(String[] args) throws Exception {
+        List<String> stub = args.length > 0 ? Arrays.asList(args) : List.of("node", "-e", NODE_STUB);
+        ClaudeRunnerLatencyBenchmark benchmark = new ClaudeRunnerLatencyBenchmark();
+
+        System.out.println("Runner    frames   p50 ms   p95 ms   max ms");
+        for (ClaudeRunner runner : ClaudeRunner.values()) {
+            try {
+                // Once to warm up, then measured
+                benchmark.run(runner, stub);
+                benchmark.latencies.clear();
+                benchmark.run(runner, stub);
+                System.out.println(benchmark.summary(runner));
+            } catch (IOException e) {
+                System.out.printf("%-8s  not available: %s%n", runner, e.getMessage());
+            } finally {
+                benchmark.latencies.clear();
+            }
+        }
+    }
+
+    public ClaudeRunnerLatencyBenchmark() {
+        logWebSocket.onOpen(client(), SESSION_ID);
+    }
+
+    /**
+     * Run the stub and time every frame, as ClaudeCodeService reads a one-off command's output
+     */
+    void run(ClaudeRunner runner, List<String> stub) throws IOException, InterruptedException {
+        Process process = runner.start(stub, new File(System.getProperty("java.io.tmpdir")));
+        BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                decoder.decode(line, event -> {
+                    if (event.kind == ClaudeEvent.Kind.TEXT) {
+                        logWebSocket.sendLog(SESSION_ID, "INFO", "← " + event.text);
+                    }
+                });
+            }
+        } catch (IOException e) {
+            // A terminal reports EIO rather than end of file once the process has exited
+            if (runner != ClaudeRunner.PTY || process.isAlive()) {
+                throw e;
+            }
+        }
+        reader.close();
+        process.waitFor();
+    }
+
+    String summary(ClaudeRunner runner) {
+        List<Long> sorted = latencies.stream().sorted().toList();
+        if (sorted.isEmpty()) {
+            return String.format("%-8s  no frames", runner);
+        }
+        return String.format("%-8s  %6d  %7.2f  %7.2f  %7.2f", runner, sorted.size(),
+            percentile(sorted, 0.50), percentile(sorted, 0.95), sorted.get(sorted.size() - 1) / 1000.0);
+    }
+
+    private static double percentile(List<Long> sorted, double percentile) {
+        return sorted.get((int) Math.ceil(sorted.size() * percentile) - 1) / 1000.0;
+    }
+
+    /**
+     * A connected client that records, for every frame, how long ago its line was written
+     */
+    private Session client() {
+        RemoteEndpoint.Basic remote = (RemoteEndpoint.Basic) Proxy.newProxyInstance(getClass().getClassLoader(),
+            new Class<?>[]{RemoteEndpoint.Basic.class}, (proxy, method, args) -> {
+                if (method.getName().equals("sendText") && args.length == 1) {
+                    long now = ChronoUnit.MICROS.between(Instant.EPOCH, Instant.now());
+                    String message = objectMapper.readTree((String) args[0]).path("message").asText();
+                    latencies.add(now - Long.parseLong(message.substring(message.indexOf(' ') + 1)));
+                }
+                return null;
+            });
+        return (Session) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{Session.class},
+            (proxy, method, args) -> switch (method.getName()) {
+                case "isOpen" -> true;
+                case "getBasicRemote" -> remote;
+                case "hashCode" -> System.identityHashCode(proxy);
+                case "equals" -> proxy == args[0];
+                default -> null;
+            });
+    }
+}
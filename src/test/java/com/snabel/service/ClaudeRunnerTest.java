@@ -0,0 +1,49 @@
+package com.snabel.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ClaudeRunnerTest {
+
+    @TempDir
+    Path tmp;
+
+    @Test
+    public void testOfIgnoresCaseAndWhitespace() {
+        assertEquals(ClaudeRunner.STDBUF, ClaudeRunner.of("stdbuf"));
+        assertEquals(ClaudeRunner.PTY, ClaudeRunner.of(" Pty "));
+        assertEquals(ClaudeRunner.PIPE, ClaudeRunner.of("PIPE"));
+    }
+
+    @Test
+    public void testOfRejectsUnknownRunner() {
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class, () -> ClaudeRunner.of("tty"));
+        assertTrue(e.getMessage().contains("'tty'"));
+    }
+
+    @Test
+    public void testStartMergesStderrAndClosesStdin() throws Exception {
+        // cat would wait forever on an open stdin
+        Process process = ClaudeRunner.PIPE.start(List.of("sh", "-c", "cat; echo out; echo err >&2"), tmp.toFile());
+
+        assertEquals(0, process.waitFor());
+        assertEquals("out\nerr\n", new String(process.getInputStream().readAllBytes(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testHandleOfExitedProcess() throws IOException, InterruptedException {
+        Process process = ClaudeRunner.STDBUF.start(List.of("true"), tmp.toFile());
+        process.waitFor();
+
+        Optional<ProcessHandle> handle = ClaudeRunner.handle(process);
+        assertTrue(handle.isEmpty() || !handle.get().isAlive());
+    }
+}
@@ -0,0 +1,140 @@
+package com.snabel.service;
+
+import com.snabel.model.ClaudeCommand;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CommandStatsServiceTest {
+
+    private final CommandStatsService service = new CommandStatsService();
+
+    @Test
+    public void testTotalsSumsAndAverages() {
+        ClaudeCommand first = command("invoices", "success", 1000L, 0.10);
+        first.firstTokenMillis = 300L;
+        first.queueWaitMillis = 50L;
+        first.numTurns = 2;
+        first.toolCalls = 3;
+        first.inputTokens = 10L;
+        first.outputTokens = 200L;
+        first.cacheCreationTokens = 5000L;
+        first.cacheReadTokens = 1000L;
+        ClaudeCommand second = command("invoices", "error", 3000L, 0.30);
+        second.firstTokenMillis = 500L;
+        second.numTurns = 4;
+        second.toolCalls = 1;
+        second.inputTokens = 20L;
+        second.outputTokens = 100L;
+
+        CommandStatsService.Totals totals = service.totals(List.of(first, second));
+
+        assertEquals(2, totals.commands);
+        assertEquals(1, totals.errors);
+        assertEquals(2000L, totals.avgDurationMillis);
+        assertEquals(400L, totals.avgFirstTokenMillis);
+        // Only the first command waited in a queue
+        assertEquals(50L, totals.avgQueueWaitMillis);
+        assertEquals(6, totals.numTurns);
+        assertEquals(4, totals.toolCalls);
+        assertEquals(30, totals.inputTokens);
+        assertEquals(300, totals.outputTokens);
+        assertEquals(5000, totals.cacheCreationTokens);
+        assertEquals(1000, totals.cacheReadTokens);
+        assertEquals(0.40, totals.costUsd, 1e-9);
+    }
+
+    @Test
+    public void testTotalsSkipsMissingMetrics() {
+        // Killed before a result: no duration, usage or cost
+        ClaudeCommand killed = command(null, "timeout", null, null);
+        killed.toolCalls = null;
+
+        CommandStatsService.Totals totals = service.totals(List.of(killed));
+
+        assertEquals(1, totals.commands);
+        assertEquals(1, totals.errors);
+        assertNull(totals.avgDurationMillis);
+        assertNull(totals.p95DurationMillis);
+        assertNull(totals.avgFirstTokenMillis);
+        assertNull(totals.avgQueueWaitMillis);
+        assertEquals(0, totals.inputTokens);
+        assertEquals(0, totals.costUsd);
+    }
+
+    @Test
+    public void testP95Duration() {
+        List<ClaudeCommand> commands = new ArrayList<>();
+        // Out of order: 1..100 seconds
+        for (int i = 100; i >= 1; i--) {
+            commands.add(command("invoices", "success", i * 1000L, 0.01));
+        }
+
+        CommandStatsService.Totals totals = service.totals(commands);
+
+        assertEquals(95_000L, totals.p95DurationMillis);
+        assertEquals(50_500L, totals.avgDurationMillis);
+        assertEquals(7_000L, service.totals(commands.subList(93, 100)).p95DurationMillis);
+        assertEquals(1_000L, service.totals(commands.subList(99, 100)).p95DurationMillis);
+    }
+
+    @Test
+    public void testAggregateGroupsByMfeMostExpensiveFirst() {
+        List<ClaudeCommand> commands = List.of(
+            command("invoices", "success", 1000L, 0.10),
+            command("orders", "success", 2000L, 0.50),
+            command("invoices", "success", 4000L, 0.20),
+            command(null, "success", 500L, 0.05),
+            command("", "success", 700L, 0.01));
+
+        CommandStatsService.Stats stats = service.aggregate(commands, 10);
+
+        assertEquals(5, stats.total.commands);
+        assertEquals(List.of("orders", "invoices", "(frontend root)"),
+            stats.byMfe.stream().map(totals -> totals.targetMfe).toList());
+        assertEquals(2, stats.byMfe.get(1).commands);
+        assertEquals(0.30, stats.byMfe.get(1).costUsd, 1e-9);
+        assertEquals(2500L, stats.byMfe.get(1).avgDurationMillis);
+        // Commands without an MFE are grouped together
+        assertEquals(2, stats.byMfe.get(2).commands);
+        assertNull(stats.total.targetMfe);
+    }
+
+    @Test
+    public void testAggregateTopLists() {
+        ClaudeCommand slow = command("invoices", "success", 9000L, 0.10);
+        ClaudeCommand expensive = command("orders", "success", 2000L, 0.90);
+        ClaudeCommand cheap = command("orders", "success", 100L, 0.01);
+        ClaudeCommand killed = command("orders", "timeout", null, null);
+
+        CommandStatsService.Stats stats = service.aggregate(List.of(cheap, killed, expensive, slow), 2);
+
+        assertEquals(List.of(slow, expensive), stats.slowest);
+        assertEquals(List.of(expensive, slow), stats.mostExpensive);
+        // Commands without the metric are left out rather than sorted last
+        assertEquals(2, service.aggregate(List.of(killed, cheap, slow), 5).slowest.size());
+    }
+
+    @Test
+    public void testAggregateWithoutCommands() {
+        CommandStatsService.Stats stats = service.aggregate(List.of(), 10);
+
+        assertEquals(0, stats.total.commands);
+        assertTrue(stats.byMfe.isEmpty());
+        assertTrue(stats.slowest.isEmpty());
+        assertTrue(stats.mostExpensive.isEmpty());
+    }
+
+    private static ClaudeCommand command(String targetMfe, String outcome, Long durationMillis, Double costUsd) {
+        ClaudeCommand command = new ClaudeCommand();
+        command.sessionId = "s1";
+        command.targetMfe = targetMfe;
+        command.outcome = outcome;
+        command.durationMillis = durationMillis;
+        command.costUsd = costUsd;
+        return command;
+    }
+}
@@ -0,0 +1,116 @@
+package com.snabel.service;
+
+import com.snabel.config.AppConfig;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DirectoryDeleterTest {
+
+    @TempDir
+    Path tmp;
+
+    private DirectoryDeleter deleter;
+
+    @BeforeEach
+    public void setUp() {
+        deleter = new DirectoryDeleter();
+        deleter.appConfig = new AppConfig() {
+            @Override
+            public String getTempDirectory() {
+                return tmp.toString();
+            }
+
+            @Override
+            public int getStorageDeleteRate() {
+                return 20;
+            }
+        };
+        deleter.init();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        deleter.shutdown();
+    }
+
+    @Test
+    public void testDeleteCountsFiles() throws IOException {
+        Path tree = tree("tree", 5, 3);
+
+        assertEquals(5 * 5 * 3, deleter.delete(tree));
+        assertFalse(Files.exists(tree));
+        assertEquals(0, deleter.delete(tree));
+    }
+
+    @Test
+    public void testBackgroundDeleteUsesStoreTrash() throws Exception {
+        Path tree = tree("evicted", 2, 2);
+
+        deleter.deleteInBackground(tree);
+
+        assertFalse(Files.exists(tree));
+        assertEquals(tmp.resolve("store/trash"), deleter.getTrashRoot());
+        long deadline = System.currentTimeMillis() + 5000;
+        while (hasEntries(deleter.getTrashRoot()) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertFalse(hasEntries(deleter.getTrashRoot()));
+    }
+
+    @Test
+    public void testThrottledDeleteDoesNotBlockDelete() throws Exception {
+        // 20 files per second: the throttled delete takes a few seconds
+        Path slow = tree("slow", 4, 20);
+        Path fast = tree("fast", 4, 20);
+
+        CompletableFuture<Long> throttled = CompletableFuture.supplyAsync(() -> {
+            try {
+                return deleter.deleteThrottled(slow);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        Thread.sleep(100);
+
+        long start = System.nanoTime();
+        assertEquals(4 * 4 * 20, deleter.delete(fast));
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+        assertFalse(throttled.isDone());
+        throttled.cancel(true);
+    }
+
+    /**
+     * A tree of width directories, each with width subdirectories of files files
+     */
+    private Path tree(String name, int width, int files) throws IOException {
+        Path root = tmp.resolve(name);
+        for (int i = 0; i < width; i++) {
+            for (int j = 0; j < width; j++) {
+                Path dir = Files.createDirectories(root.resolve("d" + i).resolve("e" + j));
+                for (int k = 0; k < files; k++) {
+                    Files.writeString(dir.resolve("f" + k), "x");
+                }
+            }
+        }
+        return root;
+    }
+
+    private static boolean hasEntries(Path dir) throws IOException {
+        if (!Files.isDirectory(dir)) {
+            return false;
+        }
+        try (var entries = Files.list(dir)) {
+            return entries.findAny().isPresent();
+        }
+    }
+}
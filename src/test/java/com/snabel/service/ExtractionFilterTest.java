@@ -0,0 +1,67 @@
+package com.snabel.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ExtractionFilterTest {
+
+    private static final List<String> DEFAULT_EXCLUDES = List.of(
+        "**/node_modules/**", "**/.git/**", "**/dist/**", "**/build/**", "**/.next/**", "**/__MACOSX/**");
+
+    @Test
+    public void testExcludesMatchAtRootAndNested() {
+        ExtractionFilter filter = new ExtractionFilter(List.of(), DEFAULT_EXCLUDES);
+
+        assertFalse(filter.accepts("node_modules/react/index.js"));
+        assertFalse(filter.accepts("apps/shell/node_modules/react/index.js"));
+        assertFalse(filter.accepts(".git/HEAD"));
+        assertFalse(filter.accepts("__MACOSX/src/._App.tsx"));
+        assertTrue(filter.accepts("src/App.tsx"));
+        assertTrue(filter.accepts("package.json"));
+    }
+
+    @Test
+    public void testDirectoryEntriesMatchLikeTheirContents() {
+        ExtractionFilter filter = new ExtractionFilter(List.of(), DEFAULT_EXCLUDES);
+
+        assertFalse(filter.accepts("dist/"));
+        assertFalse(filter.accepts("apps/shell/build/"));
+        assertTrue(filter.accepts("src/"));
+    }
+
+    @Test
+    public void testNamesThatOnlyContainAnExcludedWord() {
+        ExtractionFilter filter = new ExtractionFilter(List.of(), DEFAULT_EXCLUDES);
+
+        assertTrue(filter.accepts("src/build.ts"));
+        assertTrue(filter.accepts("src/distance/index.ts"));
+        assertTrue(filter.accepts("docs/node_modules.md"));
+    }
+
+    @Test
+    public void testIncludesRestrictAndExcludesStillApply() {
+        ExtractionFilter filter = new ExtractionFilter(List.of("**/*.ts", "**/*.tsx"), List.of("**/dist/**"));
+
+        assertTrue(filter.accepts("src/App.tsx"));
+        assertTrue(filter.accepts("index.ts"));
+        assertFalse(filter.accepts("src/styles.css"));
+        assertFalse(filter.accepts("dist/index.ts"));
+    }
+
+    @Test
+    public void testFingerprintDependsOnPatterns() {
+        ExtractionFilter a = new ExtractionFilter(List.of(), DEFAULT_EXCLUDES);
+        ExtractionFilter b = new ExtractionFilter(List.of(), DEFAULT_EXCLUDES);
+        ExtractionFilter c = new ExtractionFilter(List.of(), List.of("**/dist/**"));
+        // Same patterns moved between include and exclude must not collide
+        ExtractionFilter d = new ExtractionFilter(List.of("**/dist/**"), List.of());
+
+        assertEquals(a.fingerprint(), b.fingerprint());
+        assertNotEquals(a.fingerprint(), c.fingerprint());
+        assertNotEquals(c.fingerprint(), d.fingerprint());
+        assertEquals(12, a.fingerprint().length());
+    }
+}
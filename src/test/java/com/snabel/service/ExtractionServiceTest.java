@@ -0,0 +1,188 @@
+package com.snabel.service;
+
+import com.snabel.config.AppConfig;
+import com.snabel.websocket.LogWebSocket;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ExtractionServiceTest {
+
+    @TempDir
+    Path tmp;
+
+    private ExtractionService extraction;
+
+    @BeforeEach
+    public void setUp() {
+        extraction = new ExtractionService();
+        extraction.appConfig = new AppConfig() {
+            @Override
+            public int getExtractParallelism() {
+                return 4;
+            }
+        };
+        extraction.logWebSocket = new LogWebSocket();
+        extraction.init();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        extraction.shutdown();
+    }
+
+    @Test
+    public void testZipDuplicateEntriesLastWins() throws IOException {
+        Path zip = zip("dup.zip",
+            "src/App.tsx", "first",
+            "src/other.ts", "other",
+            "src/App.tsx", "second");
+
+        FileService.FileAnalysis analysis = new FileService.FileAnalysis();
+        ExtractionService.ExtractionStats stats = extract(zip, analysis, 0);
+
+        assertEquals("second", Files.readString(tmp.resolve("out/src/App.tsx")));
+        assertEquals(2, stats.files);
+        assertEquals(2, analysis.totalFiles);
+    }
+
+    @Test
+    public void testZipQuotaCountsInflatedBytes() throws IOException {
+        byte[] large = new byte[1024 * 1024];
+        Path zip = zip("bomb.zip", "big.txt", new String(large, StandardCharsets.ISO_8859_1));
+        // Claim the entry is 10 bytes in both the local and the central directory header
+        rewriteUncompressedSizes(zip, 10);
+
+        IOException error = assertThrows(IOException.class,
+            () -> extract(zip, new FileService.FileAnalysis(), 64 * 1024));
+        assertTrue(error.getMessage().contains("quota"), error.getMessage());
+    }
+
+    @Test
+    public void testZipQuotaRejectsDeclaredSizeUpFront() throws IOException {
+        Path zip = zip("large.zip", "big.txt", "x".repeat(100_000));
+
+        IOException error = assertThrows(IOException.class,
+            () -> extract(zip, new FileService.FileAnalysis(), 50_000));
+        assertTrue(error.getMessage().contains("would be"), error.getMessage());
+        assertFalse(Files.exists(tmp.resolve("out/big.txt")));
+    }
+
+    @Test
+    public void testZipPathTraversalRejected() throws IOException {
+        Path zip = zip("evil.zip", "../evil.txt", "x");
+
+        assertThrows(IOException.class, () -> extract(zip, new FileService.FileAnalysis(), 0));
+        assertFalse(Files.exists(tmp.resolve("evil.txt")));
+    }
+
+    @Test
+    public void testTarDuplicateEntriesLastWins() throws IOException {
+        String[] entries = new String[200];
+        for (int i = 0; i < 100; i++) {
+            entries[2 * i] = i % 2 == 0 ? "src/App.tsx" : "src/file" + i + ".ts";
+            entries[2 * i + 1] = "content " + i;
+        }
+        Path tar = tar("dup.tar.gz", entries);
+
+        FileService.FileAnalysis analysis = new FileService.FileAnalysis();
+        ExtractionService.ExtractionStats stats = extract(tar, analysis, 0);
+
+        assertEquals("content 98", Files.readString(tmp.resolve("out/src/App.tsx")));
+        assertEquals(51, stats.files);
+        assertEquals(51, analysis.totalFiles);
+    }
+
+    @Test
+    public void testTarDuplicateDoesNotWriteThroughHardLink() throws IOException {
+        Path tar = tar("linked.tar.gz", "src/App.tsx", "first", "src/App.tsx", "second");
+        Path blobs = Files.createDirectories(tmp.resolve("blobs"));
+
+        // Link every extracted file elsewhere, as the upload store does with its blobs
+        Path target = Files.createDirectories(tmp.resolve("out"));
+        extraction.extract("test", tar, target, new ExtractionFilter(List.of(), List.of()),
+            new FileService.FileAnalysis(),
+            (file, sha256) -> Files.createLink(blobs.resolve(HexFormat.of().formatHex(sha256)), file), 0);
+
+        assertEquals("second", Files.readString(target.resolve("src/App.tsx")));
+        try (var linked = Files.list(blobs)) {
+            assertEquals(List.of("first", "second"), linked.map(blob -> {
+                try {
+                    return Files.readString(blob);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }).sorted().toList());
+        }
+    }
+
+    private ExtractionService.ExtractionStats extract(Path archive, FileService.FileAnalysis analysis,
+                                                      long maxBytes) throws IOException {
+        Path target = Files.createDirectories(tmp.resolve("out"));
+        return extraction.extract("test", archive, target, new ExtractionFilter(List.of(), List.of()), analysis, null, maxBytes);
+    }
+
+    /**
+     * Zip of name, content pairs; unlike ZipOutputStream this allows duplicate names
+     */
+    private Path zip(String name, String... entries) throws IOException {
+        Path zip = tmp.resolve(name);
+        try (ZipArchiveOutputStream out = new ZipArchiveOutputStream(zip.toFile())) {
+            for (int i = 0; i < entries.length; i += 2) {
+                out.putArchiveEntry(new ZipArchiveEntry(entries[i]));
+                out.write(entries[i + 1].getBytes(StandardCharsets.ISO_8859_1));
+                out.closeArchiveEntry();
+            }
+        }
+        return zip;
+    }
+
+    /**
+     * Gzipped tarball of name, content pairs
+     */
+    private Path tar(String name, String... entries) throws IOException {
+        Path tar = tmp.resolve(name);
+        try (TarArchiveOutputStream out = new TarArchiveOutputStream(new GZIPOutputStream(Files.newOutputStream(tar)))) {
+            for (int i = 0; i < entries.length; i += 2) {
+                byte[] content = entries[i + 1].getBytes(StandardCharsets.UTF_8);
+                TarArchiveEntry entry = new TarArchiveEntry(entries[i]);
+                entry.setSize(content.length);
+                out.putArchiveEntry(entry);
+                out.write(content);
+                out.closeArchiveEntry();
+            }
+        }
+        return tar;
+    }
+
+    private static void rewriteUncompressedSizes(Path zip, int size) throws IOException {
+        ByteBuffer bytes = ByteBuffer.wrap(Files.readAllBytes(zip)).order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i + 4 <= bytes.limit(); i++) {
+            int signature = bytes.getInt(i);
+            if (signature == 0x04034b50) {
+                bytes.putInt(i + 22, size);
+            } else if (signature == 0x02014b50) {
+                bytes.putInt(i + 24, size);
+            }
+        }
+        Files.write(zip, bytes.array());
+    }
+}
@@ -0,0 +1,115 @@
+package com.snabel.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FileDiffTest {
+
+    private static final String DIFF = """
+        diff --git a/src/List.tsx b/src/List.tsx
+        index 3b18e51..a2c4f0d 100644
+        --- a/src/List.tsx
+        +++ b/src/List.tsx
+        @@ -1,4 +1,5 @@
+         import React from 'react';
+        +import { Table } from './Table';
+        \s
+         export function List() {
+        -  return null;
+        +  return <Table />;
+        @@ -20 +21,2 @@ export default List;
+        -// old
+        +// new
+        +// more
+        @@ -30,0 +32 @@
+        +-- not a header
+        \\ No newline at end of file
+        """;
+
+    @Test
+    public void testHunkRanges() {
+        GitService.FileDiff diff = parse(DIFF, 0, 10);
+
+        assertEquals(3, diff.totalHunks);
+        GitService.Hunk first = diff.hunks.get(0);
+        assertEquals("@@ -1,4 +1,5 @@", first.header);
+        assertEquals(List.of(1, 4, 1, 5), range(first));
+        assertEquals(6, first.lines.size());
+
+        // Omitted counts are 1, and text after the range is kept in the header
+        GitService.Hunk second = diff.hunks.get(1);
+        assertEquals(List.of(20, 1, 21, 2), range(second));
+        assertEquals("@@ -20 +21,2 @@ export default List;", second.header);
+
+        // A pure insertion: nothing removed after line 30
+        assertEquals(List.of(30, 0, 32, 1), range(diff.hunks.get(2)));
+    }
+
+    @Test
+    public void testHeaderAndLineCounts() {
+        GitService.FileDiff diff = parse(DIFF, 0, 10);
+
+        assertEquals(List.of(
+            "diff --git a/src/List.tsx b/src/List.tsx",
+            "index 3b18e51..a2c4f0d 100644",
+            "--- a/src/List.tsx",
+            "+++ b/src/List.tsx"), diff.header);
+        // ---/+++ before the first hunk are not counted; "-- not a header" inside one is an addition
+        assertEquals(5, diff.additions);
+        assertEquals(2, diff.deletions);
+        assertFalse(diff.binary);
+        assertEquals("\\ No newline at end of file", diff.hunks.get(2).lines.get(1));
+    }
+
+    @Test
+    public void testHunkPage() {
+        GitService.FileDiff diff = parse(DIFF, 1, 1);
+
+        assertEquals(3, diff.totalHunks);
+        assertEquals(1, diff.hunks.size());
+        assertEquals(20, diff.hunks.get(0).oldStart);
+        // Counted over the whole file, not the page
+        assertEquals(5, diff.additions);
+
+        assertTrue(parse(DIFF, 5, 10).hunks.isEmpty());
+        assertEquals(2, parse(DIFF, 1, Integer.MAX_VALUE).hunks.size());
+    }
+
+    @Test
+    public void testBinaryFileHasNoHunks() {
+        String diff = """
+            diff --git a/logo.png b/logo.png
+            index 1111111..2222222 100644
+            Binary files a/logo.png and b/logo.png differ
+            """;
+
+        GitService.FileDiff fileDiff = parse(diff, 0, 10);
+
+        assertTrue(fileDiff.binary);
+        assertEquals(0, fileDiff.totalHunks);
+        assertEquals(3, fileDiff.header.size());
+    }
+
+    @Test
+    public void testRenameKeepsBothPaths() {
+        GitService.ChangedFile file = GitService.ChangedFile.parse("R087 src/Old.tsx\tsrc/New.tsx");
+        GitService.FileDiff diff = GitService.FileDiff.parse(file, "", 0, 10);
+
+        assertEquals("R087", diff.status);
+        assertEquals("src/Old.tsx", diff.oldPath);
+        assertEquals("src/New.tsx", diff.path);
+        assertEquals(0, diff.totalHunks);
+        assertTrue(diff.header.isEmpty());
+    }
+
+    private static GitService.FileDiff parse(String diff, int offset, int limit) {
+        return GitService.FileDiff.parse(GitService.ChangedFile.parse("M src/List.tsx"), diff, offset, limit);
+    }
+
+    private static List<Integer> range(GitService.Hunk hunk) {
+        return List.of(hunk.oldStart, hunk.oldLines, hunk.newStart, hunk.newLines);
+    }
+}
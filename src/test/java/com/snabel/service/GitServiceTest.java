@@ -0,0 +1,135 @@
+package com.snabel.service;
+
+import com.snabel.config.AppConfig;
+import com.snabel.websocket.LogWebSocket;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class GitServiceTest {
+
+    @TempDir
+    Path tmp;
+
+    private Path frontend;
+    private GitService gitService;
+    private final List<String> logs = new ArrayList<>();
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        // A repository whose base branch is master
+        frontend = Files.createDirectories(tmp.resolve("frontend"));
+        git(frontend, "init", "-q", "-b", "master");
+        git(frontend, "config", "user.name", "Test");
+        git(frontend, "config", "user.email", "test@example.com");
+        Files.writeString(frontend.resolve("App.tsx"), "export const App = 1;\n");
+        git(frontend, "add", ".");
+        git(frontend, "commit", "-q", "-m", "Initial commit");
+
+        gitService = new GitService();
+        gitService.appConfig = new AppConfig() {
+            @Override
+            public String getFrontendPath() {
+                return frontend.toString();
+            }
+
+            @Override
+            public String getTempDirectory() {
+                return tmp.resolve("temp").toString();
+            }
+
+            @Override
+            public boolean getGitWorktrees() {
+                return true;
+            }
+
+            @Override
+            public String getGitBackend() {
+                return "jgit";
+            }
+
+            @Override
+            public String getBranchPrefix() {
+                return "claude-code";
+            }
+        };
+        gitService.logWebSocket = new LogWebSocket() {
+            @Override
+            public void sendLog(String sessionId, String level, String message) {
+                logs.add(message);
+            }
+        };
+        gitService.jgitReader = new JGitReader();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        gitService.jgitReader.shutdown();
+    }
+
+    @Test
+    public void testDiffAgainstMasterWithoutGitProcesses() throws Exception {
+        GitService.Worktree worktree = gitService.prepareWorktree("s1", "Add list", null);
+        Files.writeString(worktree.directory.resolve("List.tsx"), "export const List = 1;\n");
+        git(worktree.directory, "add", ".");
+        git(worktree.directory, "commit", "-q", "-m", "Add list");
+        logs.clear();
+
+        assertEquals(List.of("A List.tsx"), gitService.getChangedFiles("s1", worktree.branchName));
+        GitService.FileDiff diff = gitService.getFileDiff("s1", worktree.branchName, "List.tsx", 0, 10);
+        assertEquals(1, diff.additions);
+
+        // Answered in-process: nothing was run, so nothing was logged
+        assertEquals(List.of(), logs);
+    }
+
+    @Test
+    public void testMergeFastForwardsBase() throws Exception {
+        GitService.Worktree worktree = gitService.prepareWorktree("s1", "Add list", null);
+        Files.writeString(worktree.directory.resolve("List.tsx"), "export const List = 1;\n");
+
+        gitService.mergeBranch("s1", worktree.branchName, "Merge list");
+
+        assertEquals("Merge list", git(frontend, "log", "-1", "--format=%s", "master").trim());
+        // The frontend checkout has master checked out, so its files follow
+        assertTrue(Files.exists(frontend.resolve("List.tsx")));
+        assertFalse(Files.exists(worktree.directory));
+    }
+
+    @Test
+    public void testFailedMergeLeavesWorktreeOnBranch() throws Exception {
+        GitService.Worktree worktree = gitService.prepareWorktree("s1", "Remove app", null);
+        git(worktree.directory, "rm", "-q", "App.tsx");
+        git(worktree.directory, "commit", "-q", "-m", "Remove app");
+        // Changed on master meanwhile: a conflict the branch's version cannot resolve
+        Files.writeString(frontend.resolve("App.tsx"), "export const App = 2;\n");
+        git(frontend, "commit", "-q", "-am", "Change app");
+        String master = git(frontend, "rev-parse", "master");
+
+        assertThrows(IOException.class, () -> gitService.mergeBranch("s1", worktree.branchName, "Merge"));
+
+        assertEquals(master, git(frontend, "rev-parse", "master"));
+        assertEquals(worktree.branchName, git(worktree.directory, "rev-parse", "--abbrev-ref", "HEAD").trim());
+        assertFalse(Files.exists(Path.of(git(worktree.directory, "rev-parse", "--git-path", "MERGE_HEAD").trim())));
+        assertEquals("", git(worktree.directory, "status", "--porcelain"));
+    }
+
+    private static String git(Path directory, String... args) throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>(List.of("git"));
+        command.addAll(List.of(args));
+        Process process = new ProcessBuilder(command).directory(directory.toFile()).redirectErrorStream(true).start();
+        String output = new String(process.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+        assertEquals(0, process.waitFor(), output);
+        return output;
+    }
+}
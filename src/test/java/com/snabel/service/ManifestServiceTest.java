@@ -0,0 +1,125 @@
+package com.snabel.service;
+
+import com.snabel.config.AppConfig;
+import com.snabel.websocket.LogWebSocket;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ManifestServiceTest {
+
+    @TempDir
+    Path tmp;
+
+    private ManifestService manifestService;
+    private int budget = 12000;
+
+    @BeforeEach
+    public void setUp() {
+        AppConfig appConfig = new AppConfig() {
+            @Override
+            public String getTempDirectory() {
+                return tmp.toString();
+            }
+
+            @Override
+            public int getManifestMaxChars() {
+                return budget;
+            }
+        };
+        UploadStore uploadStore = new UploadStore();
+        uploadStore.appConfig = appConfig;
+
+        manifestService = new ManifestService();
+        manifestService.appConfig = appConfig;
+        manifestService.logWebSocket = new LogWebSocket();
+        manifestService.uploadStore = uploadStore;
+        manifestService.init();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        manifestService.shutdown();
+    }
+
+    @Test
+    public void testExportsImportsRoutesAndApiCalls() throws IOException {
+        Path tree = tree("tree-a");
+        write(tree, "src/App.tsx", """
+            import React from 'react';
+            import { Route } from 'react-router-dom';
+            import { InvoiceList } from './invoices';
+            import type { Invoice } from './types';
+            export default function App() {
+              return <Route path="/invoices" element={<InvoiceList />} />;
+            }
+            """);
+        write(tree, "src/invoices/index.tsx", """
+            import axios from 'axios';
+            import { client } from '@snabel/api/client';
+            export const InvoiceList = () => null;
+            export async function load() {
+              await axios.get<Invoice[]>('/api/invoices');
+              await fetch(`${API_URL}/api/clients`);
+            }
+            """);
+        write(tree, "src/types.ts", "export interface Invoice { id: number }\nexport { Invoice as Bill };\n");
+        write(tree, "README.md", "# upload\n");
+
+        String manifest = manifestService.getManifest("test", tree);
+
+        assertTrue(manifest.contains("- /invoices  (src/App.tsx)"), manifest);
+        assertTrue(manifest.contains("- src/App.tsx: App  <- src/invoices/index.tsx, src/types.ts"), manifest);
+        assertTrue(manifest.contains("- src/invoices/index.tsx: InvoiceList, load"), manifest);
+        assertTrue(manifest.contains("- src/types.ts: Invoice, Bill"), manifest);
+        assertTrue(manifest.contains("- @snabel/api, axios, react, react-router-dom"), manifest);
+        assertTrue(manifest.contains("OTHER FILES:\n- README.md"), manifest);
+
+        assertEquals(List.of("/api/invoices", "${API_URL}/api/clients"), manifestService.getApiCalls("test", tree));
+    }
+
+    @Test
+    public void testBudgetTruncatesSections() throws IOException {
+        budget = 400;
+        Path tree = tree("tree-b");
+        for (int i = 0; i < 50; i++) {
+            write(tree, "src/module" + i + ".ts", "export const value" + i + " = " + i + ";\n");
+        }
+
+        String manifest = manifestService.getManifest("test", tree);
+
+        // Only the "... (n more)" marker and the end line may go past the budget
+        assertTrue(manifest.length() <= budget + 50, manifest);
+        assertTrue(manifest.contains("more)"), manifest);
+    }
+
+    @Test
+    public void testManifestCachedNextToTree() throws IOException {
+        Path tree = tree("tree-c");
+        write(tree, "index.ts", "export const a = 1;\n");
+
+        String first = manifestService.getManifest("test", tree);
+        write(tree, "other.ts", "export const b = 2;\n");
+
+        assertSame(first, manifestService.getManifest("test", tree));
+        assertTrue(Files.exists(tmp.resolve("store/manifests/tree-c-" + budget + ".txt")));
+    }
+
+    private Path tree(String name) throws IOException {
+        return Files.createDirectories(tmp.resolve("store/trees").resolve(name));
+    }
+
+    private static void write(Path root, String path, String content) throws IOException {
+        Path file = root.resolve(path);
+        Files.createDirectories(file.getParent());
+        Files.writeString(file, content);
+    }
+}
@@ -0,0 +1,138 @@
+package com.snabel.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SessionCommandQueueTest {
+
+    @Test
+    public void testFirstCommandStartsTheDrainLoop() {
+        SessionCommandQueue queue = new SessionCommandQueue();
+
+        assertEquals(0, queue.add(1, "first", false, 100));
+        assertTrue(queue.isBusy());
+        // Not taken yet: one command ahead
+        assertEquals(1, queue.add(2, "second", false, 200));
+
+        queue.next(false);
+        // In flight plus the one pending
+        assertEquals(2, queue.add(3, "third", false, 300));
+    }
+
+    @Test
+    public void testCommandsRunInOrder() {
+        SessionCommandQueue queue = new SessionCommandQueue();
+        queue.add(1, "first", false, 100);
+        queue.add(2, "second", false, 200);
+        queue.add(3, "third", false, 300);
+
+        assertEquals(List.of("first"), commands(queue.next(false)));
+        assertTrue(queue.finish());
+        assertEquals(List.of("second"), commands(queue.next(false)));
+        assertTrue(queue.finish());
+        assertEquals(List.of("third"), commands(queue.next(false)));
+        assertFalse(queue.finish());
+
+        assertFalse(queue.isBusy());
+        assertEquals(3, queue.status().completed);
+        // Idle again: the next command starts the drain loop
+        assertEquals(0, queue.add(4, "fourth", false, 400));
+    }
+
+    @Test
+    public void testCoalesceTakesEveryPendingCommand() {
+        SessionCommandQueue queue = new SessionCommandQueue();
+        queue.add(1, "first", false, 100);
+        assertEquals(List.of("first"), commands(queue.next(true)));
+
+        queue.add(2, "second", false, 200);
+        queue.add(3, "third", false, 300);
+        assertTrue(queue.finish());
+
+        List<SessionCommandQueue.QueuedCommand> batch = queue.next(true);
+        assertEquals(List.of("second", "third"), commands(batch));
+        assertEquals(200, batch.get(0).queuedAt);
+        assertFalse(queue.finish());
+    }
+
+    @Test
+    public void testInstructionsAreNeverCoalesced() {
+        SessionCommandQueue queue = new SessionCommandQueue();
+        queue.add(1, "instructions", true, 100);
+        queue.add(2, "follow-up", false, 200);
+        queue.add(3, "another", false, 300);
+
+        assertEquals(List.of("instructions"), commands(queue.next(true)));
+        queue.finish();
+        assertEquals(List.of("follow-up", "another"), commands(queue.next(true)));
+        queue.finish();
+
+        queue.add(4, "before", false, 400);
+        queue.add(5, "instructions", true, 500);
+        assertEquals(List.of("before"), commands(queue.next(true)));
+        queue.finish();
+        assertEquals(List.of("instructions"), commands(queue.next(true)));
+    }
+
+    @Test
+    public void testClearKeepsTheCommandInFlight() {
+        SessionCommandQueue queue = new SessionCommandQueue();
+        queue.add(1, "first", false, 100);
+        queue.add(2, "second", false, 200);
+        queue.add(3, "third", false, 300);
+        queue.next(false);
+
+        assertEquals(2, queue.clear());
+        SessionCommandQueue.Status status = queue.status();
+        assertTrue(status.inFlight);
+        assertEquals(0, status.pending);
+
+        assertFalse(queue.finish());
+        assertFalse(queue.isBusy());
+    }
+
+    @Test
+    public void testNextAfterClearReleasesTheDrainLoop() {
+        SessionCommandQueue queue = new SessionCommandQueue();
+        queue.add(1, "first", false, 100);
+        queue.clear();
+
+        assertNull(queue.next(false));
+        assertFalse(queue.isBusy());
+    }
+
+    @Test
+    public void testAbortDropsEverything() {
+        SessionCommandQueue queue = new SessionCommandQueue();
+        queue.add(1, "first", false, 100);
+        queue.add(2, "second", false, 200);
+
+        assertEquals(2, queue.abort());
+        assertFalse(queue.isBusy());
+        assertEquals(0, queue.add(3, "third", false, 300));
+    }
+
+    @Test
+    public void testStatusListsPendingCommandsWithPositions() {
+        SessionCommandQueue queue = new SessionCommandQueue();
+        queue.add(1, "first", false, 100);
+        queue.add(2, "second", false, 200);
+        queue.add(3, "third", false, 300);
+        queue.next(false);
+
+        SessionCommandQueue.Status status = queue.status();
+        assertEquals(2, status.pending);
+        assertNotNull(status.inFlightSince);
+        assertEquals(1, status.commands.get(0).position);
+        assertEquals("second", status.commands.get(0).command);
+        assertEquals(2, status.commands.get(1).position);
+        assertEquals(300, status.commands.get(1).queuedAt);
+    }
+
+    private static List<String> commands(List<SessionCommandQueue.QueuedCommand> batch) {
+        return batch.stream().map(queued -> queued.command).toList();
+    }
+}
@@ -0,0 +1,132 @@
+package com.snabel.service;
+
+import com.snabel.config.AppConfig;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class StorageJanitorTest {
+
+    @TempDir
+    Path tmp;
+
+    private StorageJanitor janitor;
+    private DirectoryDeleter deleter;
+    private final Set<Path> treesInUse = new HashSet<>();
+
+    @BeforeEach
+    public void setUp() {
+        AppConfig appConfig = new AppConfig() {
+            @Override
+            public String getTempDirectory() {
+                return tmp.toString();
+            }
+
+            @Override
+            public long getStorageQuotaMb() {
+                return 1;
+            }
+
+            @Override
+            public int getStorageTreeMinIdleMinutes() {
+                return 10;
+            }
+
+            @Override
+            public int getStorageDeleteRate() {
+                return 0;
+            }
+        };
+
+        deleter = new DirectoryDeleter();
+        deleter.appConfig = appConfig;
+        deleter.init();
+
+        UploadStore uploadStore = new UploadStore();
+        uploadStore.appConfig = appConfig;
+        uploadStore.directoryDeleter = deleter;
+
+        janitor = new StorageJanitor();
+        janitor.appConfig = appConfig;
+        janitor.uploadStore = uploadStore;
+        janitor.directoryDeleter = deleter;
+        janitor.fileService = new FileService() {
+            @Override
+            public void cleanupOldSessions() {
+            }
+
+            @Override
+            public Set<Path> getTreesInUse() {
+                return treesInUse;
+            }
+        };
+    }
+
+    @AfterEach
+    public void tearDown() {
+        deleter.shutdown();
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsedTree() throws IOException {
+        Path older = tree("older", 60);
+        Path newer = tree("newer", 30);
+
+        janitor.run();
+
+        assertFalse(Files.exists(older));
+        assertTrue(Files.exists(newer));
+        assertEquals(1, janitor.getEvictedTrees());
+    }
+
+    @Test
+    public void testKeepsTreeOfRunningSession() throws IOException {
+        Path older = tree("older", 60);
+        Path newer = tree("newer", 30);
+        // Last touched when its session started an hour ago, Claude still working in it
+        treesInUse.add(older.toAbsolutePath());
+
+        janitor.run();
+
+        assertTrue(Files.exists(older));
+        assertFalse(Files.exists(newer));
+        assertEquals(1, janitor.getEvictedTrees());
+    }
+
+    @Test
+    public void testRecentlyUsedTreesAreKept() throws IOException {
+        Path tree = tree("tree", 60);
+        treesInUse.add(tree);
+        Path recent = tree("recent", 1);
+
+        janitor.run();
+
+        // Over quota, but nothing may be evicted
+        assertTrue(Files.exists(tree));
+        assertTrue(Files.exists(recent));
+        assertEquals(0, janitor.getEvictedTrees());
+    }
+
+    /**
+     * An unpacked tree of 600 KB, last used the given number of minutes ago
+     */
+    private Path tree(String name, int minutesAgo) throws IOException {
+        Path tree = Files.createDirectories(tmp.resolve("store").resolve("trees").resolve(name));
+        Files.write(tree.resolve("bundle.js"), new byte[600 * 1024]);
+
+        Path marker = Files.createDirectories(tmp.resolve("store").resolve("access")).resolve(name);
+        Files.createFile(marker);
+        Files.setLastModifiedTime(marker, FileTime.fromMillis(System.currentTimeMillis() - minutesAgo * 60_000L));
+        return tree;
+    }
+}
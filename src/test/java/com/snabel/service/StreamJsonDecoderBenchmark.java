@@ -0,0 +1,76 @@
+package com.snabel.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decoding one command's stream-json output: {@link StreamJsonDecoder} against building a
+ * JsonNode tree for every line, as ClaudeCodeService did before. The transcript is shaped like
+ * a real one: an init message, a text block with a large Write, the large tool result and the
+ * final result.
+ *
+ * Run with: mvn test-compile exec:java -Dexec.classpathScope=test
+ *   -Dexec.mainClass=com.snabel.service.StreamJsonDecoderBenchmark
+ * (add -prof gc to the options below for allocation rates)
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class StreamJsonDecoderBenchmark {
+
+    @Param({"300000"})
+    public int payloadChars;
+
+    private List<String> transcript;
+    private final StreamJsonDecoder decoder = new StreamJsonDecoder();
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Setup
+    public void setUp() {
+        String payload = "const line = \\\"" + "x".repeat(64) + "\\\";\\n";
+        String content = payload.repeat(Math.max(1, payloadChars / payload.length()));
+        transcript = List.of(
+            "{\"type\":\"system\",\"subtype\":\"init\",\"cwd\":\"/tmp/worktree\",\"session_id\":\"s\",\"tools\":[\"Bash\",\"Edit\",\"Write\"]}",
+            "{\"type\":\"assistant\",\"message\":{\"id\":\"msg_1\",\"role\":\"assistant\",\"content\":["
+                + "{\"type\":\"text\",\"text\":\"Writing the component\"},"
+                + "{\"type\":\"tool_use\",\"id\":\"toolu_1\",\"name\":\"Write\",\"input\":{\"file_path\":\"src/List.tsx\",\"content\":\""
+                + content + "\"}}]}}",
+            "{\"type\":\"user\",\"message\":{\"role\":\"user\",\"content\":[{\"type\":\"tool_result\",\"tool_use_id\":\"toolu_1\","
+                + "\"content\":[{\"type\":\"text\",\"text\":\"" + content + "\"}]}]}}",
+            "{\"type\":\"result\",\"subtype\":\"success\",\"is_error\":false,\"duration_ms\":5120,\"num_turns\":2,"
+                + "\"result\":\"Done\",\"total_cost_usd\":0.04,\"usage\":{\"input_tokens\":12,\"output_tokens\":340}}"
+        );
+    }
+
+    @Benchmark
+    public void streaming(Blackhole blackhole) {
+        for (String line : transcript) {
+            blackhole.consume(decoder.decode(line, blackhole::consume));
+        }
+    }
+
+    @Benchmark
+    public void tree(Blackhole blackhole) throws Exception {
+        for (String line : transcript) {
+            JsonNode node = objectMapper.readTree(line);
+            blackhole.consume(node.path("message").path("content").path(0).path("text").asText(null));
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+            .include(StreamJsonDecoderBenchmark.class.getSimpleName())
+            .build()).run();
+    }
+}
@@ -0,0 +1,121 @@
+package com.snabel.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class StreamJsonDecoderTest {
+
+    private final StreamJsonDecoder decoder = new StreamJsonDecoder();
+
+    @Test
+    public void testAssistantTextAndToolUse() {
+        String line = """
+            {"type":"assistant","message":{"id":"msg_1","role":"assistant","content":[\
+            {"type":"thinking","thinking":"..."},\
+            {"type":"text","text":"Creating the list"},\
+            {"type":"tool_use","id":"toolu_1","name":"Write","input":{"content":"export {}","file_path":"src/List.tsx"}}]}}""";
+        List<ClaudeEvent> events = new ArrayList<>();
+
+        assertEquals("assistant", decoder.decode(line, events::add));
+
+        assertEquals(2, events.size());
+        assertEquals(ClaudeEvent.Kind.TEXT, events.get(0).kind);
+        assertEquals("Creating the list", events.get(0).text);
+        assertEquals(ClaudeEvent.Kind.TOOL_USE, events.get(1).kind);
+        assertEquals("toolu_1", events.get(1).toolUseId);
+        assertEquals("Write", events.get(1).toolName);
+        assertEquals("src/List.tsx", events.get(1).toolTarget);
+    }
+
+    @Test
+    public void testToolTargetIsTruncated() {
+        String command = "x".repeat(1000);
+        String line = "{\"type\":\"assistant\",\"message\":{\"content\":[{\"type\":\"tool_use\",\"name\":\"Bash\",\"input\":{\"command\":\""
+            + command + "\"}}]}}";
+        List<ClaudeEvent> events = new ArrayList<>();
+
+        decoder.decode(line, events::add);
+
+        assertEquals(200, events.get(0).toolTarget.length());
+    }
+
+    @Test
+    public void testToolResultSkipsOutput() {
+        String line = """
+            {"type":"user","message":{"role":"user","content":[\
+            {"type":"tool_result","tool_use_id":"toolu_1","is_error":true,"content":[{"type":"text","text":"boom"}]}]}}""";
+        List<ClaudeEvent> events = new ArrayList<>();
+
+        assertEquals("user", decoder.decode(line, events::add));
+
+        assertEquals(1, events.size());
+        ClaudeEvent event = events.get(0);
+        assertEquals(ClaudeEvent.Kind.TOOL_RESULT, event.kind);
+        assertEquals("toolu_1", event.toolUseId);
+        assertTrue(event.isError);
+        assertNull(event.text);
+    }
+
+    @Test
+    public void testResultWithUsage() {
+        String line = """
+            {"type":"result","subtype":"success","is_error":false,"duration_ms":5120,"duration_api_ms":4800,\
+            "num_turns":3,"result":"Done","total_cost_usd":0.0421,\
+            "usage":{"input_tokens":12,"output_tokens":340,"cache_creation_input_tokens":5000,"cache_read_input_tokens":15000,"server_tool_use":{"web_search_requests":0}}}""";
+        List<ClaudeEvent> events = new ArrayList<>();
+
+        assertEquals("result", decoder.decode(line, events::add));
+
+        ClaudeEvent result = events.get(0);
+        assertEquals(ClaudeEvent.Kind.RESULT, result.kind);
+        assertEquals("success", result.subtype);
+        assertFalse(result.isError);
+        assertEquals("Done", result.text);
+        assertEquals(5120L, result.durationMs);
+        assertEquals(4800L, result.apiDurationMs);
+        assertEquals(3, result.numTurns);
+        assertEquals(0.0421, result.costUsd);
+        assertEquals(12L, result.inputTokens);
+        assertEquals(340L, result.outputTokens);
+        assertEquals(5000L, result.cacheCreationTokens);
+        assertEquals(15000L, result.cacheReadTokens);
+    }
+
+    @Test
+    public void testUnknownTypesProduceNoEvents() {
+        List<ClaudeEvent> events = new ArrayList<>();
+
+        assertEquals("system", decoder.decode("{\"type\":\"system\",\"subtype\":\"init\",\"tools\":[\"Bash\"]}", events::add));
+        assertEquals("stream_event", decoder.decode("{\"type\":\"stream_event\",\"event\":{\"type\":\"ping\"}}", events::add));
+        assertEquals("assistant", decoder.decode(
+            "{\"type\":\"assistant\",\"message\":{\"content\":[{\"type\":\"server_tool_use\",\"id\":\"x\"},\"stray\"]}}", events::add));
+
+        assertTrue(events.isEmpty());
+    }
+
+    @Test
+    public void testPartialLineProducesNoEvents() {
+        String line = "{\"type\":\"assistant\",\"message\":{\"content\":[{\"type\":\"text\",\"text\":\"Half\"},{\"type\":\"text\",\"te";
+        List<ClaudeEvent> events = new ArrayList<>();
+
+        assertNull(decoder.decode(line, events::add));
+        assertTrue(events.isEmpty());
+    }
+
+    @Test
+    public void testMalformedAndNonJsonLines() {
+        List<ClaudeEvent> events = new ArrayList<>();
+
+        assertNull(decoder.decode("", events::add));
+        assertNull(decoder.decode("Error: not logged in", events::add));
+        assertNull(decoder.decode("{\"type\":\"result\",}", events::add));
+        assertNull(decoder.decode("{not json}", events::add));
+        assertNull(decoder.decode("{\"subtype\":\"success\"}", events::add));
+
+        assertTrue(events.isEmpty());
+    }
+}